@@ -0,0 +1,157 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.math.BigInteger;
+
+/**
+ * Runner for servers whose clients may use either an {@link SRPClientSessionRunner} or an {@link SRPPipelinedClientRunner}.
+ * A pipelined client sends A with its user name, so s and B go back together as one message (see {@link SRPPipelinedServerRunner}).
+ * Other clients get s on its own and B once A arrives (see {@link SRPServerSessionRunner}).<br>
+ * <p>
+ * Which client it is comes from the hello (see {@link SRPStreamHandshake}), so this needs non-legacy {@link SRPStreamOptions} and
+ * must be run by the streams, an {@link SRPChannel}, an {@link SRPEngine} or an {@link SRPAsyncHandshake}. With legacy options
+ * every client is taken to be an {@link SRPClientSessionRunner}.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.1 Implements {@link SRPRunnerCapabilities} - 10/16/26
+ * @version 1.0
+ */
+public class SRPAdaptiveServerRunner implements SRPRunner, SRPRunnerCapabilities
+{
+	/**
+	 * @param factory factory for the server session
+	 * @param lookup gets the verifier of the user
+	 * @param userName the user for clients that aren't pipelined (and so don't send a user name in the exchange) or null to turn
+	 * them down
+	 */
+	public SRPAdaptiveServerRunner(SRPFactory factory, SRPServer.VerifierLookup lookup, String userName)
+	{
+		fFactory = factory;
+		fLookup = lookup;
+		fUserName = userName;
+		fPipelined = false;
+		fRunner = null;
+	}
+
+	public boolean needsInput()
+	{
+		return (fRunner != null) && fRunner.needsInput();
+	}
+
+	public void setInput(BigInteger i)
+	{
+		fRunner.setInput(i);
+	}
+
+	public boolean hasOutput()
+	{
+		return (fRunner != null) && fRunner.hasOutput();
+	}
+
+	public BigInteger getOutput()
+	{
+		return (fRunner != null) ? fRunner.getOutput() : null;
+	}
+
+	public boolean			next() throws SRPAuthenticationFailedException
+	{
+		if ( fRunner == null )
+		{
+			if ( fPipelined )
+			{
+				fRunner = new SRPPipelinedServerRunner(fFactory, fLookup);
+			}
+			else
+			{
+				if ( fUserName == null )
+				{
+					throw new SRPAuthenticationFailedException("Client must use the pipelined exchange");
+				}
+				fRunner = new SRPServerSessionRunner(fFactory.newServerSession(SRPPipelinedServerRunner.lookupVerifier(fFactory, fLookup, fUserName)));
+			}
+		}
+		return fRunner.next();
+	}
+
+	public boolean				success()
+	{
+		return (fRunner != null) && fRunner.success();
+	}
+
+	public byte[] 				getSessionKey()
+	{
+		return (fRunner != null) ? fRunner.getSessionKey() : null;
+	}
+
+	/**
+	 * The user the client authenticated as. Only valid once {@link #success()} returns true.
+	 *
+	 * @return user name
+	 */
+	public String				getUserName()
+	{
+		if ( !success() )
+		{
+			return null;
+		}
+		return fPipelined ? ((SRPPipelinedServerRunner)fRunner).getUserName() : fUserName;
+	}
+
+	/**
+	 * @return true if the client used the pipelined exchange
+	 */
+	public boolean				isPipelined()
+	{
+		return fPipelined;
+	}
+
+	public boolean				isServer()
+	{
+		return true;
+	}
+
+	public boolean				sendsBeforeHello()
+	{
+		return false;
+	}
+
+	public boolean				canPipeline()
+	{
+		return true;
+	}
+
+	public boolean				holdsHello()
+	{
+		return true;
+	}
+
+	public void					agreed(boolean pipelined)
+	{
+		if ( fRunner != null )
+		{
+			throw new IllegalStateException("The exchange has already started");
+		}
+		fPipelined = pipelined;
+	}
+
+	private final SRPFactory 				fFactory;
+	private final SRPServer.VerifierLookup 	fLookup;
+	private final String 					fUserName;
+	private boolean 						fPipelined;
+	private SRPRunner 						fRunner;
+}
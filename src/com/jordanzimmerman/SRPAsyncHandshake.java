@@ -0,0 +1,348 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs authentication exchanges without blocking a thread per connection. Each exchange is driven by an {@link SRPEngine} (and so
+ * by the usual {@link SRPRunner}s) over an {@link AsynchronousByteChannel}. The engine steps - where the modPow() work is done - run
+ * on a compute executor. The channel's completion handlers only start the next read/write or hand the next step to the compute
+ * executor, so the channel's threads are never held up by the math.<br>
+ * <p>
+ * Usage:
+ * <code><pre>
+ * SRPAsyncHandshake handshakes = new SRPAsyncHandshake(SRPAsyncHandshake.newComputeExecutor(4, 1000), 10000);
+ * ...
+ * handshakes.handshake(channel, runner, options).whenComplete(...);
+ * </pre></code>
+ * Backpressure: at most maxHandshakes exchanges may be in progress. Beyond that, and whenever the compute executor rejects a
+ * step (e.g. the bounded queue of {@link #newComputeExecutor(int, int)} is full), the future completes with a
+ * {@link RejectedExecutionException}.
+ * <p>
+ * Deadline: an exchange that hasn't finished within the handshake timeout completes with a {@link TimeoutException} and gives up its
+ * place - a peer that connects and never sends can't hold one forever. The channel is never closed by this class - close it when the
+ * future fails (that also ends a read that is still waiting).
+ * <p>
+ * The bytes exchanged are the same protocol as {@link SRPInputStream}/{@link SRPOutputStream} so the other end can use the
+ * streams, an {@link SRPChannel} or an {@link SRPEngine}.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @see SRPSession
+ * @version 1.1 Handshake timeout - 10/16/26
+ * @version 1.0
+ */
+public class SRPAsyncHandshake
+{
+	/**
+	 * Exchanges time out after {@link SRPServer#HANDSHAKE_TIMEOUT_MS}
+	 *
+	 * @param computeExecutor runs the engine steps. Should be bounded - see {@link #newComputeExecutor(int, int)}
+	 * @param maxHandshakes the most exchanges that may be in progress at once
+	 */
+	public SRPAsyncHandshake(Executor computeExecutor, int maxHandshakes)
+	{
+		this(computeExecutor, maxHandshakes, SRPServer.HANDSHAKE_TIMEOUT_MS);
+	}
+
+	/**
+	 * @param computeExecutor runs the engine steps. Should be bounded - see {@link #newComputeExecutor(int, int)}
+	 * @param maxHandshakes the most exchanges that may be in progress at once
+	 * @param handshakeTimeoutMs an exchange that takes longer than this fails with a {@link TimeoutException}
+	 */
+	public SRPAsyncHandshake(Executor computeExecutor, int maxHandshakes, long handshakeTimeoutMs)
+	{
+		if ( maxHandshakes <= 0 )
+		{
+			throw new IllegalArgumentException("maxHandshakes must be greater than 0");
+		}
+		if ( handshakeTimeoutMs <= 0 )
+		{
+			throw new IllegalArgumentException("handshakeTimeoutMs must be greater than 0");
+		}
+
+		fComputeExecutor = computeExecutor;
+		fMaxHandshakes = maxHandshakes;
+		fHandshakeTimeoutMs = handshakeTimeoutMs;
+		fPermits = new Semaphore(maxHandshakes);
+	}
+
+	/**
+	 * Make a compute executor: a fixed number of daemon threads and a bounded queue. Steps submitted while the queue is full are
+	 * rejected.
+	 *
+	 * @param threads number of threads - usually the number of cores
+	 * @param queueSize the most steps that may wait for a thread
+	 * @return executor
+	 */
+	public static ExecutorService		newComputeExecutor(int threads, int queueSize)
+	{
+		ThreadFactory		threadFactory = new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread		thread = new Thread(r, "SRPAsyncHandshake");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Start an authentication exchange
+	 *
+	 * @param channel channel to the corresponding client/server. No other reads/writes may be started on it until the future completes.
+	 * @param runner A session runner
+	 * @param options protocol options to negotiate. Must match the kind (legacy or not) used at the other end.
+	 * @return completes with the session, or exceptionally if authentication fails, there is an I/O error, the exchange was
+	 * rejected or it timed out (see above)
+	 */
+	public CompletableFuture<SRPSession>	handshake(AsynchronousByteChannel channel, SRPRunner runner, SRPStreamOptions options)
+	{
+		final CompletableFuture<SRPSession>		future = new CompletableFuture<SRPSession>();
+		if ( !fPermits.tryAcquire() )
+		{
+			future.completeExceptionally(new RejectedExecutionException("Too many handshakes in progress: " + fMaxHandshakes));
+			return future;
+		}
+
+		final ScheduledFuture<?>		timeout = fTimeouts.schedule(new Runnable()
+		{
+			public void run()
+			{
+				future.completeExceptionally(new TimeoutException("Handshake did not finish within " + fHandshakeTimeoutMs + "ms"));
+			}
+		}, fHandshakeTimeoutMs, TimeUnit.MILLISECONDS);
+		future.whenComplete(new BiConsumer<SRPSession, Throwable>()
+		{
+			public void accept(SRPSession session, Throwable e)
+			{
+				timeout.cancel(false);
+				fPermits.release();
+			}
+		});
+		new Exchange(channel, runner, new SRPEngine(runner, options), future).submitStep();
+		return future;
+	}
+
+	/**
+	 * @return the number of exchanges in progress
+	 */
+	public int				getActiveCount()
+	{
+		return fMaxHandshakes - fPermits.availablePermits();
+	}
+
+	/**
+	 * One authentication exchange. Exactly one of: an engine step, a read or a write is in progress at any time - each hands off to
+	 * the next via the executor or the channel, which orders the accesses to the engine and buffers.
+	 */
+	private class Exchange
+	{
+		Exchange(AsynchronousByteChannel channel, SRPRunner runner, SRPEngine engine, CompletableFuture<SRPSession> future)
+		{
+			fChannel = channel;
+			fRunner = runner;
+			fEngine = engine;
+			fFuture = future;
+			fInbound = ByteBuffer.allocate(engine.getPacketBufferSize());
+			fInbound.flip();
+			fOutbound = ByteBuffer.allocate(engine.getPacketBufferSize());
+			fOutbound.flip();
+		}
+
+		void			submitStep()
+		{
+			if ( fFuture.isDone() )
+			{
+				return;	// timed out - the channel is left for the caller to close
+			}
+
+			try
+			{
+				fComputeExecutor.execute(new Runnable()
+				{
+					public void run()
+					{
+						try
+						{
+							step();
+						}
+						catch ( Throwable e )
+						{
+							fFuture.completeExceptionally(e);
+						}
+					}
+				});
+			}
+			catch ( RejectedExecutionException e )
+			{
+				fFuture.completeExceptionally(e);
+			}
+		}
+
+		/**
+		 * Advance the engine until it needs I/O
+		 */
+		private void	step() throws IOException
+		{
+			for(;;)
+			{
+				switch ( fEngine.getHandshakeStatus() )
+				{
+					case NEED_WRAP:
+					{
+						fOutbound.clear();
+						fEngine.wrap(EMPTY, fOutbound);
+						fOutbound.flip();
+						if ( fOutbound.hasRemaining() )
+						{
+							write();
+							return;
+						}
+						break;
+					}
+
+					case NEED_UNWRAP:
+					{
+						// data blocks behind the last value are left in fInbound (there's no room for them in EMPTY)
+						SRPEngineResult		result = fEngine.unwrap(fInbound, EMPTY);
+						if ( result.status == SRPEngineResult.Status.BUFFER_UNDERFLOW )
+						{
+							if ( (fInbound.position() == 0) && (fInbound.limit() == fInbound.capacity()) )
+							{
+								throw new SRPAuthenticationFailedException("Authentication value is too large");
+							}
+							read();
+							return;
+						}
+						break;
+					}
+
+					default:
+					{
+						fFuture.complete(new SRPSession(fEngine, fInbound, fRunner.getSessionKey()));
+						return;
+					}
+				}
+			}
+		}
+
+		private void	write()
+		{
+			fChannel.write(fOutbound, null, new CompletionHandler<Integer, Void>()
+			{
+				public void completed(Integer count, Void attachment)
+				{
+					if ( fOutbound.hasRemaining() )
+					{
+						write();
+					}
+					else
+					{
+						submitStep();
+					}
+				}
+
+				public void failed(Throwable e, Void attachment)
+				{
+					fFuture.completeExceptionally(e);
+				}
+			});
+		}
+
+		private void	read()
+		{
+			if ( fFuture.isDone() )
+			{
+				return;
+			}
+
+			fInbound.compact();
+			fChannel.read(fInbound, null, new CompletionHandler<Integer, Void>()
+			{
+				public void completed(Integer count, Void attachment)
+				{
+					fInbound.flip();
+					if ( count < 0 )
+					{
+						fFuture.completeExceptionally(new EOFException("Corresponding client/server closed the connection"));
+					}
+					else
+					{
+						submitStep();
+					}
+				}
+
+				public void failed(Throwable e, Void attachment)
+				{
+					fFuture.completeExceptionally(e);
+				}
+			});
+		}
+
+		private final AsynchronousByteChannel 			fChannel;
+		private final SRPRunner 						fRunner;
+		private final SRPEngine 						fEngine;
+		private final CompletableFuture<SRPSession> 	fFuture;
+		private final ByteBuffer 						fInbound;
+		private final ByteBuffer 						fOutbound;
+	}
+
+	private static final ByteBuffer		EMPTY = ByteBuffer.allocate(0);
+
+	// one daemon thread fails the exchanges that time out - the task only completes a future
+	private static final ScheduledThreadPoolExecutor	fTimeouts = newTimeoutExecutor();
+
+	private static ScheduledThreadPoolExecutor		newTimeoutExecutor()
+	{
+		ScheduledThreadPoolExecutor		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread		thread = new Thread(r, "SRPAsyncHandshake timeouts");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.setRemoveOnCancelPolicy(true);	// most exchanges finish long before their timeout
+		return executor;
+	}
+
+	private final Executor 			fComputeExecutor;
+	private final int 				fMaxHandshakes;
+	private final long 				fHandshakeTimeoutMs;
+	private final Semaphore 		fPermits;
+}
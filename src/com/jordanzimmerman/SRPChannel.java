@@ -0,0 +1,329 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * A channel that authenticates and encrypts. It speaks the same protocol as {@link SRPInputStream}/{@link SRPOutputStream} (the
+ * other end can use either) but never blocks on its own - with a non-blocking channel, the authentication exchange is driven
+ * a step at a time from selector readiness events.<br>
+ * <p>
+ * Usage:
+ * <code><pre>
+ * SRPChannel channel = new SRPChannel(socketChannel, runner, options);
+ * ...
+ * // each time the selector reports the socket as ready
+ * if ( channel.handshake() )
+ * {
+ *     ... channel.read()/channel.write() ...
+ * }
+ * key.interestOps(channel.interestOps());
+ * </pre></code>
+ * read() and write() also advance the authentication exchange and return 0 until it is complete. The protocol work is done by
+ * an {@link SRPEngine} - data blocks are decrypted from the inbound buffer straight into the caller's buffer (when it has room
+ * for a whole block) and encrypted straight from the caller's buffer into the outbound buffer.
+ * <p>
+ * Like the channels of the JDK, an SRPChannel must not be read or written by more than one thread at a time.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.1 Protocol work done by {@link SRPEngine} - 10/16/26
+ * @version 1.0
+ */
+public class SRPChannel implements ByteChannel
+{
+	/**
+	 * Uses the original protocol ({@link SRPStreamOptions#LEGACY})
+	 *
+	 * @param channel channel to the corresponding client/server
+	 * @param runner A session runner
+	 */
+	public SRPChannel(ByteChannel channel, SRPRunner runner)
+	{
+		this(channel, runner, SRPStreamOptions.LEGACY);
+	}
+
+	/**
+	 * @param channel channel to the corresponding client/server
+	 * @param runner A session runner
+	 * @param options protocol options to negotiate. Must match the kind (legacy or not) used at the other end.
+	 */
+	public SRPChannel(ByteChannel channel, SRPRunner runner, SRPStreamOptions options)
+	{
+		fChannel = channel;
+		fEngine = new SRPEngine(runner, options);
+
+		fInbound = ByteBuffer.allocate(fEngine.getPacketBufferSize());
+		fInbound.flip();
+		fOutbound = ByteBuffer.allocate(fEngine.getPacketBufferSize());
+		fOutbound.flip();
+		fPlain = ByteBuffer.allocate(fEngine.getApplicationBufferSize());
+		fPlain.flip();
+	}
+
+	/**
+	 * Advance the authentication exchange as far as possible without blocking (other than any blocking done by the wrapped
+	 * channel itself). Call this each time the wrapped channel is ready until it returns true. Use {@link #interestOps()} to know
+	 * what to wait for next.
+	 *
+	 * @return true once authentication is complete and everything from the exchange has been written
+	 * @throws IOException if authentication fails or there is an I/O error
+	 */
+	public boolean		handshake() throws IOException
+	{
+		checkOpen();
+
+		for(;;)
+		{
+			switch ( fEngine.getHandshakeStatus() )
+			{
+				case NEED_WRAP:
+				{
+					fOutbound.compact();
+					SRPEngineResult		result = fEngine.wrap(EMPTY, fOutbound);
+					fOutbound.flip();
+					if ( !flush() && (result.status == SRPEngineResult.Status.BUFFER_OVERFLOW) )
+					{
+						return false;
+					}
+					break;
+				}
+
+				case NEED_UNWRAP:
+				{
+					// any data blocks that arrive along with the last value are decrypted into fPlain
+					fPlain.compact();
+					SRPEngineResult		result = fEngine.unwrap(fInbound, fPlain);
+					fPlain.flip();
+					if ( result.status == SRPEngineResult.Status.BUFFER_UNDERFLOW )
+					{
+						flush();	// the other end may be waiting on what's been wrapped
+
+						if ( fInbound.limit() == fInbound.capacity() && fInbound.position() == 0 )
+						{
+							throw new SRPAuthenticationFailedException("Authentication value is too large");
+						}
+
+						int		readCount = fillInbound();
+						if ( readCount < 0 )
+						{
+							throw new SRPAuthenticationFailedException("Corresponding client/server closed the connection");
+						}
+						if ( readCount == 0 )
+						{
+							return false;
+						}
+					}
+					break;
+				}
+
+				default:
+				{
+					return flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if authentication is complete
+	 */
+	public boolean		isHandshakeComplete()
+	{
+		return (fEngine.getHandshakeStatus() == SRPEngineResult.HandshakeStatus.NOT_HANDSHAKING);
+	}
+
+	/**
+	 * Returns the operations to wait for on the wrapped channel: {@link SelectionKey#OP_WRITE} while there are bytes that couldn't
+	 * be written yet, otherwise {@link SelectionKey#OP_READ}.
+	 *
+	 * @return interest ops for the wrapped channel's selection key
+	 */
+	public int			interestOps()
+	{
+		return fOutbound.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+	}
+
+	/**
+	 * Write as much of the pending outbound bytes as the wrapped channel will take
+	 *
+	 * @return true if there is nothing pending
+	 * @throws IOException I/O errors
+	 */
+	public boolean		flush() throws IOException
+	{
+		while ( fOutbound.hasRemaining() )
+		{
+			if ( fChannel.write(fOutbound) == 0 )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read decrypted bytes. Only whole data blocks can be decrypted so, with a non-blocking channel, this returns 0 until a
+	 * complete block has arrived.
+	 *
+	 * @param dst buffer to read into
+	 * @return number of bytes read, possibly 0, or -1 at end of stream
+	 * @throws IOException if authentication fails, a data block is bad or there is an I/O error
+	 */
+	public int			read(ByteBuffer dst) throws IOException
+	{
+		if ( !isHandshakeComplete() )
+		{
+			handshake();
+			if ( !isHandshakeComplete() )
+			{
+				return 0;
+			}
+		}
+
+		int		count = 0;
+		while ( dst.hasRemaining() )
+		{
+			if ( fPlain.hasRemaining() )
+			{
+				int		length = Math.min(fPlain.remaining(), dst.remaining());
+				int		limit = fPlain.limit();
+				fPlain.limit(fPlain.position() + length);
+				dst.put(fPlain);
+				fPlain.limit(limit);
+				count += length;
+				continue;
+			}
+
+			SRPEngineResult		result = fEngine.unwrap(fInbound, dst);
+			count += result.bytesProduced;
+			if ( result.status == SRPEngineResult.Status.OK )
+			{
+				continue;
+			}
+			if ( result.status == SRPEngineResult.Status.BUFFER_OVERFLOW )
+			{
+				// dst doesn't have room for a whole data block
+				fPlain.clear();
+				fEngine.unwrap(fInbound, fPlain);
+				fPlain.flip();
+				continue;
+			}
+
+			if ( count > 0 )
+			{
+				break;	// don't wait for more when there's something to return
+			}
+
+			int		readCount = fillInbound();
+			if ( readCount < 0 )
+			{
+				if ( fInbound.hasRemaining() )
+				{
+					throw new EOFException("Stream ended in the middle of a data block");
+				}
+				return -1;
+			}
+			if ( readCount == 0 )
+			{
+				break;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Encrypt and write bytes. Each call writes whole data blocks. If the wrapped channel can't take a block, it is kept and
+	 * written by the next call to write() or {@link #flush()} - no more bytes are accepted until then.
+	 *
+	 * @param src bytes to write
+	 * @return number of bytes consumed from src, possibly 0
+	 * @throws IOException if authentication fails or there is an I/O error
+	 */
+	public int			write(ByteBuffer src) throws IOException
+	{
+		if ( !isHandshakeComplete() )
+		{
+			handshake();
+			if ( !isHandshakeComplete() )
+			{
+				return 0;
+			}
+		}
+
+		int		count = 0;
+		while ( src.hasRemaining() && flush() )
+		{
+			fOutbound.clear();
+			count += fEngine.wrap(src, fOutbound).bytesConsumed;
+			fOutbound.flip();
+		}
+		flush();
+		return count;
+	}
+
+	public boolean		isOpen()
+	{
+		return fChannel.isOpen();
+	}
+
+	/**
+	 * Closes the wrapped channel. Bytes that haven't been written yet (see {@link #flush()}) are lost.
+	 *
+	 * @throws IOException I/O errors
+	 */
+	public void			close() throws IOException
+	{
+		fEngine.closeInbound();
+		fEngine.closeOutbound();
+		fChannel.close();
+	}
+
+	private void		checkOpen() throws IOException
+	{
+		if ( !fChannel.isOpen() )
+		{
+			throw new ClosedChannelException();
+		}
+	}
+
+	private int			fillInbound() throws IOException
+	{
+		fInbound.compact();
+		try
+		{
+			return fChannel.read(fInbound);
+		}
+		finally
+		{
+			fInbound.flip();
+		}
+	}
+
+	private static final ByteBuffer		EMPTY = ByteBuffer.allocate(0);
+
+	private final ByteChannel 		fChannel;
+	private final SRPEngine 		fEngine;
+	private final ByteBuffer 		fInbound;
+	private final ByteBuffer 		fOutbound;
+	private final ByteBuffer 		fPlain;
+}
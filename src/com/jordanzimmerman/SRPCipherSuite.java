@@ -0,0 +1,131 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+
+/**
+ * The ciphers that {@link SRPInputStream}/{@link SRPOutputStream} can use to encrypt data blocks
+ * <p>
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @see SRPStreamOptions
+ * @version 1.1 AES_ECB padding is done by {@link SRPFrameCipher} - 10/16/26
+ * @version 1.0
+ */
+public enum SRPCipherSuite
+{
+	/**
+	 * The original cipher - AES in ECB mode with PKCS5 padding. Each data block is padded and there is no integrity check.
+	 */
+	AES_ECB("AES/ECB/NoPadding", "AES", 0, 0),
+
+	/**
+	 * AES in GCM mode with a 128 bit tag. The nonce of each data block is taken from a counter.
+	 */
+	AES_GCM("AES/GCM/NoPadding", "AES", 12, 128),
+
+	/**
+	 * ChaCha20-Poly1305 (requires a JCE that provides it - Java 11 or later). The nonce of each data block is taken from a counter.
+	 */
+	CHACHA20_POLY1305("ChaCha20-Poly1305", "ChaCha20", 12, 128);
+
+	/**
+	 * Returns true if the installed JCE provides this cipher
+	 *
+	 * @return true/false
+	 */
+	public boolean			isAvailable()
+	{
+		try
+		{
+			Cipher.getInstance(fTransformation);
+			return true;
+		}
+		catch ( GeneralSecurityException e )
+		{
+			return false;
+		}
+	}
+
+	Cipher					newCipher() throws GeneralSecurityException
+	{
+		return Cipher.getInstance(fTransformation);
+	}
+
+	/**
+	 * Make the JCE key from the SRP session key (K). ChaCha20 needs 256 bits so a SHA-256 hash of K is used for it.
+	 *
+	 * @param sessionKey K
+	 * @return key
+	 */
+	Key						makeKey(byte[] sessionKey)
+	{
+		byte[]		keyBytes = (this == CHACHA20_POLY1305) ? SRPUtils.sha256(sessionKey) : sessionKey;
+		return new SecretKeySpec(keyBytes, fKeyAlgorithm);
+	}
+
+	/**
+	 * @return the nonce size in bytes or 0 if this cipher doesn't use a nonce
+	 */
+	int						getNonceSize()
+	{
+		return fNonceSize;
+	}
+
+	/**
+	 * PKCS5 padding is not done by the JCE (see {@link SRPFrameCipher})
+	 *
+	 * @return true if the data blocks are padded
+	 */
+	boolean					isPadded()
+	{
+		return (this == AES_ECB);
+	}
+
+	/**
+	 * @return the authentication tag size in bytes or 0 if this cipher doesn't use one
+	 */
+	int						getTagSize()
+	{
+		return fTagBits / 8;
+	}
+
+	AlgorithmParameterSpec	makeParameters(byte[] nonce)
+	{
+		return (this == AES_GCM) ? new GCMParameterSpec(fTagBits, nonce) : new IvParameterSpec(nonce);
+	}
+
+	private SRPCipherSuite(String transformation, String keyAlgorithm, int nonceSize, int tagBits)
+	{
+		fTransformation = transformation;
+		fKeyAlgorithm = keyAlgorithm;
+		fNonceSize = nonceSize;
+		fTagBits = tagBits;
+	}
+
+	private final String 		fTransformation;
+	private final String 		fKeyAlgorithm;
+	private final int 			fNonceSize;
+	private final int 			fTagBits;
+}
@@ -20,9 +20,17 @@ import java.math.BigInteger;
 /**
  * Manages a client SRP session
  * <p>
+ * A session can be reused to reconnect (pass it to a new {@link SRPClientSessionRunner}). A new a/A is used each time but x and
+ * g^x, which only depend on the password and salt, are only computed again if the salt changes.
+ * <p>
  *
  * @author Jordan Zimmerman - jordan@jordanzimmerman.com
  * @see SRPFactory Full Documentation
+ * @version 1.9 A can be made before the salt is known (pipelined exchanges) - 10/16/26
+ * @version 1.8 u, M(1) and M(2) use the {@link SRPConstants} hash function - 10/16/26
+ * @version 1.7 S computed mod N throughout with the exponent reduced mod N - 1. g^x kept for reused sessions - 10/16/26
+ * @version 1.6 a/g^a taken from {@link SRPEphemeralKeyPool} when one is open - 10/16/26
+ * @version 1.5 g^a and g^x via {@link SRPConstants} fixed-base table - 10/16/26
  * @version 1.4 Make sure safeguards are checked: abort if B == 0 (mod N) or u == 0 - 2/27/07
  * @version 1.3 Updated to use the SRP-6 spec - 2/21/07
  * @version 1.2
@@ -40,20 +48,59 @@ public class SRPClientSession
 	}
 
 	/**
-	 * Once the server sends the salt (value s in the docs), call this method to save the value
+	 * Once the server sends the salt (value s in the docs), call this method to save the value. A new a/A is made.
 	 *
 	 * @param salt salt from the server
 	 */
 	public void				setSalt_s(BigInteger salt)
 	{
-		fPrivateKey_x = SRPUtils.makePrivateKey(fPassword, salt);
-		fRandom_a = SRPUtils.random(fConstants);
+		setSalt_s(salt, true);
+	}
+
+	/**
+	 * A = g^a doesn't depend on the salt - for pipelined exchanges ({@link SRPPipelinedClientRunner}) make a new a/A before the
+	 * salt is known. When the salt arrives, pass it to {@link #setSalt_s(BigInteger, boolean)} with false.
+	 *
+	 * @return A
+	 */
+	public BigInteger		makePublicKey_A()
+	{
+		SRPEphemeralKeyPool.Key		ephemeralKey = fConstants.newEphemeralKey();
+		fRandom_a = ephemeralKey.random;
 		fCommonValue_S = null;
 		fEvidenceValue_M1 = null;
 		fSessionKey_K = null;
 
 		// A = g^a
-		fPublicKey_A = fConstants.primitiveRoot_g.modPow(fRandom_a, fConstants.largePrime_N);
+		fPublicKey_A = ephemeralKey.publicValue;
+		return fPublicKey_A;
+	}
+
+	/**
+	 * Save the salt from the server
+	 *
+	 * @param salt salt from the server
+	 * @param newPublicKey_A true to make a new a/A, false to keep the one from {@link #makePublicKey_A()}
+	 */
+	public void				setSalt_s(BigInteger salt, boolean newPublicKey_A)
+	{
+		// an A that has been used with a B must not be used again
+		if ( !newPublicKey_A && ((fPublicKey_A == null) || (fCommonValue_S != null)) )
+		{
+			throw new IllegalStateException("makePublicKey_A() has not been called since the last exchange.");
+		}
+
+		if ( !salt.equals(fSalt_s) )
+		{
+			fSalt_s = salt;
+			fPrivateKey_x = SRPUtils.makePrivateKey(fConstants, fPassword, salt);
+			fPrimitiveRootPow_x = fConstants.primitiveRootPow(fPrivateKey_x);
+		}
+
+		if ( newPublicKey_A )
+		{
+			makePublicKey_A();
+		}
 	}
 
 	/**
@@ -84,18 +131,24 @@ public class SRPClientSession
 			throw new SRPAuthenticationFailedException("B%N == 0");
 		}
 
-		BigInteger		SRP6_u = SRPUtils.calc_u(fPublicKey_A, publicKey_B);
+		BigInteger		SRP6_u = SRPUtils.calc_u(fConstants, fPublicKey_A, publicKey_B);
 		if ( SRP6_u.mod(fConstants.largePrime_N).equals(BigInteger.ZERO) )
 		{
 			throw new SRPAuthenticationFailedException("u%N == 0");
 		}
 
-		// S = (B - 3(g^x))^(a + ux)
-		BigInteger		three_g_pow_x = fConstants.srp6Multiplier_k.multiply(fConstants.primitiveRoot_g.modPow(fPrivateKey_x, fConstants.largePrime_N));
-		BigInteger		B_minus_g_pow_x = publicKey_B.subtract(three_g_pow_x);
-		BigInteger		ux = SRP6_u.multiply(fPrivateKey_x);
-		fCommonValue_S = B_minus_g_pow_x.modPow(fRandom_a.add(ux), fConstants.largePrime_N).mod(fConstants.largePrime_N);
-		fEvidenceValue_M1 = SRPUtils.calcM1(fPublicKey_A, publicKey_B, fCommonValue_S);
+		// S = (B - k(g^x))^(a + ux) - every intermediate is reduced mod N. As N is prime, the exponent can be reduced mod N - 1,
+		// which keeps it no longer than N (a + ux is about twice as long as the hash when N is short).
+		BigInteger		N = fConstants.largePrime_N;
+		BigInteger		k_g_pow_x = fConstants.srp6Multiplier_k.multiply(fPrimitiveRootPow_x).mod(N);
+		BigInteger		B_minus_k_g_pow_x = publicKey_B.subtract(k_g_pow_x).mod(N);
+		if ( B_minus_k_g_pow_x.equals(BigInteger.ZERO) )
+		{
+			throw new SRPAuthenticationFailedException("B - kg^x == 0 (mod N)");
+		}
+		BigInteger		exponent = fRandom_a.add(SRP6_u.multiply(fPrivateKey_x)).mod(N.subtract(BigInteger.ONE));
+		fCommonValue_S = B_minus_k_g_pow_x.modPow(exponent, N);
+		fEvidenceValue_M1 = SRPUtils.calcM1(fConstants, fPublicKey_A, publicKey_B, fCommonValue_S);
 
 		// the MD5 output is the same as the AES key length
 		fSessionKey_K = SRPUtils.hashToBytesMD5(fCommonValue_S);
@@ -129,7 +182,7 @@ public class SRPClientSession
 			throw new IllegalStateException("computeCommonValue_S() has not been called yet.");
 		}
 
-		BigInteger 		M2 = SRPUtils.calcM2(fPublicKey_A, fEvidenceValue_M1, fCommonValue_S);
+		BigInteger 		M2 = SRPUtils.calcM2(fConstants, fPublicKey_A, fEvidenceValue_M1, fCommonValue_S);
 		if ( !evidenceValueFromServer_M2.equals(M2) )
 		{
 			throw new SRPAuthenticationFailedException("M(2) is incorrect");
@@ -163,7 +216,9 @@ public class SRPClientSession
 
 	private SRPConstants 		fConstants;
 	private byte[] 				fPassword;
+	private BigInteger 			fSalt_s;
 	private BigInteger 			fPrivateKey_x;
+	private BigInteger 			fPrimitiveRootPow_x;
 	private BigInteger 			fRandom_a;
 	private BigInteger 			fPublicKey_A;
 	private BigInteger 			fCommonValue_S;
@@ -17,31 +17,114 @@ package com.jordanzimmerman;
 
 import java.math.BigInteger;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * POJO for holding the prime number and primitve root.<br>
+ * <p>
+ * For storing/sending constants use {@link #toBytes()}/{@link #fromBytes(byte[])} (or {@link #writeTo(ByteBuffer)}/{@link #readFrom(ByteBuffer)})
+ * rather than Java serialization. The encoding is:
+ * <code><pre>
+ * [version - 1 byte][hash function - 1 byte][N length - 2 bytes][N][g length - 2 bytes][g]
+ * </pre></code>
+ * Lengths are big-endian, N and g are unsigned and big-endian. k is not part of the encoding - it is computed. Decoding (and Java
+ * deserialization) returns the shared instance from {@link #getInstance(BigInteger, BigInteger, SRPHashAlgorithm)} so the values are
+ * validated the same as constants made in code.
  *
  * @author Jordan Zimmerman - jordan@jordanzimmerman.com
  * @see SRPFactory Full Documentation
+ * @version 1.10 The fixed-base table is built in the background - 10/16/26
+ * @version 1.9 Binary encoding. Deserialized instances are validated - 10/16/26
+ * @version 1.8 {@link SRPGroup} tables loaded from classpath resources when available - 10/16/26
+ * @version 1.7 Shared instances via getInstance(). Validation is done once per N/g and not at all for {@link SRPGroup}s - 10/16/26
+ * @version 1.6 Pluggable hash function - {@link SRPHashAlgorithm} - 10/16/26
+ * @version 1.5 Optional {@link SRPEphemeralKeyPool} - 10/16/26
+ * @version 1.4 g^x via a fixed-base table - 10/16/26
  * @version 1.3 Updated to use the SRP-6a spec - k = H(N, g) 2/27/07
  * @version 1.2 Updated to use the SRP-6 spec 2/21/07
  * @version 1.1
  */
 public class SRPConstants implements Serializable
 {
+	/**
+	 * Returns the shared constants for the given values (using SHA 256), creating them the first time. Sharing the constants also
+	 * shares their fixed-base table and lets one {@link SRPEphemeralKeyPool} serve every user of them.
+	 *
+	 * @param largePrime a very large prime number
+	 * @param primitiveRoot a primitive root that relates to the prime number.
+	 * @return constants
+	 */
+	public static SRPConstants		getInstance(BigInteger largePrime, BigInteger primitiveRoot)
+	{
+		return getInstance(largePrime, primitiveRoot, SRPHashAlgorithm.SHA_256);
+	}
+
+	/**
+	 * Returns the shared constants for the given values, creating them the first time
+	 *
+	 * @param largePrime a very large prime number
+	 * @param primitiveRoot a primitive root that relates to the prime number.
+	 * @param hashFunction the hash function to use - clients and servers must agree on it
+	 * @return constants
+	 */
+	public static SRPConstants		getInstance(BigInteger largePrime, BigInteger primitiveRoot, SRPHashAlgorithm hashFunction)
+	{
+		GroupKey		key = new GroupKey(largePrime, primitiveRoot, hashFunction);
+		SRPConstants	constants = fInstances.get(key);
+		if ( constants == null )
+		{
+			// validation can be slow so it's done outside of the map. If two threads race, the first instance stored wins
+			SRPConstants		newConstants = new SRPConstants(largePrime, primitiveRoot, hashFunction);
+			constants = fInstances.putIfAbsent(key, newConstants);
+			if ( constants == null )
+			{
+				constants = newConstants;
+			}
+		}
+		return constants;
+	}
+
 	/**
 	 * NOTE: this constructor validates the values passed via {@link SRPUtils#validateConstants(java.math.BigInteger,java.math.BigInteger)}
+	 * unless they are an {@link SRPGroup} or have already been validated. Prefer {@link #getInstance(BigInteger, BigInteger)}.
 	 *
 	 * @param largePrime a very large prime number
 	 * @param primitiveRoot a primitive root that relates to the prime number.
 	 */
 	public SRPConstants(BigInteger largePrime, BigInteger primitiveRoot)
 	{
-		SRPUtils.validateConstants(largePrime, primitiveRoot);
+		this(largePrime, primitiveRoot, SRPHashAlgorithm.SHA_256);
+	}
+
+	/**
+	 * NOTE: this constructor validates the values passed via {@link SRPUtils#validateConstants(java.math.BigInteger,java.math.BigInteger)}
+	 * unless they are an {@link SRPGroup} or have already been validated. Prefer {@link #getInstance(BigInteger, BigInteger, SRPHashAlgorithm)}.
+	 *
+	 * @param largePrime a very large prime number
+	 * @param primitiveRoot a primitive root that relates to the prime number.
+	 * @param hashFunction the hash function to use - clients and servers must agree on it
+	 */
+	public SRPConstants(BigInteger largePrime, BigInteger primitiveRoot, SRPHashAlgorithm hashFunction)
+	{
+		GroupKey		validatedKey = new GroupKey(largePrime, primitiveRoot, null);
+		if ( !fValidated.contains(validatedKey) )
+		{
+			SRPUtils.validateConstants(largePrime, primitiveRoot);
+			fValidated.add(validatedKey);
+		}
+		if ( !hashFunction.isAvailable() )
+		{
+			throw new IllegalArgumentException("Hash function not available: " + hashFunction);
+		}
 
 		this.largePrime_N = largePrime;
 		this.primitiveRoot_g = primitiveRoot;
-		this.srp6Multiplier_k = SRPUtils.hash(SRPUtils.combine(this.largePrime_N, this.primitiveRoot_g));
+		this.hashFunction_H = hashFunction;
+		this.srp6Multiplier_k = SRPUtils.hashCombined(hashFunction, this.largePrime_N, this.primitiveRoot_g);
 	}
 
 	/**
@@ -54,8 +137,296 @@ public class SRPConstants implements Serializable
 	 */
 	public final BigInteger 	primitiveRoot_g;
 
+	/**
+	 * H - the hash function
+	 */
+	public final SRPHashAlgorithm	hashFunction_H;
+
 	/**
 	 * k from SRP-6
 	 */
 	public final BigInteger		srp6Multiplier_k;
+
+	/**
+	 * Decode constants encoded by {@link #toBytes()}
+	 *
+	 * @param bytes the encoding
+	 * @return the shared constants for the decoded values
+	 * @throws IllegalArgumentException if the bytes are not a valid encoding or the values are not valid
+	 */
+	public static SRPConstants		fromBytes(byte[] bytes)
+	{
+		ByteBuffer		buffer = ByteBuffer.wrap(bytes);
+		SRPConstants	constants = readFrom(buffer);
+		if ( buffer.hasRemaining() )
+		{
+			throw new IllegalArgumentException("Extra bytes after the constants: " + buffer.remaining());
+		}
+		return constants;
+	}
+
+	/**
+	 * Decode constants written by {@link #writeTo(ByteBuffer)}. The buffer's position is moved past them.
+	 *
+	 * @param buffer the encoding, starting at the position
+	 * @return the shared constants for the decoded values
+	 * @throws IllegalArgumentException if the encoding is of an unknown version/hash function or the values are not valid
+	 * @throws java.nio.BufferUnderflowException if the buffer doesn't hold all of the encoding
+	 */
+	public static SRPConstants		readFrom(ByteBuffer buffer)
+	{
+		int					version = buffer.get() & 0xff;
+		if ( version != ENCODING_VERSION )
+		{
+			throw new IllegalArgumentException("Unknown SRPConstants encoding version: " + version);
+		}
+
+		int					hashIndex = buffer.get() & 0xff;
+		SRPHashAlgorithm[]	hashFunctions = SRPHashAlgorithm.values();
+		if ( hashIndex >= hashFunctions.length )
+		{
+			throw new IllegalArgumentException("Unknown hash function: " + hashIndex);
+		}
+
+		BigInteger			largePrime = SRPUtils.readMagnitude(buffer, buffer.getShort() & 0xffff);
+		BigInteger			primitiveRoot = SRPUtils.readMagnitude(buffer, buffer.getShort() & 0xffff);
+		return getInstance(largePrime, primitiveRoot, hashFunctions[hashIndex]);
+	}
+
+	/**
+	 * @return the number of bytes written by {@link #toBytes()}/{@link #writeTo(ByteBuffer)}
+	 */
+	public int					getEncodedLength()
+	{
+		return HEADER_LENGTH + SRPUtils.getMagnitudeLength(largePrime_N) + SRPUtils.getMagnitudeLength(primitiveRoot_g);
+	}
+
+	/**
+	 * @return the encoding of these constants
+	 */
+	public byte[]				toBytes()
+	{
+		ByteBuffer		buffer = ByteBuffer.allocate(getEncodedLength());
+		writeTo(buffer);
+		return buffer.array();
+	}
+
+	/**
+	 * Write the encoding of these constants at the buffer's position. The buffer needs {@link #getEncodedLength()} bytes remaining.
+	 *
+	 * @param buffer buffer to write to
+	 * @throws java.nio.BufferOverflowException if there isn't room
+	 */
+	public void					writeTo(ByteBuffer buffer)
+	{
+		int			largePrimeLength = SRPUtils.getMagnitudeLength(largePrime_N);
+		int			primitiveRootLength = SRPUtils.getMagnitudeLength(primitiveRoot_g);
+		if ( (largePrimeLength > 0xffff) || (primitiveRootLength > 0xffff) )
+		{
+			throw new IllegalArgumentException("Constants are too large to encode");
+		}
+
+		buffer.put((byte)ENCODING_VERSION);
+		buffer.put((byte)hashFunction_H.ordinal());
+		buffer.putShort((short)largePrimeLength);
+		SRPUtils.writeMagnitude(buffer, largePrime_N, largePrimeLength);
+		buffer.putShort((short)primitiveRootLength);
+		SRPUtils.writeMagnitude(buffer, primitiveRoot_g, primitiveRootLength);
+	}
+
+	/**
+	 * Returns g^exponent mod N. Building the fixed-base table ({@link SRPFixedBaseTable}) costs about as much as a few hundred
+	 * exponentiations, so it is only built once these constants have been used for {@link #TABLE_THRESHOLD} exponentiations (i.e.
+	 * by a server, not by a client that logs in once). The table is built on a daemon thread - until it is ready, and for moduli
+	 * too large for a table, {@link BigInteger#modPow(BigInteger, BigInteger)} is used so no caller waits for it. For an
+	 * {@link SRPGroup} the table is loaded from its classpath resource, if there is one, instead of being built.
+	 *
+	 * @param exponent the exponent
+	 * @return g^exponent mod N
+	 */
+	BigInteger			primitiveRootPow(BigInteger exponent)
+	{
+		SRPFixedBaseTable		table = getTable();
+		if ( (table != null) && table.isUsable() )
+		{
+			return table.pow(exponent);
+		}
+		return primitiveRoot_g.modPow(exponent, largePrime_N);
+	}
+
+	/**
+	 * Return a new ephemeral key (r and g^r) - from the open {@link SRPEphemeralKeyPool} if there is one
+	 *
+	 * @return the key
+	 */
+	SRPEphemeralKeyPool.Key	newEphemeralKey()
+	{
+		SRPEphemeralKeyPool		pool = fKeyPool;
+		return (pool != null) ? pool.take() : SRPEphemeralKeyPool.makeKey(this);
+	}
+
+	/**
+	 * @return the factory for these constants or null if there isn't one yet - see {@link SRPFactory#getInstance(SRPConstants)}
+	 */
+	SRPFactory				getFactory()
+	{
+		return fFactory;
+	}
+
+	/**
+	 * Keep the factory for these constants unless another thread got there first
+	 *
+	 * @param factory new factory
+	 * @return the factory to use
+	 */
+	synchronized SRPFactory	shareFactory(SRPFactory factory)
+	{
+		if ( fFactory == null )
+		{
+			fFactory = factory;
+		}
+		return fFactory;
+	}
+
+	synchronized void		setEphemeralKeyPool(SRPEphemeralKeyPool pool)
+	{
+		if ( fKeyPool != null )
+		{
+			throw new IllegalStateException("An SRPEphemeralKeyPool is already open for these constants");
+		}
+		fKeyPool = pool;
+	}
+
+	synchronized void		clearEphemeralKeyPool(SRPEphemeralKeyPool pool)
+	{
+		if ( fKeyPool == pool )
+		{
+			fKeyPool = null;
+		}
+	}
+
+	/**
+	 * Java deserialization sets the fields without checking them. Replace the instance with the shared one for its values so they
+	 * are validated and k is recomputed. Constants serialized before the hash function was pluggable have no hash function - they
+	 * used SHA 256.
+	 *
+	 * @return the shared constants
+	 */
+	private Object				readResolve()
+	{
+		return getInstance(largePrime_N, primitiveRoot_g, (hashFunction_H != null) ? hashFunction_H : SRPHashAlgorithm.SHA_256);
+	}
+
+	/**
+	 * Number of exponentiations before the fixed-base table is built
+	 */
+	static final int			TABLE_THRESHOLD = 1000;
+
+	private SRPFixedBaseTable	getTable()
+	{
+		SRPFixedBaseTable		table = fTable;
+		if ( (table == null) && (getUseCount().incrementAndGet() == TABLE_THRESHOLD) )
+		{
+			// exactly one caller gets here - the others carry on with modPow() while the table is built
+			Thread		thread = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					fTable = makeTable();
+				}
+			}, "SRPFixedBaseTable");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return table;
+	}
+
+	private SRPFixedBaseTable	makeTable()
+	{
+		SRPGroup			group = SRPGroup.find(largePrime_N, primitiveRoot_g);
+		SRPFixedBaseTable	table = (group != null) ? group.loadTable() : null;
+		if ( table == null )
+		{
+			table = new SRPFixedBaseTable(primitiveRoot_g, largePrime_N);
+		}
+		return table;
+	}
+
+	/**
+	 * Key for the validated values and shared instances
+	 */
+	private static class GroupKey
+	{
+		GroupKey(BigInteger largePrime, BigInteger primitiveRoot, SRPHashAlgorithm hashFunction)
+		{
+			fLargePrime = largePrime;
+			fPrimitiveRoot = primitiveRoot;
+			fHashFunction = hashFunction;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if ( !(o instanceof GroupKey) )
+			{
+				return false;
+			}
+			GroupKey		rhs = (GroupKey)o;
+			return fLargePrime.equals(rhs.fLargePrime) && fPrimitiveRoot.equals(rhs.fPrimitiveRoot) && (fHashFunction == rhs.fHashFunction);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (fLargePrime.hashCode() * 31) + fPrimitiveRoot.hashCode();
+		}
+
+		private final BigInteger 			fLargePrime;
+		private final BigInteger 			fPrimitiveRoot;
+		private final SRPHashAlgorithm 		fHashFunction;
+	}
+
+	private static Set<GroupKey>		makeValidated()
+	{
+		Set<GroupKey>		validated = ConcurrentHashMap.newKeySet();
+		for ( SRPGroup group : SRPGroup.values() )
+		{
+			validated.add(new GroupKey(group.largePrime_N, group.primitiveRoot_g, null));
+		}
+		return validated;
+	}
+
+	private AtomicInteger		getUseCount()
+	{
+		// transient fields are null after deserialization
+		AtomicInteger		useCount = fUseCount;
+		if ( useCount == null )
+		{
+			synchronized(this)
+			{
+				if ( fUseCount == null )
+				{
+					fUseCount = new AtomicInteger(0);
+				}
+				useCount = fUseCount;
+			}
+		}
+		return useCount;
+	}
+
+	private static final int		ENCODING_VERSION = 1;
+	private static final int		HEADER_LENGTH = 6;
+
+	// the value generated for the original version of this class - keeps serialized instances readable
+	private static final long		serialVersionUID = -3033310230179171204L;
+
+	// N/g pairs (no hash function) that are known to be valid
+	private static final Set<GroupKey>							fValidated = makeValidated();
+
+	private static final ConcurrentMap<GroupKey, SRPConstants>	fInstances = new ConcurrentHashMap<GroupKey, SRPConstants>();
+
+	private transient volatile AtomicInteger		fUseCount = new AtomicInteger(0);
+	private transient volatile SRPFixedBaseTable	fTable = null;
+	private transient volatile SRPEphemeralKeyPool	fKeyPool = null;
+	private transient volatile SRPFactory			fFactory = null;
 }
@@ -0,0 +1,434 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Authentication and encryption over buffers with no I/O at all. Modelled on {@link javax.net.ssl.SSLEngine}: {@link #wrap(ByteBuffer, ByteBuffer)}
+ * turns application bytes into bytes for the corresponding client/server and {@link #unwrap(ByteBuffer, ByteBuffer)} does the
+ * reverse. While authenticating, {@link #getHandshakeStatus()} says which of the two is needed. The bytes produced are the same
+ * protocol as {@link SRPInputStream}/{@link SRPOutputStream} so the other end can use the streams, an {@link SRPChannel} or another
+ * engine.<br>
+ * <p>
+ * Usage:
+ * <code><pre>
+ * SRPEngine engine = new SRPEngine(runner, options);
+ * ByteBuffer netOut = ByteBuffer.allocate(engine.getPacketBufferSize());
+ * ByteBuffer netIn = ByteBuffer.allocate(engine.getPacketBufferSize());
+ * ByteBuffer appIn = ByteBuffer.allocate(engine.getApplicationBufferSize());
+ * ...
+ * switch ( engine.getHandshakeStatus() )
+ * {
+ *     case NEED_WRAP:
+ *         engine.wrap(EMPTY, netOut);
+ *         // TODO: send netOut to the corresponding client/server
+ *         break;
+ *
+ *     case NEED_UNWRAP:
+ *         // TODO: read into netIn from the corresponding client/server
+ *         engine.unwrap(netIn, appIn);	// BUFFER_UNDERFLOW means read more
+ *         break;
+ * }
+ * </pre></code>
+ * Only whole values and data blocks are ever consumed - a partial one in the source is left for the next call (the status is
+ * BUFFER_UNDERFLOW if nothing could be consumed). A source holding several data blocks is processed in one call as long as the
+ * destination has room for them.
+ * <p>
+ * The protocol has no close message, so closeInbound()/closeOutbound() only stop the engine from processing more bytes.
+ * <p>
+ * An SRPEngine must not be used by more than one thread at a time.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @see SRPEngineResult
+ * @version 1.3 wrap()/unwrap() put the limit of src back when a data block fails - 10/16/26
+ * @version 1.2 Adaptive runners. Servers send their hello with their first values - 10/16/26
+ * @version 1.1 Pipelined runners don't wait for the hello - 10/16/26
+ * @version 1.0
+ */
+public class SRPEngine
+{
+	/**
+	 * Uses the original protocol ({@link SRPStreamOptions#LEGACY})
+	 *
+	 * @param runner A session runner
+	 */
+	public SRPEngine(SRPRunner runner)
+	{
+		this(runner, SRPStreamOptions.LEGACY);
+	}
+
+	/**
+	 * @param runner A session runner
+	 * @param options protocol options to negotiate. Must match the kind (legacy or not) used at the other end.
+	 */
+	public SRPEngine(SRPRunner runner, SRPStreamOptions options)
+	{
+		fRunner = runner;
+		fOptions = options;
+		fPipelined = SRPStreamHandshake.isPipelined(runner);
+		fHoldsHello = SRPStreamHandshake.holdsHello(runner);
+		fAgreement = SRPStreamHandshake.LEGACY_AGREEMENT;
+		fState = options.isLegacy() ? State.NEXT : State.SEND_HELLO;
+		fHello = null;
+		fPending = ByteBuffer.allocate(0);
+		fEncryptor = null;
+		fDecryptor = null;
+		fFinishedReported = false;
+		fInboundDone = false;
+		fOutboundDone = false;
+	}
+
+	/**
+	 * @return the size of a buffer that can hold any data block from the corresponding client/server
+	 */
+	public int				getPacketBufferSize()
+	{
+		return SRPInputStream.MAX_FRAME_SIZE + SRPWireFormat.MAX_FRAME_SIZE_LENGTH;
+	}
+
+	/**
+	 * @return the size of a buffer that can hold any decrypted data block
+	 */
+	public int				getApplicationBufferSize()
+	{
+		return SRPInputStream.MAX_FRAME_SIZE;
+	}
+
+	/**
+	 * @return what's needed to advance the authentication exchange or {@link SRPEngineResult.HandshakeStatus#NOT_HANDSHAKING}
+	 * once it is complete
+	 */
+	public SRPEngineResult.HandshakeStatus		getHandshakeStatus()
+	{
+		if ( fPending.hasRemaining() )
+		{
+			return SRPEngineResult.HandshakeStatus.NEED_WRAP;
+		}
+
+		switch ( fState )
+		{
+			case SEND_HELLO:
+			{
+				return fHoldsHello ? SRPEngineResult.HandshakeStatus.NEED_UNWRAP : SRPEngineResult.HandshakeStatus.NEED_WRAP;
+			}
+
+			case NEXT:
+			{
+				return SRPEngineResult.HandshakeStatus.NEED_WRAP;
+			}
+
+			case RECEIVE_HELLO:
+			case RECEIVE_VALUE:
+			{
+				return SRPEngineResult.HandshakeStatus.NEED_UNWRAP;
+			}
+		}
+		return SRPEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+	}
+
+	/**
+	 * Produce bytes for the corresponding client/server: any pending authentication bytes and then, once authentication is
+	 * complete, as many encrypted data blocks (of up to 8K of src each) as fit in dst.
+	 *
+	 * @param src application bytes to encrypt. Ignored until authentication is complete.
+	 * @param dst buffer for the bytes to send. {@link #getPacketBufferSize()} always has room for a data block.
+	 * @return the result
+	 * @throws IOException if authentication fails or a data block can't be encrypted
+	 */
+	public SRPEngineResult		wrap(ByteBuffer src, ByteBuffer dst) throws IOException
+	{
+		if ( fOutboundDone )
+		{
+			return makeResult(SRPEngineResult.Status.CLOSED, 0, 0);
+		}
+
+		advance();
+
+		int		dstStart = dst.position();
+		if ( fPending.hasRemaining() )
+		{
+			int		length = Math.min(fPending.remaining(), dst.remaining());
+			int		limit = fPending.limit();
+			fPending.limit(fPending.position() + length);
+			dst.put(fPending);
+			fPending.limit(limit);
+			if ( fPending.hasRemaining() || (fState != State.DONE) )
+			{
+				return makeResult((length > 0) ? SRPEngineResult.Status.OK : SRPEngineResult.Status.BUFFER_OVERFLOW, 0, length);
+			}
+		}
+		if ( fState != State.DONE )
+		{
+			return makeResult(SRPEngineResult.Status.OK, 0, 0);
+		}
+
+		int		consumed = 0;
+		while ( src.hasRemaining() )
+		{
+			int		length = Math.min(src.remaining(), SRPInputStream.BUFFER_SIZE);
+			int		encryptedSize = fEncryptor.getOutputSize(length);
+			if ( dst.remaining() < (encryptedSize + SRPWireFormat.MAX_FRAME_SIZE_LENGTH) )
+			{
+				if ( dst.position() == dstStart )
+				{
+					return makeResult(SRPEngineResult.Status.BUFFER_OVERFLOW, 0, 0);
+				}
+				break;
+			}
+
+			SRPWireFormat.encodeFrameSize(encryptedSize, fAgreement.framing, dst);
+			int		limit = src.limit();
+			src.limit(src.position() + length);
+			try
+			{
+				fEncryptor.process(src, dst);
+			}
+			finally
+			{
+				src.limit(limit);	// the caller's limit is put back even if this fails
+			}
+
+			consumed += length;
+		}
+		return makeResult(SRPEngineResult.Status.OK, consumed, dst.position() - dstStart);
+	}
+
+	/**
+	 * Consume bytes from the corresponding client/server: authentication values and then, once authentication is complete, as
+	 * many whole data blocks as are in src and fit (decrypted) in dst.
+	 *
+	 * @param src bytes received from the corresponding client/server
+	 * @param dst buffer for the decrypted bytes. {@link #getApplicationBufferSize()} always has room for a data block.
+	 * @return the result
+	 * @throws IOException if authentication fails or a data block is bad
+	 */
+	public SRPEngineResult		unwrap(ByteBuffer src, ByteBuffer dst) throws IOException
+	{
+		if ( fInboundDone )
+		{
+			return makeResult(SRPEngineResult.Status.CLOSED, 0, 0);
+		}
+
+		advance();
+
+		int		srcStart = src.position();
+		while ( (fState == State.RECEIVE_HELLO) || (fState == State.RECEIVE_VALUE) )
+		{
+			// the hello is always in hex
+			SRPFraming		framing = (fState == State.RECEIVE_HELLO) ? SRPFraming.HEX : getValueFraming();
+			BigInteger		value = SRPWireFormat.decodeValue(src, framing);
+			if ( value == null )
+			{
+				return makeResult((src.position() == srcStart) ? SRPEngineResult.Status.BUFFER_UNDERFLOW : SRPEngineResult.Status.OK, src.position() - srcStart, 0);
+			}
+
+			if ( fState == State.RECEIVE_HELLO )
+			{
+				if ( fHoldsHello )
+				{
+					queueValue(SRPWireFormat.encodeValue(new BigInteger(fHello), SRPFraming.HEX));
+				}
+				fAgreement = SRPStreamHandshake.agree(fHello, value, SRPStreamHandshake.isServer(fRunner));
+				fHello = null;
+				SRPStreamHandshake.agreed(fRunner, fAgreement);
+				// a pipelined runner is already waiting for its input
+				fState = fPipelined ? State.RECEIVE_VALUE : State.NEXT;
+			}
+			else
+			{
+				fRunner.setInput(value);
+				fState = State.NEXT;
+			}
+			advance();
+		}
+		if ( fState != State.DONE )
+		{
+			return makeResult(SRPEngineResult.Status.OK, src.position() - srcStart, 0);
+		}
+
+		int		dstStart = dst.position();
+		SRPEngineResult.Status		status = SRPEngineResult.Status.OK;
+		for(;;)
+		{
+			int		frameStart = src.position();
+			int		frameSize = SRPWireFormat.decodeFrameSize(src, fAgreement.framing);
+			if ( (frameSize < 0) || (src.remaining() < frameSize) )
+			{
+				src.position(frameStart);
+				if ( frameStart == srcStart )
+				{
+					status = SRPEngineResult.Status.BUFFER_UNDERFLOW;
+				}
+				break;
+			}
+			if ( dst.remaining() < fDecryptor.getOutputSize(frameSize) )
+			{
+				src.position(frameStart);
+				if ( dst.position() == dstStart )
+				{
+					status = SRPEngineResult.Status.BUFFER_OVERFLOW;
+				}
+				break;
+			}
+
+			int		limit = src.limit();
+			src.limit(src.position() + frameSize);
+			try
+			{
+				fDecryptor.process(src, dst);
+			}
+			finally
+			{
+				src.limit(limit);	// the caller's limit is put back even if this fails
+			}
+		}
+		return makeResult(status, src.position() - srcStart, dst.position() - dstStart);
+	}
+
+	/**
+	 * No more bytes from the corresponding client/server will be unwrapped
+	 */
+	public void				closeInbound()
+	{
+		fInboundDone = true;
+	}
+
+	/**
+	 * @return true if {@link #closeInbound()} has been called
+	 */
+	public boolean			isInboundDone()
+	{
+		return fInboundDone;
+	}
+
+	/**
+	 * No more bytes will be wrapped
+	 */
+	public void				closeOutbound()
+	{
+		fOutboundDone = true;
+	}
+
+	/**
+	 * @return true if {@link #closeOutbound()} has been called
+	 */
+	public boolean			isOutboundDone()
+	{
+		return fOutboundDone;
+	}
+
+	private enum State
+	{
+		SEND_HELLO,
+		RECEIVE_HELLO,
+		NEXT,
+		RECEIVE_VALUE,
+		DONE
+	}
+
+	/**
+	 * Run the steps that don't need input from the corresponding client/server. On return, the state is RECEIVE_HELLO,
+	 * RECEIVE_VALUE or DONE.
+	 */
+	private void			advance() throws IOException
+	{
+		if ( fState == State.SEND_HELLO )
+		{
+			fHello = SRPStreamHandshake.makeHello(fOptions, SRPStreamHandshake.canPipeline(fRunner), SRPStreamHandshake.isServer(fRunner));
+			if ( !fHoldsHello )
+			{
+				queueValue(SRPWireFormat.encodeValue(new BigInteger(fHello), SRPFraming.HEX));
+			}
+			fState = fPipelined ? State.NEXT : State.RECEIVE_HELLO;
+		}
+
+		while ( fState == State.NEXT )
+		{
+			if ( fRunner.next() )
+			{
+				if ( fRunner.hasOutput() )
+				{
+					queueValue(SRPWireFormat.encodeValue(fRunner.getOutput(), getValueFraming()));
+				}
+				if ( fRunner.needsInput() )
+				{
+					// pipelined runners read the hello of the other end before its first value
+					fState = (fHello != null) ? State.RECEIVE_HELLO : State.RECEIVE_VALUE;
+				}
+			}
+			else
+			{
+				startSession();
+				fState = State.DONE;
+			}
+		}
+	}
+
+	/**
+	 * Pipelined exchanges are in hex - see {@link SRPRunnerCapabilities#sendsBeforeHello()}
+	 */
+	private SRPFraming		getValueFraming()
+	{
+		return (fPipelined || fAgreement.pipelined) ? SRPFraming.HEX : fAgreement.framing;
+	}
+
+	private void			startSession() throws IOException
+	{
+		SRPStreamHandshake.checkSuccess(fRunner);
+
+		byte[]		sessionKey = fRunner.getSessionKey();
+		int			receiveDirection = 1 - fAgreement.sendDirection;
+		fEncryptor = new SRPFrameCipher(fAgreement.cipherSuite, fAgreement.makeKey(sessionKey, fAgreement.sendDirection), Cipher.ENCRYPT_MODE, fAgreement.sendDirection);
+		fDecryptor = new SRPFrameCipher(fAgreement.cipherSuite, fAgreement.makeKey(sessionKey, receiveDirection), Cipher.DECRYPT_MODE, receiveDirection);
+	}
+
+	private void			queueValue(byte[] bytes)
+	{
+		ByteBuffer		pending = ByteBuffer.allocate(fPending.remaining() + bytes.length);
+		pending.put(fPending).put(bytes).flip();
+		fPending = pending;
+	}
+
+	private SRPEngineResult	makeResult(SRPEngineResult.Status status, int bytesConsumed, int bytesProduced)
+	{
+		SRPEngineResult.HandshakeStatus		handshakeStatus = getHandshakeStatus();
+		if ( (handshakeStatus == SRPEngineResult.HandshakeStatus.NOT_HANDSHAKING) && !fFinishedReported )
+		{
+			fFinishedReported = true;
+			handshakeStatus = SRPEngineResult.HandshakeStatus.FINISHED;
+		}
+		return new SRPEngineResult(status, handshakeStatus, bytesConsumed, bytesProduced);
+	}
+
+	private final SRPRunner 			fRunner;
+	private final SRPStreamOptions 		fOptions;
+	private final boolean 				fPipelined;
+	private final boolean 				fHoldsHello;
+	private SRPStreamHandshake.Agreement fAgreement;
+	private State 						fState;
+	private byte[] 						fHello;
+	private ByteBuffer 					fPending;
+	private SRPFrameCipher 				fEncryptor;
+	private SRPFrameCipher 				fDecryptor;
+	private boolean 					fFinishedReported;
+	private boolean 					fInboundDone;
+	private boolean 					fOutboundDone;
+}
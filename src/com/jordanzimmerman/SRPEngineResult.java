@@ -0,0 +1,112 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+/**
+ * POJO for holding the result of {@link SRPEngine#wrap(java.nio.ByteBuffer, java.nio.ByteBuffer)}/
+ * {@link SRPEngine#unwrap(java.nio.ByteBuffer, java.nio.ByteBuffer)}. Modelled on {@link javax.net.ssl.SSLEngineResult}.<br>
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.0
+ */
+public class SRPEngineResult
+{
+	/**
+	 * The outcome of a wrap()/unwrap()
+	 */
+	public enum Status
+	{
+		/**
+		 * Bytes were (or could be) processed
+		 */
+		OK,
+
+		/**
+		 * unwrap() - the source doesn't hold a complete value or data block yet. Nothing was consumed. Read more bytes and try again.
+		 */
+		BUFFER_UNDERFLOW,
+
+		/**
+		 * The destination doesn't have room for the next value or data block. Nothing was produced. Make room and try again.
+		 */
+		BUFFER_OVERFLOW,
+
+		/**
+		 * The engine has been closed in this direction
+		 */
+		CLOSED
+	}
+
+	/**
+	 * Where the authentication exchange is
+	 */
+	public enum HandshakeStatus
+	{
+		/**
+		 * wrap() must be called to produce authentication bytes for the corresponding client/server
+		 */
+		NEED_WRAP,
+
+		/**
+		 * unwrap() must be called with authentication bytes from the corresponding client/server
+		 */
+		NEED_UNWRAP,
+
+		/**
+		 * The call that returned this result completed the authentication exchange
+		 */
+		FINISHED,
+
+		/**
+		 * Authentication is complete - data can be wrapped/unwrapped
+		 */
+		NOT_HANDSHAKING
+	}
+
+	public SRPEngineResult(Status status, HandshakeStatus handshakeStatus, int bytesConsumed, int bytesProduced)
+	{
+		this.status = status;
+		this.handshakeStatus = handshakeStatus;
+		this.bytesConsumed = bytesConsumed;
+		this.bytesProduced = bytesProduced;
+	}
+
+	/**
+	 * The outcome
+	 */
+	public final Status				status;
+
+	/**
+	 * Where the authentication exchange is after the call
+	 */
+	public final HandshakeStatus	handshakeStatus;
+
+	/**
+	 * number of bytes consumed from the source
+	 */
+	public final int				bytesConsumed;
+
+	/**
+	 * number of bytes written to the destination
+	 */
+	public final int				bytesProduced;
+
+	public String toString()
+	{
+		return "Status = " + status + " HandshakeStatus = " + handshakeStatus + " bytesConsumed = " + bytesConsumed + " bytesProduced = " + bytesProduced;
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.math.BigInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of precomputed ephemeral keys - a random value r and g^r (b/B on the server, a/A on the client) - that is kept full by
+ * a background thread. While a pool is open for an {@link SRPConstants}, new {@link SRPServerSession}s and
+ * {@link SRPClientSession#setSalt_s(BigInteger)} take their key from it instead of computing g^r on the calling thread. If the
+ * pool is empty (e.g. during a burst of logins) the key is computed on the calling thread as before and counted as a miss.<br>
+ * <p>
+ * Each key is handed out once only.
+ * <p>
+ * Usage:
+ * <code><pre>
+ * SRPEphemeralKeyPool pool = new SRPEphemeralKeyPool(constants, 1000);
+ * ...
+ * pool.close();    // on shutdown
+ * </pre></code>
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.0
+ */
+public class SRPEphemeralKeyPool
+{
+	/**
+	 * Open a pool that is filled by a daemon thread
+	 *
+	 * @param constants constants to precompute keys for - only one pool may be open per constants
+	 * @param depth the number of keys to keep ready
+	 */
+	public SRPEphemeralKeyPool(SRPConstants constants, int depth)
+	{
+		this(constants, depth, new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread		thread = new Thread(r, "SRPEphemeralKeyPool");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Open a pool
+	 *
+	 * @param constants constants to precompute keys for - only one pool may be open per constants
+	 * @param depth the number of keys to keep ready
+	 * @param threadFactory makes the thread that fills the pool (e.g. a virtual thread factory on Java 21 or later)
+	 */
+	public SRPEphemeralKeyPool(SRPConstants constants, int depth, ThreadFactory threadFactory)
+	{
+		if ( depth <= 0 )
+		{
+			throw new IllegalArgumentException("depth must be greater than 0");
+		}
+
+		fConstants = constants;
+		fKeys = new ArrayBlockingQueue<Key>(depth);
+		fHits = new AtomicLong(0);
+		fMisses = new AtomicLong(0);
+		fThread = threadFactory.newThread(new Runnable()
+		{
+			public void run()
+			{
+				fill();
+			}
+		});
+
+		constants.setEphemeralKeyPool(this);
+		fThread.start();
+	}
+
+	/**
+	 * Stop filling the pool and stop handing out keys from it
+	 */
+	public void				close()
+	{
+		fConstants.clearEphemeralKeyPool(this);
+		fThread.interrupt();
+		fKeys.clear();
+	}
+
+	/**
+	 * @return the number of keys handed out from the pool
+	 */
+	public long				getHitCount()
+	{
+		return fHits.get();
+	}
+
+	/**
+	 * @return the number of times the pool was empty and a key had to be computed on the calling thread
+	 */
+	public long				getMissCount()
+	{
+		return fMisses.get();
+	}
+
+	/**
+	 * @return the number of keys that are currently ready
+	 */
+	public int				getSize()
+	{
+		return fKeys.size();
+	}
+
+	/**
+	 * An ephemeral key - r and g^r
+	 */
+	static class Key
+	{
+		Key(BigInteger random, BigInteger publicValue)
+		{
+			this.random = random;
+			this.publicValue = publicValue;
+		}
+
+		final BigInteger		random;
+		final BigInteger		publicValue;
+	}
+
+	/**
+	 * Make a new ephemeral key on the calling thread
+	 *
+	 * @param constants constants to use
+	 * @return the key
+	 */
+	static Key				makeKey(SRPConstants constants)
+	{
+		BigInteger		random = SRPUtils.random(constants);
+		return new Key(random, constants.primitiveRootPow(random));
+	}
+
+	/**
+	 * Take a key from the pool or, if it's empty, make one on the calling thread
+	 *
+	 * @return the key
+	 */
+	Key						take()
+	{
+		Key		key = fKeys.poll();
+		if ( key != null )
+		{
+			fHits.incrementAndGet();
+			return key;
+		}
+
+		fMisses.incrementAndGet();
+		return makeKey(fConstants);
+	}
+
+	private void			fill()
+	{
+		try
+		{
+			while ( !Thread.currentThread().isInterrupted() )
+			{
+				fKeys.put(makeKey(fConstants));
+			}
+		}
+		catch ( InterruptedException e )
+		{
+			// closed
+		}
+	}
+
+	private final SRPConstants 			fConstants;
+	private final BlockingQueue<Key> 	fKeys;
+	private final AtomicLong 			fHits;
+	private final AtomicLong 			fMisses;
+	private final Thread 				fThread;
+}
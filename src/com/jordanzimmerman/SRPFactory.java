@@ -15,7 +15,30 @@
  */
 package com.jordanzimmerman;     
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 /**
  * An implementation of SRP-6a - Secure Remote Password Protocol. See <a href="http://srp.stanford.edu">http://srp.stanford.edu</a>
@@ -48,14 +71,19 @@ import java.math.BigInteger;
  * and {@link SRPOutputStream}. Besides these three, you will use two POJOs: {@link SRPConstants} and {@link SRPVerifier}
  * <p>
  * For all interactions, you obtain an {@link SRPFactory} via one of the static getInstance() methods. The no-args version uses
- * default values for the prime number and primitive root. The other version allows you to specify values for these. 
+ * default values for the prime number and primitive root. getInstance({@link SRPGroup}) uses one of the RFC 5054 groups (e.g.
+ * {@link SRPGroup#RFC5054_2048}) and the other version allows you to specify values for these. The hash
+ * function defaults to SHA 256 - pass an {@link SRPHashAlgorithm} to the {@link SRPConstants} constructor for a different one.
  * <p>
  * The first activity is to generate a "verifier" for a password. Given a password P, this is accomplished via the {@link SRPFactory#makeVerifier(byte[])}
  * method. E.g.
 <code><pre>
         SRPFactory.getInstance().makeVerifier(P);
 </pre></code>
- * This value should be stored away referenced via a username.
+ * This value should be stored away referenced via a username - e.g. in an {@link SRPVerifierStore}. {@link SRPMappedVerifierStore}
+ * keeps millions of them in a memory-mapped file. To generate the verifiers for many passwords at once (e.g. when
+ * migrating a user directory) use one of the makeVerifiers() methods, which spread the work over all cores. From the command line,
+ * <code>SRPFactory -batch passwords-file verifiers-file</code> does the same for a file of passwords.
  * <p>
  *
  * The second activity is a client/server session. On the server, allocate a {@link SRPServerSessionRunner} loaded with
@@ -82,11 +110,42 @@ import java.math.BigInteger;
  * encrypted via AES using K as the key. K is an MD5 hash of S. A new data block is sent each time flush() is called on the
  * output stream.
  * <p>
+ * The above is the legacy protocol. Both ends can instead pass {@link SRPStreamOptions} to authenticate(). Each end then sends a hello
+ * (see {@link SRPStreamHandshake}) and the options that both ends have in common are used. With {@link SRPFraming#BINARY}, values are
+ * sent as a 4 byte big-endian length followed by {@link java.math.BigInteger#toByteArray()} and "data size" is a 4 byte big-endian int
+ * with no newline. With {@link SRPCipherSuite#AES_GCM} or {@link SRPCipherSuite#CHACHA20_POLY1305}, each data block is encrypted with a
+ * nonce taken from a block counter and carries an authentication tag (see {@link SRPFrameCipher}).
+ * <p>
+ * {@link SRPChannel} speaks the same protocol over NIO channels without blocking, so a server can drive many authentications from
+ * one selector thread. {@link SRPEngine} does the same over plain buffers (in the style of {@link javax.net.ssl.SSLEngine}) for
+ * event loops that do their own I/O. {@link SRPAsyncHandshake} runs the exchange over an
+ * {@link java.nio.channels.AsynchronousByteChannel} with the math on a separate, bounded executor and returns a
+ * {@link java.util.concurrent.CompletableFuture} of the {@link SRPSession}. Either end can use the streams, a channel or an engine.
+ * For a thread (virtual when available) per connection, {@link SRPServer} is a ready-made server around the streams.
+ * <p>
+ * Clients that reconnect often can skip the full exchange: after authenticating, the server issues a ticket with an
+ * {@link SRPTicketIssuer} and the client presents it the next time via an {@link SRPResumeClientRunner}/{@link SRPResumeServerRunner}
+ * pair - one round trip and no exponentiation.
+ * <p>
+ * The full exchange takes a round trip more than it needs to as the client waits for the salt before sending A. With an
+ * {@link SRPPipelinedClientRunner}/{@link SRPPipelinedServerRunner} pair the client sends its user name and A at once and the server
+ * answers with s and B together - one round trip fewer for every full authentication. An {@link SRPAdaptiveServerRunner} serves
+ * clients of either kind.
+ * <p>
+ * Services that need several streams between the same two ends can run them all over one authenticated connection with an
+ * {@link SRPMultiplexer} - one exchange, one cipher and one socket for hundreds of {@link SRPMultiplexedStream}s.
+ * <p>
  *
  * IMPORTANT: This library relies on <a href="http://java.sun.com/products/jce/">JCE</a>
  * <p>
  *
  * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @version 1.10 One factory per constants instance - 10/16/26
+ * @version 1.9 -batch reads UTF-8 and skips empty lines - 10/16/26
+ * @version 1.8 -tables option - 10/16/26
+ * @version 1.7 Shared factories and constants. RFC 5054 groups via {@link SRPGroup} - 10/16/26
+ * @version 1.6 getConstants() - 10/16/26
+ * @version 1.5 Batch verifier generation - 10/16/26
  * @version 1.4 a) Updated to use the SRP-6a spec. b) Updated Javadoc. 2/27/07
  * @version 1.3 Updated to use the SRP-6 spec 2/21/07
  * @version 1.2
@@ -94,36 +153,84 @@ import java.math.BigInteger;
 public class SRPFactory
 {
 	/**
-	 * Utility for generating a verifier (using default constants)
+	 * Utility for generating verifiers (using default constants)<br>
+	 * <code>SRPFactory password</code> - prints the verifier for the password<br>
+	 * <code>SRPFactory -batch input output</code> - reads passwords, one per line, from the input file and writes a line with the
+	 * verifier ("v s" in radix 16) for each to the output file, in the same order. The input is read as UTF-8. An empty line has no
+	 * verifier - it is reported on stderr and its output line is left empty. Use - for stdin/stdout. The throughput is reported
+	 * on stderr.<br>
+	 * <code>SRPFactory -tables directory</code> - writes the fixed-base table for each {@link SRPGroup} to the directory (normally
+	 * resources/com/jordanzimmerman - see {@link SRPGroup}). Package the files on the classpath in this package (e.g. as part of the
+	 * build) and they are loaded instead of being computed. For each group, the time to build the table is printed next to the time
+	 * to load it from the file - the startup cost with and without the resources.
 	 *
-	 * @param args args[0] is the Password
+	 * @param args see above
+	 * @throws IOException file errors
 	 */
-	public static void main(String[] args)
+	public static void main(String[] args) throws IOException
 	{
+		if ( (args.length == 3) && args[0].equals("-batch") )
+		{
+			batch(args[1], args[2]);
+			return;
+		}
+		if ( (args.length == 2) && args[0].equals("-tables") )
+		{
+			tables(new File(args[1]));
+			return;
+		}
+
 		SRPVerifier 		verifier = SRPFactory.getInstance().makeVerifier(args[0].getBytes());
 		System.out.println("v: " + verifier.verifier_v.toString(16));
 		System.out.println("s: " + verifier.salt_s.toString(16));
 	}
 
 	/**
-	 * Return a factory that uses default constants
+	 * Return the factory that uses default constants
 	 *
 	 * @return the factory
 	 */
 	public static SRPFactory	getInstance()
 	{
-		return new SRPFactory(DEFAULT_CONSTANTS);
+		return DEFAULT_FACTORY;
+	}
+
+	/**
+	 * Return the factory for one of the RFC 5054 groups
+	 *
+	 * @param group the group
+	 * @return the factory
+	 */
+	public static SRPFactory	getInstance(SRPGroup group)
+	{
+		return getInstance(group.getConstants());
 	}
 
 	/**
-	 * Return a factory that uses the given constants
+	 * Return the factory that uses the given constants. There is one factory per constants instance - use
+	 * {@link SRPConstants#getInstance(BigInteger, BigInteger)} to get shared constants and this returns the same factory each time.
 	 *
 	 * @param constants prime number constants
 	 * @return the factory
 	 */
 	public static SRPFactory	getInstance(SRPConstants constants)
 	{
-		return new SRPFactory(constants);
+		SRPFactory		factory = constants.getFactory();
+		if ( factory == null )
+		{
+			factory = constants.shareFactory(new SRPFactory(constants));
+		}
+		return factory;
+	}
+
+	/**
+	 * Return the constants this factory uses - e.g. to open an {@link SRPEphemeralKeyPool} for them
+	 *
+	 * @return constants
+	 */
+	public SRPConstants			getConstants()
+	{
+		return fConstants;
 	}
 
 	/**
@@ -138,6 +245,64 @@ public class SRPFactory
 		return SRPUtils.makeVerifier(fConstants, password);
 	}
 
+	/**
+	 * Create the verifiers for many passwords, using the parallel stream machinery (i.e. the common fork/join pool) so that the work
+	 * is spread over all cores. The returned stream is lazy - no verifier is created until it is consumed.
+	 *
+	 * @param passwords password bytes
+	 * @return the verifiers, in the same order as the passwords
+	 */
+	public Stream<SRPVerifier>	makeVerifiers(Stream<byte[]> passwords)
+	{
+		return passwords.parallel().map(this::makeVerifier);
+	}
+
+	/**
+	 * Create the verifiers for many passwords. The passwords are split into slices and each slice is run as a task on the given
+	 * executor. This method returns once all the verifiers have been created.
+	 *
+	 * @param passwords password bytes
+	 * @param executor executor to run the work on - e.g. {@link ForkJoinPool#commonPool()}
+	 * @return the verifiers, in the same order as the passwords
+	 */
+	public List<SRPVerifier>	makeVerifiers(List<byte[]> passwords, Executor executor)
+	{
+		final byte[][]			passwordsArray = passwords.toArray(new byte[passwords.size()][]);
+		final SRPVerifier[]		verifiers = new SRPVerifier[passwordsArray.length];
+
+		int								sliceSize = Math.max(1, (passwordsArray.length + BATCH_SLICES - 1) / BATCH_SLICES);
+		List<CompletableFuture<Void>>	tasks = new ArrayList<CompletableFuture<Void>>();
+		for ( int start = 0; start < passwordsArray.length; start += sliceSize )
+		{
+			final int		sliceStart = start;
+			final int		sliceEnd = Math.min(start + sliceSize, passwordsArray.length);
+			tasks.add(CompletableFuture.runAsync(new Runnable()
+			{
+				public void run()
+				{
+					for ( int i = sliceStart; i < sliceEnd; ++i )
+					{
+						verifiers[i] = makeVerifier(passwordsArray[i]);
+					}
+				}
+			}, executor));
+		}
+
+		try
+		{
+			CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()])).join();
+		}
+		catch ( CompletionException e )
+		{
+			if ( e.getCause() instanceof RuntimeException )
+			{
+				throw (RuntimeException)e.getCause();
+			}
+			throw e;
+		}
+		return Arrays.asList(verifiers);
+	}
+
 	/**
 	 * Start a new client session.
 	 *
@@ -167,11 +332,139 @@ public class SRPFactory
 		fConstants = constants;
 	}
 
-	private static final SRPConstants DEFAULT_CONSTANTS = new SRPConstants
+	private static void		tables(File directory) throws IOException
+	{
+		if ( !directory.isDirectory() && !directory.mkdirs() )
+		{
+			throw new IOException("Could not create: " + directory);
+		}
+
+		for ( SRPGroup group : SRPGroup.values() )
+		{
+			long					startTicks = System.nanoTime();
+			SRPFixedBaseTable		table = new SRPFixedBaseTable(group.primitiveRoot_g, group.largePrime_N);
+			if ( !table.isUsable() )
+			{
+				System.err.println(group + ": too large for a table - skipped");
+				continue;
+			}
+
+			File			file = new File(directory, group.getTableResourceName());
+			OutputStream	out = new BufferedOutputStream(new FileOutputStream(file));
+			try
+			{
+				table.write(out);
+			}
+			finally
+			{
+				out.close();
+			}
+			long			buildTicks = System.nanoTime() - startTicks;
+
+			startTicks = System.nanoTime();
+			InputStream		in = new BufferedInputStream(new FileInputStream(file));
+			try
+			{
+				SRPFixedBaseTable.read(in, group.primitiveRoot_g, group.largePrime_N);
+			}
+			finally
+			{
+				in.close();
+			}
+			long			loadTicks = System.nanoTime() - startTicks;
+			System.err.println(group + ": " + file.length() + " bytes - built in " + (buildTicks / 1000000) + "ms, loaded in " + (loadTicks / 1000000) + "ms");
+		}
+	}
+
+	private static void		batch(String inputName, String outputName) throws IOException
+	{
+		Reader		inputReader = new InputStreamReader(inputName.equals("-") ? System.in : new FileInputStream(inputName), StandardCharsets.UTF_8);
+		Writer		outputWriter = outputName.equals("-") ? new OutputStreamWriter(System.out) : new OutputStreamWriter(new FileOutputStream(outputName));
+		BufferedReader		in = new BufferedReader(inputReader);
+		BufferedWriter		out = new BufferedWriter(outputWriter);
+		try
+		{
+			SRPFactory		factory = SRPFactory.getInstance();
+			long			startTicks = System.nanoTime();
+			long			count = 0;
+			long			lineNumber = 0;
+			long			outputLine = 0;
+			List<byte[]>	passwords = new ArrayList<byte[]>(BATCH_SIZE);
+			List<Long>		emptyLines = new ArrayList<Long>();
+			for(;;)
+			{
+				// read a batch at a time so that any size of file can be processed
+				String		line = in.readLine();
+				if ( line != null )
+				{
+					++lineNumber;
+					if ( line.isEmpty() )
+					{
+						// there's no verifier for an empty password - the output line is left empty so that the lines still match up
+						System.err.println("Line " + lineNumber + ": empty password - skipped");
+						emptyLines.add(outputLine + passwords.size() + emptyLines.size());
+					}
+					else
+					{
+						passwords.add(line.getBytes(StandardCharsets.UTF_8));
+					}
+				}
+
+				if ( (passwords.size() == BATCH_SIZE) || ((line == null) && ((passwords.size() > 0) || (emptyLines.size() > 0))) )
+				{
+					int			emptyIndex = 0;
+					for ( SRPVerifier verifier : factory.makeVerifiers(passwords, ForkJoinPool.commonPool()) )
+					{
+						while ( (emptyIndex < emptyLines.size()) && (emptyLines.get(emptyIndex) == outputLine) )
+						{
+							out.newLine();
+							++emptyIndex;
+							++outputLine;
+						}
+
+						out.write(verifier.verifier_v.toString(16));
+						out.write(' ');
+						out.write(verifier.salt_s.toString(16));
+						out.newLine();
+						++outputLine;
+					}
+					for ( ; emptyIndex < emptyLines.size(); ++emptyIndex )
+					{
+						out.newLine();
+						++outputLine;
+					}
+					count += passwords.size();
+					passwords.clear();
+					emptyLines.clear();
+				}
+
+				if ( line == null )
+				{
+					break;
+				}
+			}
+			out.flush();
+
+			double		seconds = Math.max(System.nanoTime() - startTicks, 1) / 1000000000.0;
+			System.err.println(String.format("%d verifiers in %.2f seconds (%.0f/second on %d cores)", count, seconds, count / seconds, Runtime.getRuntime().availableProcessors()));
+		}
+		finally
+		{
+			in.close();
+			out.close();
+		}
+	}
+
+	private static final int			BATCH_SIZE = 10000;
+	private static final int			BATCH_SLICES = 4 * Runtime.getRuntime().availableProcessors();
+
+	private static final SRPConstants DEFAULT_CONSTANTS = SRPConstants.getInstance
 	(
 		new BigInteger("115b8b692e0e045692cf280b436735c77a5a9e8a9e7ed56c965f87db5b2a2ece3", 16),
 		new BigInteger("2")
 	);
 
-	private SRPConstants 		fConstants;
+	private static final SRPFactory 	DEFAULT_FACTORY = getInstance(DEFAULT_CONSTANTS);
+
+	private final SRPConstants 		fConstants;
 }
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Fixed-base exponentiation: base^e mod modulus for a base that never changes (g in SRP). The exponent is split into windows of
+ * w bits and, for each window i, the table holds base^(d * 2^(w*i)) for every digit d. An exponentiation is then just one
+ * multiply (and mod) per window - no squaring at all.<br>
+ * <p>
+ * {@link BigInteger#modPow(BigInteger, BigInteger)} uses Montgomery multiplication, which is several times faster than
+ * multiply()/mod(), so the table only wins with wide windows. The widest window that keeps the table under {@link #MAX_TABLE_BYTES}
+ * is used (8 bits up to 2048 bit moduli). If even a {@link #MIN_WINDOW_BITS} window is too big, {@link #isUsable()} returns false.<br>
+ * <p>
+ * Building a table for a large modulus takes seconds, so tables can be written with {@link #write(OutputStream)} and loaded
+ * again with {@link #read(InputStream, BigInteger, BigInteger)} - see {@link SRPGroup}.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @see SRPConstants
+ * @version 1.2 Tables carry a hash of their entries. Loaded tables are also checked against modPow() - 10/16/26
+ * @version 1.1 Tables can be written to and read from streams - 10/16/26
+ * @version 1.0
+ */
+class SRPFixedBaseTable
+{
+	/**
+	 * @param base the fixed base
+	 * @param modulus the modulus - must be prime (exponents are reduced mod modulus - 1)
+	 */
+	SRPFixedBaseTable(BigInteger base, BigInteger modulus)
+	{
+		fModulus = modulus;
+		fExponentModulus = modulus.subtract(BigInteger.ONE);
+
+		int			exponentBits = fExponentModulus.bitLength();
+		int			windowBits = MAX_WINDOW_BITS;
+		while ( (windowBits >= MIN_WINDOW_BITS) && (getTableBytes(modulus.bitLength(), exponentBits, windowBits) > MAX_TABLE_BYTES) )
+		{
+			--windowBits;
+		}
+
+		if ( windowBits < MIN_WINDOW_BITS )
+		{
+			fWindowBits = 0;
+			fTable = null;
+			return;
+		}
+
+		fWindowBits = windowBits;
+		fTable = new BigInteger[(exponentBits + windowBits - 1) / windowBits][1 << windowBits];
+
+		BigInteger		windowBase = base.mod(modulus);
+		for ( BigInteger[] row : fTable )
+		{
+			// row[d] = windowBase^d - row[0] is never used
+			row[1] = windowBase;
+			for ( int digit = 2; digit < row.length; ++digit )
+			{
+				row[digit] = row[digit - 1].multiply(windowBase).mod(modulus);
+			}
+			windowBase = row[row.length - 1].multiply(windowBase).mod(modulus);
+		}
+	}
+
+	/**
+	 * Read a table written by {@link #write(OutputStream)}
+	 *
+	 * @param in stream to read
+	 * @param base the fixed base the table must be for
+	 * @param modulus the modulus the table must be for
+	 * @return the table
+	 * @throws IOException read errors or if the stream doesn't hold a table for base/modulus. The entries are checked against the
+	 * SHA-256 hash that follows them and a random exponent is checked against {@link BigInteger#modPow(BigInteger, BigInteger)} so
+	 * a damaged table is refused rather than giving wrong values.
+	 */
+	static SRPFixedBaseTable	read(InputStream in, BigInteger base, BigInteger modulus) throws IOException
+	{
+		DataInputStream		dataIn = new DataInputStream(in);
+		if ( dataIn.readInt() != FILE_MAGIC )
+		{
+			throw new IOException("Not a fixed-base table");
+		}
+		if ( !readValue(dataIn).equals(modulus) || !readValue(dataIn).equals(base.mod(modulus)) )
+		{
+			throw new IOException("Table is for a different base/modulus");
+		}
+
+		int					windowBits = dataIn.readInt();
+		int					rows = dataIn.readInt();
+		int					entryBytes = (modulus.bitLength() + 7) / 8;
+		int					exponentBits = modulus.subtract(BigInteger.ONE).bitLength();
+		if ( (windowBits < MIN_WINDOW_BITS) || (windowBits > MAX_WINDOW_BITS) || (rows != ((exponentBits + windowBits - 1) / windowBits)) )
+		{
+			throw new IOException("Bad table dimensions");
+		}
+
+		BigInteger[][]		table = new BigInteger[rows][1 << windowBits];
+		byte[]				entry = new byte[entryBytes];
+		MessageDigest		digest = newDigest();
+		for ( BigInteger[] row : table )
+		{
+			for ( int digit = 1; digit < row.length; ++digit )
+			{
+				dataIn.readFully(entry);
+				digest.update(entry);
+				row[digit] = new BigInteger(1, entry);
+				if ( row[digit].compareTo(modulus) >= 0 )
+				{
+					throw new IOException("Bad table entry");
+				}
+			}
+		}
+
+		byte[]				hash = new byte[digest.getDigestLength()];
+		dataIn.readFully(hash);
+		if ( !MessageDigest.isEqual(hash, digest.digest()) )
+		{
+			throw new IOException("Table is damaged");
+		}
+
+		SRPFixedBaseTable	fixedBaseTable = new SRPFixedBaseTable(modulus, windowBits, table);
+		BigInteger			exponent = new BigInteger(exponentBits, ThreadLocalRandom.current());
+		if ( !fixedBaseTable.pow(exponent).equals(base.modPow(exponent, modulus)) )
+		{
+			throw new IOException("Table entries are wrong");
+		}
+		return fixedBaseTable;
+	}
+
+	/**
+	 * Write this table so that it can be loaded with {@link #read(InputStream, BigInteger, BigInteger)}. Entries are written at
+	 * a fixed width so the file is about as big as the table's memory use. A SHA-256 hash of the entries is written after them.
+	 *
+	 * @param out stream to write to
+	 * @throws IOException write errors
+	 */
+	void						write(OutputStream out) throws IOException
+	{
+		DataOutputStream	dataOut = new DataOutputStream(out);
+		dataOut.writeInt(FILE_MAGIC);
+		writeValue(dataOut, fModulus);
+		writeValue(dataOut, fTable[0][1]);
+		dataOut.writeInt(fWindowBits);
+		dataOut.writeInt(fTable.length);
+
+		byte[]				entry = new byte[(fModulus.bitLength() + 7) / 8];
+		MessageDigest		digest = newDigest();
+		for ( BigInteger[] row : fTable )
+		{
+			for ( int digit = 1; digit < row.length; ++digit )
+			{
+				// fixed width, big-endian, unsigned
+				byte[]		bytes = row[digit].toByteArray();
+				int			length = Math.min(bytes.length, entry.length);
+				Arrays.fill(entry, 0, entry.length - length, (byte)0);
+				System.arraycopy(bytes, bytes.length - length, entry, entry.length - length, length);
+				dataOut.write(entry);
+				digest.update(entry);
+			}
+		}
+		dataOut.write(digest.digest());
+		dataOut.flush();
+	}
+
+	/**
+	 * @return false if the table would be too big - {@link #pow(BigInteger)} must not be called
+	 */
+	boolean			isUsable()
+	{
+		return (fTable != null);
+	}
+
+	/**
+	 * Returns base^exponent mod modulus
+	 *
+	 * @param exponent the exponent - any value (negative or larger than the modulus is fine)
+	 * @return the result
+	 */
+	BigInteger		pow(BigInteger exponent)
+	{
+		byte[]			bytes = exponent.mod(fExponentModulus).toByteArray();
+		BigInteger		result = null;
+		for ( int window = 0; window < fTable.length; ++window )
+		{
+			int		digit = getDigit(bytes, window * fWindowBits);
+			if ( digit != 0 )
+			{
+				BigInteger		value = fTable[window][digit];
+				result = (result == null) ? value : result.multiply(value).mod(fModulus);
+			}
+		}
+		return (result != null) ? result : BigInteger.ONE;
+	}
+
+	/**
+	 * The most memory a table may use
+	 */
+	static final long			MAX_TABLE_BYTES = 32 * 1024 * 1024;
+
+	/**
+	 * Narrower windows are slower than {@link BigInteger#modPow(BigInteger, BigInteger)}
+	 */
+	static final int			MIN_WINDOW_BITS = 5;
+
+	private static final int	MAX_WINDOW_BITS = 8;
+
+	private static final int	FILE_MAGIC = 0x53525032;	// "SRP2" - "SRPT" tables had no hash
+
+	private static final int	MAX_VALUE_BYTES = 64 * 1024;
+
+	private SRPFixedBaseTable(BigInteger modulus, int windowBits, BigInteger[][] table)
+	{
+		fModulus = modulus;
+		fExponentModulus = modulus.subtract(BigInteger.ONE);
+		fWindowBits = windowBits;
+		fTable = table;
+	}
+
+	private static BigInteger	readValue(DataInputStream dataIn) throws IOException
+	{
+		int			length = dataIn.readInt();
+		if ( (length <= 0) || (length > MAX_VALUE_BYTES) )
+		{
+			throw new IOException("Bad value length: " + length);
+		}
+		byte[]		bytes = new byte[length];
+		dataIn.readFully(bytes);
+		return new BigInteger(bytes);
+	}
+
+	private static MessageDigest	newDigest() throws IOException
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			IOException 	wrapped = new IOException();
+			wrapped.initCause(e);
+			throw wrapped;
+		}
+	}
+
+	private static void			writeValue(DataOutputStream dataOut, BigInteger value) throws IOException
+	{
+		byte[]		bytes = value.toByteArray();
+		dataOut.writeInt(bytes.length);
+		dataOut.write(bytes);
+	}
+
+	private static long			getTableBytes(int modulusBits, int exponentBits, int windowBits)
+	{
+		long		entries = (long)((exponentBits + windowBits - 1) / windowBits) * ((1 << windowBits) - 1);
+		return entries * ((modulusBits + 7) / 8);
+	}
+
+	private int					getDigit(byte[] bytes, int bitIndex)
+	{
+		// bytes are big-endian and non-negative - a window never spans more than two bytes
+		int		byteIndex = bytes.length - 1 - (bitIndex / 8);
+		if ( byteIndex < 0 )
+		{
+			return 0;
+		}
+
+		int		value = bytes[byteIndex] & 0xff;
+		if ( byteIndex > 0 )
+		{
+			value |= (bytes[byteIndex - 1] & 0xff) << 8;
+		}
+		return (value >>> (bitIndex % 8)) & ((1 << fWindowBits) - 1);
+	}
+
+	private final BigInteger 		fModulus;
+	private final BigInteger 		fExponentModulus;
+	private final int 				fWindowBits;
+	private final BigInteger[][] 	fTable;
+}
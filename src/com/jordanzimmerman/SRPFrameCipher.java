@@ -0,0 +1,284 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+/**
+ * Encrypts or decrypts data blocks for one direction of a session. A single {@link Cipher} is reused for every block and, once
+ * created, processing a block allocates nothing for {@link SRPCipherSuite#AES_ECB} (the AEAD ciphers of the JCE still allocate
+ * internally each time they are given a new nonce).<br>
+ * <p>
+ * For ciphers that need a nonce, the nonce is 4 bytes of direction (0 or 1 - the two ends of a session always use different
+ * directions for sending so that a key/nonce pair is never used twice) followed by an 8 byte big-endian block counter.
+ * <p>
+ * The JCE allocates a temporary buffer for every PKCS5 padded block so, for {@link SRPCipherSuite#AES_ECB}, the cipher is
+ * used without padding and the PKCS5 padding is added/removed here. The bytes on the wire are the same.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.2 Every pad byte is checked. An empty block is an IOException - 10/16/26
+ * @version 1.1 ByteBuffer processing and PKCS5 padding done here - 10/16/26
+ * @version 1.0
+ */
+class SRPFrameCipher
+{
+	/**
+	 * @param suite cipher to use
+	 * @param sessionKey K
+	 * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+	 * @param direction direction of the data blocks - 0 or 1
+	 * @throws IOException if the cipher can't be created
+	 */
+	SRPFrameCipher(SRPCipherSuite suite, byte[] sessionKey, int mode, int direction) throws IOException
+	{
+		fSuite = suite;
+		fMode = mode;
+		fKey = suite.makeKey(sessionKey);
+		fNonce = new byte[suite.getNonceSize()];
+		fCounter = 0;
+		if ( fNonce.length > 0 )
+		{
+			fNonce[3] = (byte)direction;
+		}
+
+		fPadBlock = suite.isPadded() ? new byte[PAD_BLOCK_SIZE] : null;
+		fPadBuffer = suite.isPadded() ? ByteBuffer.wrap(fPadBlock) : null;
+
+		try
+		{
+			fCipher = suite.newCipher();
+			if ( fNonce.length == 0 )
+			{
+				fCipher.init(fMode, fKey);
+			}
+		}
+		catch ( GeneralSecurityException e )
+		{
+			throw wrap(e);
+		}
+	}
+
+	/**
+	 * @return the cipher in use
+	 */
+	SRPCipherSuite		getSuite()
+	{
+		return fSuite;
+	}
+
+	/**
+	 * Return the size of the output buffer needed to process a block of the given size
+	 *
+	 * @param length block size
+	 * @return output buffer size
+	 */
+	int					getOutputSize(int length)
+	{
+		if ( fPadBlock != null )
+		{
+			return (fMode == Cipher.ENCRYPT_MODE) ? (length + PAD_BLOCK_SIZE - (length % PAD_BLOCK_SIZE)) : length;
+		}
+
+		int		tagSize = fSuite.getTagSize();
+		return (fMode == Cipher.ENCRYPT_MODE) ? (length + tagSize) : Math.max(length - tagSize, 0);
+	}
+
+	/**
+	 * Encrypt/decrypt one data block
+	 *
+	 * @param input input bytes
+	 * @param inputOffset offset into input
+	 * @param inputLength number of input bytes
+	 * @param output output buffer - must be at least {@link #getOutputSize(int)} bytes from outputOffset
+	 * @param outputOffset offset into output
+	 * @return number of bytes written to output
+	 * @throws IOException if the block can't be processed (for the AEAD ciphers, this includes a block that fails its integrity check)
+	 */
+	int					process(byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) throws IOException
+	{
+		try
+		{
+			nextNonce();
+			if ( (fPadBlock != null) && (fMode == Cipher.ENCRYPT_MODE) )
+			{
+				int		fullLength = inputLength - (inputLength % PAD_BLOCK_SIZE);
+				int		outputLength = fCipher.update(input, inputOffset, fullLength, output, outputOffset);
+				fillPadBlock(input, inputOffset + fullLength, inputLength - fullLength);
+				return outputLength + fCipher.doFinal(fPadBlock, 0, PAD_BLOCK_SIZE, output, outputOffset + outputLength);
+			}
+
+			int		outputLength = fCipher.doFinal(input, inputOffset, inputLength, output, outputOffset);
+			if ( fPadBlock != null )
+			{
+				outputLength -= getPadLength(output, outputOffset, outputLength);
+			}
+			return outputLength;
+		}
+		catch ( GeneralSecurityException e )
+		{
+			throw wrap(e);
+		}
+	}
+
+	/**
+	 * Encrypt/decrypt one data block. Heap or direct buffers can be used.
+	 *
+	 * @param input all remaining bytes are processed. On return, the position equals the limit.
+	 * @param output must have at least {@link #getOutputSize(int)} bytes remaining. On return, the position has been advanced past
+	 * the processed bytes.
+	 * @return number of bytes written to output
+	 * @throws IOException if the block can't be processed (for the AEAD ciphers, this includes a block that fails its integrity check)
+	 */
+	int					process(ByteBuffer input, ByteBuffer output) throws IOException
+	{
+		try
+		{
+			nextNonce();
+			if ( (fPadBlock != null) && (fMode == Cipher.ENCRYPT_MODE) )
+			{
+				int		limit = input.limit();
+				input.limit(limit - (input.remaining() % PAD_BLOCK_SIZE));
+				int		outputLength = fCipher.update(input, output);
+				input.limit(limit);
+
+				int		remaining = input.remaining();
+				input.get(fPadBlock, 0, remaining);
+				fillPadBlock(fPadBlock, 0, remaining);
+				fPadBuffer.clear();
+				return outputLength + fCipher.doFinal(fPadBuffer, output);
+			}
+
+			int		outputLength = fCipher.doFinal(input, output);
+			if ( fPadBlock != null )
+			{
+				int		padLength = getPadLength(output, outputLength);
+				output.position(output.position() - padLength);
+				outputLength -= padLength;
+			}
+			return outputLength;
+		}
+		catch ( GeneralSecurityException e )
+		{
+			throw wrap(e);
+		}
+	}
+
+	private void		fillPadBlock(byte[] input, int inputOffset, int inputLength)
+	{
+		if ( input != fPadBlock )
+		{
+			System.arraycopy(input, inputOffset, fPadBlock, 0, inputLength);
+		}
+
+		byte	padLength = (byte)(PAD_BLOCK_SIZE - inputLength);
+		for ( int i = inputLength; i < PAD_BLOCK_SIZE; ++i )
+		{
+			fPadBlock[i] = padLength;
+		}
+	}
+
+	private static int	getPadLength(byte[] decrypted, int offset, int decryptedLength) throws IOException
+	{
+		if ( decryptedLength == 0 )
+		{
+			throw new IOException("Bad padding");
+		}
+
+		int		padLength = checkPadLength(decrypted[offset + decryptedLength - 1], decryptedLength);
+		for ( int i = decryptedLength - padLength; i < decryptedLength; ++i )
+		{
+			if ( decrypted[offset + i] != (byte)padLength )
+			{
+				throw new IOException("Bad padding");
+			}
+		}
+		return padLength;
+	}
+
+	private static int	getPadLength(ByteBuffer output, int decryptedLength) throws IOException
+	{
+		// the decrypted bytes end at the output position
+		if ( decryptedLength == 0 )
+		{
+			throw new IOException("Bad padding");
+		}
+
+		int		end = output.position();
+		int		padLength = checkPadLength(output.get(end - 1), decryptedLength);
+		for ( int i = end - padLength; i < end; ++i )
+		{
+			if ( output.get(i) != (byte)padLength )
+			{
+				throw new IOException("Bad padding");
+			}
+		}
+		return padLength;
+	}
+
+	private static int	checkPadLength(byte lastByte, int decryptedLength) throws IOException
+	{
+		int		padLength = lastByte & 0xff;
+		if ( (padLength == 0) || (padLength > PAD_BLOCK_SIZE) || (padLength > decryptedLength) )
+		{
+			throw new IOException("Bad padding");
+		}
+		return padLength;
+	}
+
+	private void		nextNonce() throws GeneralSecurityException, IOException
+	{
+		if ( fNonce.length == 0 )
+		{
+			return;	// the cipher resets itself after each doFinal()
+		}
+
+		if ( fCounter < 0 )
+		{
+			throw new IOException("Block counter exhausted");
+		}
+
+		long		counter = fCounter++;
+		for ( int i = fNonce.length - 1; i >= fNonce.length - 8; --i )
+		{
+			fNonce[i] = (byte)counter;
+			counter >>>= 8;
+		}
+		fCipher.init(fMode, fKey, fSuite.makeParameters(fNonce));
+	}
+
+	private static IOException		wrap(GeneralSecurityException e)
+	{
+		IOException 		wrapped = new IOException();
+		wrapped.initCause(e);
+		return wrapped;
+	}
+
+	private static final int		PAD_BLOCK_SIZE = 16;
+
+	private final SRPCipherSuite 	fSuite;
+	private final int 				fMode;
+	private final Key 				fKey;
+	private final byte[] 			fNonce;
+	private final byte[] 			fPadBlock;
+	private final ByteBuffer 		fPadBuffer;
+	private final Cipher 			fCipher;
+	private long 					fCounter;
+}
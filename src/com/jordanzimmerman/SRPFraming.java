@@ -0,0 +1,40 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+/**
+ * How authentication values and data block sizes are written on the wire by {@link SRPInputStream}/{@link SRPOutputStream}
+ * <p>
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @see SRPStreamOptions
+ * @version 1.0
+ */
+public enum SRPFraming
+{
+	/**
+	 * The original protocol. Values are written as {@link java.math.BigInteger#toString(int)} with a radix of 16 followed
+	 * by a newline.
+	 */
+	HEX,
+
+	/**
+	 * Values are written as a 4 byte big-endian length followed by the bytes of {@link java.math.BigInteger#toByteArray()}. Data block
+	 * sizes are written as a 4 byte big-endian int.
+	 */
+	BINARY
+}
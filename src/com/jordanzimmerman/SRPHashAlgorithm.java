@@ -0,0 +1,134 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The hash function (H in the SRP docs) used to compute k, x, u, M(1) and M(2). It is chosen per {@link SRPConstants} - both
+ * the client and server must use the same constants.<br>
+ * <p>
+ * Each thread keeps its own {@link MessageDigest} per algorithm so that hashing doesn't look up a provider or allocate a digest
+ * each time.
+ * <p>
+ * NOTE: the ordinal is part of the binary encoding of {@link SRPConstants} - add new algorithms at the end.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.0
+ */
+public enum SRPHashAlgorithm
+{
+	/**
+	 * The original hash function
+	 */
+	SHA_256("SHA-256"),
+
+	SHA_512("SHA-512"),
+
+	/**
+	 * Requires a JCE that provides it - Java 9 or later
+	 */
+	SHA3_256("SHA3-256"),
+
+	/**
+	 * Requires a JCE that provides it - Java 9 or later
+	 */
+	SHA3_512("SHA3-512");
+
+	/**
+	 * Returns true if the installed JCE provides this algorithm
+	 *
+	 * @return true/false
+	 */
+	public boolean			isAvailable()
+	{
+		try
+		{
+			MessageDigest.getInstance(fName);
+			return true;
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Hash the concatenation of the given byte arrays (without building the concatenation)
+	 *
+	 * @param parts bytes to hash
+	 * @return the hash
+	 */
+	byte[]					digest(byte[]... parts)
+	{
+		MessageDigest		digest = fDigests.get();
+		for ( byte[] part : parts )
+		{
+			digest.update(part, 0, part.length);
+		}
+		return digest.digest();	// also resets the digest for the next use
+	}
+
+	/**
+	 * Hash part of a byte array
+	 *
+	 * @param bytes bytes to hash
+	 * @param offset offset of the first byte
+	 * @param length number of bytes
+	 * @return the hash
+	 */
+	byte[]					digest(byte[] bytes, int offset, int length)
+	{
+		MessageDigest		digest = fDigests.get();
+		digest.update(bytes, offset, length);
+		return digest.digest();
+	}
+
+	private SRPHashAlgorithm(String name)
+	{
+		fName = name;
+		fDigests = makeDigests(name);
+	}
+
+	/**
+	 * Digests for a JCE algorithm - one per thread
+	 *
+	 * @param name JCE algorithm name
+	 * @return thread local digests
+	 */
+	static ThreadLocal<MessageDigest>		makeDigests(final String name)
+	{
+		return new ThreadLocal<MessageDigest>()
+		{
+			protected MessageDigest initialValue()
+			{
+				try
+				{
+					return MessageDigest.getInstance(name);
+				}
+				catch ( NoSuchAlgorithmException e )
+				{
+					throw new UnsupportedOperationException(e);
+				}
+			}
+		};
+	}
+
+	private final String 						fName;
+	private final ThreadLocal<MessageDigest> 	fDigests;
+}
@@ -16,22 +16,34 @@
 package com.jordanzimmerman;     
 
 import javax.crypto.Cipher;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
-import java.security.GeneralSecurityException;
-import java.security.Key;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An Output Stream that authenticates and encrypts (using AES). All read() methods process encrypted data using the active
  * SRP session key. This class assumes an {@link SRPOutputStream} on the other end.
  * <p>
+ * read(byte[], int, int) fills the array from as many data blocks as have wholly arrived and only blocks while it has nothing to
+ * return. To tell whether the next block is all there, it reads ahead what the underlying stream reports as available().
  *
  * @author Jordan Zimmerman - jordan@jordanzimmerman.com
  * @see SRPFactory Full Documentation
+ * @version 1.13 read(byte[], int, int) continues into data blocks that have wholly arrived again: input is read ahead (only
+ * what fIn has available) to tell whether the next block is all there - 10/16/26
+ * @version 1.12 A data block that fails to decrypt leaves nothing to read and every later read fails - 10/16/26
+ * @version 1.11 Empty data blocks are refused. Frames that decrypt to nothing are skipped - 10/16/26
+ * @version 1.10 read(byte[], int, int) returns 0 for a zero length read and returns as soon as it has data instead of
+ * waiting for a frame that has only partly arrived - 10/16/26
+ * @version 1.9 ReentrantLock instead of synchronized (a blocked read no longer pins a virtual thread's carrier) - 10/16/26
+ * @version 1.8 Data blocks are read and decrypted without allocating - 10/16/26
+ * @version 1.7 Cipher negotiated via {@link SRPStreamOptions} - 10/16/26
+ * @version 1.6 Optional binary framing negotiated via {@link SRPStreamOptions} - 10/16/26
+ * @version 1.5 read(byte[], int, int) copies whole ranges and continues into frames that have already arrived. available()
+ * reports the decrypted bytes that are buffered - 10/16/26
  * @version 1.4 Bug reported by frederic barachant. read(byte[], int, int) needs to return -1 if the stream is closed - 6/18/09
  * @version 1.3 Updated to use the SRP-6 spec 2/21/07
  * @version 1.2 Fixed the implementation of {@link #read(byte[], int, int)} - 2/20/07
@@ -45,97 +57,135 @@ public class SRPInputStream extends InputStream
 	public SRPInputStream(InputStream in)
 	{
 		fIn = in;
-		fSessionKey = null;
-		fCipher = null;
+		fFrameCipher = null;
+		fEncrypted = null;
+		fFraming = SRPFraming.HEX;
+		fFailure = null;
 
-		fBuffer = ByteBuffer.wrap(new byte[SRPInputStream.BUFFER_SIZE]);
-		fBuffer.clear();
-		fBuffer.flip();	// denote buffer as being empty
+		fBuffer = ByteBuffer.allocate(0);	// denote buffer as being empty - the real buffer is allocated by authenticate()
+		fRaw = ByteBuffer.allocate(0);
 	}
 
 	/**
-	 * Must be called before any other method. This will completely authenticate to the corresponding client/server.
+	 * Must be called before any other method. This will completely authenticate to the corresponding client/server using
+	 * the original protocol ({@link SRPStreamOptions#LEGACY}).
 	 *
 	 * @param runner A session runner
 	 * @param out an output stream to the corresponding client/server.
 	 * @throws IOException if authentication fails or there is an I/O error
 	 */
-	public synchronized void		authenticate(SRPRunner runner, SRPOutputStream out) throws IOException
+	public void		authenticate(SRPRunner runner, SRPOutputStream out) throws IOException
 	{
-		while ( runner.next() )
+		fLock.lock();
+		try
 		{
-			if ( runner.hasOutput() )
-			{
-				out.writeAuthenticationValue(runner.getOutput(), true);
-			}
-
-			if ( runner.needsInput() )
-			{
-				runner.setInput(readAuthenticationValue(true));
-			}
+			authenticate(runner, out, SRPStreamOptions.LEGACY);
 		}
-
-		if ( !runner.success() )
+		finally
 		{
-			throw new SRPAuthenticationFailedException("Authentication failed.");
+			fLock.unlock();
 		}
+	}
 
-		fSessionKey = makeJCEKey(runner);
-
+	/**
+	 * Must be called before any other method. This will negotiate the given options and completely authenticate to the
+	 * corresponding client/server. The output stream is authenticated as well - calling
+	 * {@link SRPOutputStream#authenticate(SRPRunner, SRPInputStream)} afterwards is harmless but not needed.
+	 *
+	 * @param runner A session runner
+	 * @param out an output stream to the corresponding client/server.
+	 * @param options protocol options to negotiate. The corresponding client/server must also use non-legacy options.
+	 * @throws IOException if authentication fails or there is an I/O error
+	 */
+	public void		authenticate(SRPRunner runner, SRPOutputStream out, SRPStreamOptions options) throws IOException
+	{
+		fLock.lock();
 		try
 		{
-			fCipher = Cipher.getInstance(ENCRYPTION_TYPE);
-			fCipher.init(Cipher.DECRYPT_MODE, fSessionKey);
+			if ( fFrameCipher != null )
+			{
+				return;	// already authenticated along with the output stream
+			}
+
+			SRPStreamHandshake.run(runner, options, this, out);
 		}
-		catch ( GeneralSecurityException e )
+		finally
 		{
-			IOException 		wrapped = new IOException();
-			wrapped.initCause(e);
-			throw wrapped;
+			fLock.unlock();
 		}
 	}
 
-	public synchronized int read() throws IOException
+	public int read() throws IOException
 	{
-		checkBuffer();
-		return (fBuffer != null) ? (fBuffer.get() & 0xff) : -1;
+		fLock.lock();
+		try
+		{
+			checkBuffer(true);
+			return (fBuffer != null) ? (fBuffer.get() & 0xff) : -1;
+		}
+		finally
+		{
+			fLock.unlock();
+		}
 	}
 
-	public synchronized int read(byte b[]) throws IOException
+	public int read(byte b[]) throws IOException
 	{
-		return read(b, 0, b.length);
+		fLock.lock();
+		try
+		{
+			return read(b, 0, b.length);
+		}
+		finally
+		{
+			fLock.unlock();
+		}
 	}
 
-	public synchronized int read(byte b[], int off, int len) throws IOException
+	public int read(byte b[], int off, int len) throws IOException
 	{
-		boolean		firstByte = true;
-		int			bytesRead = 0;
-		while ( (fBuffer != null) && (len > 0) )
+		fLock.lock();
+		try
 		{
-			int		i = read();
-			if ( i < 0 )
+			if ( len == 0 )
 			{
-				if ( bytesRead == 0 )
-				{
-					bytesRead = -1;
-				}
-				break;
+				return 0;
 			}
 
-			++bytesRead;
-			b[off++] = (byte)(i & 0xff);
-			--len;
-
-			if ( firstByte )
+			int			bytesRead = 0;
+			while ( len > 0 )
 			{
-				firstByte = false;
-				if ( len > fBuffer.remaining() )
+				// once there's data to return, only frames that have wholly arrived are decrypted - never block for another
+				try
+				{
+					checkBuffer(bytesRead == 0);
+				}
+				catch ( IOException e )
 				{
-					len = fBuffer.remaining();
+					if ( bytesRead == 0 )
+					{
+						throw e;
+					}
+					break;	// return what was read - the failure is kept and the next read throws
 				}
+				if ( (fBuffer == null) || !fBuffer.hasRemaining() )
+				{
+					break;
+				}
+
+				int		thisLength = Math.min(len, fBuffer.remaining());
+				fBuffer.get(b, off, thisLength);
+				bytesRead += thisLength;
+				off += thisLength;
+				len -= thisLength;
 			}
+
+			return ((bytesRead == 0) && (fBuffer == null)) ? -1 : bytesRead;
+		}
+		finally
+		{
+			fLock.unlock();
 		}
-		return bytesRead;
 	}
 
 	public long skip(long n) throws IOException
@@ -147,12 +197,28 @@ public class SRPInputStream extends InputStream
 
 	public int available() throws IOException
 	{
-		return 0;
+		fLock.lock();
+		try
+		{
+			return (fBuffer != null) ? fBuffer.remaining() : 0;
+		}
+		finally
+		{
+			fLock.unlock();
+		}
 	}
 
-	public synchronized void close() throws IOException
+	public void close() throws IOException
 	{
-		fIn.close();
+		fLock.lock();
+		try
+		{
+			fIn.close();
+		}
+		finally
+		{
+			fLock.unlock();
+		}
 	}
 
 	public void mark(int readlimit)
@@ -168,15 +234,53 @@ public class SRPInputStream extends InputStream
 		return false;
 	}
 
-	static final String			ENCRYPTION_TYPE = "AES";
 	static final int			BUFFER_SIZE = 8192 - 5;		// 5 is enough to write the max value in Hex plus a newline
+	static final int			MAX_FRAME_SIZE = BUFFER_SIZE + 1024;
+	static final int			MAX_AUTHENTICATION_VALUE_SIZE = 0x10000;
+
+	void		setFraming(SRPFraming framing)
+	{
+		fFraming = framing;
+	}
+
+	void		startSession(byte[] key, SRPCipherSuite suite, int direction) throws IOException
+	{
+		fFrameCipher = new SRPFrameCipher(suite, key, Cipher.DECRYPT_MODE, direction);
+
+		// the buffers are allocated once and reused for every data block
+		fEncrypted = ByteBuffer.allocate(MAX_FRAME_SIZE);
+		fBuffer = ByteBuffer.allocate(Math.max(fFrameCipher.getOutputSize(MAX_FRAME_SIZE), BUFFER_SIZE));
+		fBuffer.flip();	// denote buffer as being empty
+		fRaw = ByteBuffer.allocate(SRPWireFormat.MAX_FRAME_SIZE_LENGTH + MAX_FRAME_SIZE);
+		fRaw.flip();	// nothing is read ahead until there's a session
+	}
 
 	BigInteger 	readAuthenticationValue(boolean required) throws IOException
 	{
+		if ( fFraming == SRPFraming.BINARY )
+		{
+			int		size = readBinarySize(required);
+			if ( size < 0 )
+			{
+				return null;	// stream closed
+			}
+			if ( (size == 0) || (size > MAX_AUTHENTICATION_VALUE_SIZE) )
+			{
+				throw new SRPAuthenticationFailedException("Bad value size: " + size);
+			}
+
+			byte[]	bytes = new byte[size];
+			if ( !readFully(bytes, 0, size) )
+			{
+				throw (required ? new SRPAuthenticationFailedException("Connection closed") : new EOFException());
+			}
+			return new BigInteger(bytes);
+		}
+
 		StringBuilder		str = new StringBuilder();
 		for(;;)
 		{
-			int		b = fIn.read();
+			int		b = readRaw();
 			if ( b < 0 )
 			{
 				if ( required )
@@ -202,71 +306,214 @@ public class SRPInputStream extends InputStream
 		return new BigInteger(str.toString(), 16);
 	}
 
-	static Key 		makeJCEKey(SRPRunner runner)
+	private void	checkBuffer(boolean mayBlock) throws IOException
 	{
-		byte[]			hash = runner.getSessionKey();
-		return new SecretKeySpec(hash, ENCRYPTION_TYPE);
+		if ( fFailure != null )
+		{
+			IOException		e = new IOException("An earlier data block failed to decrypt");
+			e.initCause(fFailure);
+			throw e;
+		}
+
+		// a frame can decrypt to nothing (e.g. a GCM block of just the tag) - keep going until there's data or the stream closes
+		while ( (fBuffer != null) && !fBuffer.hasRemaining() )
+		{
+			if ( fFrameCipher == null )
+			{
+				throw new IOException("authenticate() has not been called");
+			}
+			if ( !mayBlock && !isFrameBuffered() )
+			{
+				return;
+			}
+
+			int 			size = readFrameSize();
+			if ( (size < 0) || !readFully(fEncrypted.array(), 0, size) )
+			{
+				fBuffer = null;	// stream closed
+				return;
+			}
+
+			fEncrypted.clear();
+			fEncrypted.limit(size);
+			fBuffer.clear();
+			try
+			{
+				fFrameCipher.process(fEncrypted, fBuffer);
+			}
+			catch ( IOException e )
+			{
+				// nothing of a bad block is returned and the cipher's nonces are now out of step - every later read fails too
+				fBuffer.limit(0);
+				fFailure = e;
+				throw e;
+			}
+			catch ( RuntimeException e )
+			{
+				fBuffer.limit(0);
+				fFailure = new IOException(e);
+				throw fFailure;
+			}
+			fBuffer.flip();
+		}
 	}
 
-	private void	checkBuffer() throws IOException
+	private int		readFrameSize() throws IOException
 	{
-		if ( fBuffer.hasRemaining() )
+		int		size;
+		if ( fFraming == SRPFraming.BINARY )
 		{
-			return;
+			size = readBinarySize(false);
 		}
-
-		if ( fSessionKey == null )
+		else
 		{
-			throw new IOException("authenticate() has not been called");
+			size = readHexSize();
 		}
 
-		BigInteger 		sizeBigInt = readAuthenticationValue(false);
-		byte[]			buffer = null;
-		if ( sizeBigInt == null )
+		if ( (size == 0) || (size > MAX_FRAME_SIZE) )
 		{
-			fBuffer = null;
+			throw new IOException("Bad data block size: " + size);
 		}
-		else
+		return size;
+	}
+
+	private int		readHexSize() throws IOException
+	{
+		// same format as readAuthenticationValue() but parsed in place as this is done for every data block
+		int		size = 0;
+		int		digits = 0;
+		for(;;)
 		{
-			int				size = sizeBigInt.intValue();
-			buffer = new byte[size];
-			int				offset = 0;
-			while ( size > 0 )
+			int		b = readRaw();
+			if ( b < 0 )
 			{
-				int		bytesRead = fIn.read(buffer, offset, buffer.length - offset);
-				if ( bytesRead < 0 )
+				if ( digits == 0 )
 				{
-					fBuffer = null;
-					break;
+					return -1;	// stream closed
 				}
+				throw new EOFException();
+			}
 
-				size -= bytesRead;
-				if ( size < 0 )
-				{
-					throw new EOFException();
-				}
+			if ( b == '\n' )
+			{
+				break;
 			}
+
+			int		digit = Character.digit(b, 16);
+			if ( (digit < 0) || (++digits > 7) )
+			{
+				throw new IOException("Bad data block size");
+			}
+			size = (size << 4) | digit;
 		}
 
-		if ( (fBuffer != null) && (buffer != null) )
+		if ( digits == 0 )
 		{
-			try
+			throw new IOException("Bad data block size");
+		}
+		return size;
+	}
+
+	private int		readBinarySize(boolean required) throws IOException
+	{
+		int		b = readRaw();
+		if ( b < 0 )
+		{
+			if ( required )
 			{
-				byte[]		decryptedBytes = fCipher.doFinal(buffer);
-				fBuffer = ByteBuffer.wrap(decryptedBytes);
-				fBuffer.rewind();
+				throw new SRPAuthenticationFailedException("Connection closed");
 			}
-			catch ( GeneralSecurityException e )
+			return -1;	// stream closed
+		}
+
+		fSizeBytes[0] = (byte)b;
+		if ( !readFully(fSizeBytes, 1, fSizeBytes.length - 1) )
+		{
+			throw (required ? new SRPAuthenticationFailedException("Connection closed") : new EOFException());
+		}
+
+		int		size = ((fSizeBytes[0] & 0xff) << 24) | ((fSizeBytes[1] & 0xff) << 16) | ((fSizeBytes[2] & 0xff) << 8) | (fSizeBytes[3] & 0xff);
+		if ( size < 0 )
+		{
+			throw new IOException("Bad size: " + size);
+		}
+		return size;
+	}
+
+	/**
+	 * Reads ahead without blocking: moves what fIn has available into fRaw and checks whether the next data block (size and all)
+	 * is there
+	 *
+	 * @return true if the next data block can be read without blocking (or the stream has closed). A bad size is left for a
+	 * blocking read to report
+	 * @throws IOException I/O errors
+	 */
+	private boolean	isFrameBuffered() throws IOException
+	{
+		int		available = fIn.available();
+		if ( available > 0 )
+		{
+			fRaw.compact();
+			int		bytesRead = fIn.read(fRaw.array(), fRaw.position(), Math.min(available, fRaw.remaining()));
+			fRaw.position(fRaw.position() + Math.max(bytesRead, 0));
+			fRaw.flip();
+			if ( bytesRead < 0 )
 			{
-				IOException 		wrapped = new IOException();
-				wrapped.initCause(e);
-				throw wrapped;
+				return true;
 			}
 		}
+
+		int		size;
+		int		bodyLength;
+		fRaw.mark();
+		try
+		{
+			size = SRPWireFormat.decodeFrameSize(fRaw, fFraming);
+			bodyLength = fRaw.remaining();
+		}
+		catch ( IOException e )
+		{
+			return false;
+		}
+		finally
+		{
+			fRaw.reset();
+		}
+		return (size >= 0) && (bodyLength >= size);
+	}
+
+	private int		readRaw() throws IOException
+	{
+		return fRaw.hasRemaining() ? (fRaw.get() & 0xff) : fIn.read();
+	}
+
+	private boolean	readFully(byte[] b, int off, int len) throws IOException
+	{
+		int		rawLength = Math.min(len, fRaw.remaining());
+		fRaw.get(b, off, rawLength);
+		off += rawLength;
+		len -= rawLength;
+		while ( len > 0 )
+		{
+			int		bytesRead = fIn.read(b, off, len);
+			if ( bytesRead < 0 )
+			{
+				return false;
+			}
+
+			off += bytesRead;
+			len -= bytesRead;
+		}
+		return true;
 	}
 
 	private InputStream 		fIn;
-	private Cipher 				fCipher;
-	private Key 				fSessionKey;
+	private SRPFrameCipher 		fFrameCipher;
 	private ByteBuffer 			fBuffer;
+	private ByteBuffer 			fEncrypted;
+	private ByteBuffer 			fRaw;
+	private SRPFraming 			fFraming;
+	private IOException 		fFailure;
+	private final byte[]		fSizeBytes = new byte[4];
+	private final ReentrantLock		fLock = new ReentrantLock();
 }
@@ -0,0 +1,842 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An {@link SRPVerifierStore} that keeps the verifiers in a memory-mapped file so that millions of users can be looked up without
+ * loading them into the heap. A lookup hashes the user name, probes an open-addressing table in the file and builds v and s straight
+ * from the mapped bytes - there is no deserialization and no I/O beyond the page(s) touched.<br>
+ * <p>
+ * File layout:
+ * <code><pre>
+ * [header]  64 bytes: magic, version, value size, record size, slot count, record count, live count, used slots
+ * [slots]   slot count * 16 bytes: first 8 bytes of the name hash, record number + 1 (0 is empty, -1 is removed)
+ * [records] fixed-width, appended: SHA-256 of the UTF-8 user name, length + bytes of v, length + bytes of s
+ * </pre></code>
+ * The value size is the byte length of N (plus a sign byte) - so the file only holds verifiers for the {@link SRPConstants} it
+ * was made with. User names are not kept, only their hashes.
+ * <p>
+ * Updates never overwrite a record: the new record is appended and then the slot is pointed at it. The records that are left behind
+ * (replaced or removed users) are dropped by {@link #compact()} - which is also done automatically when they outnumber the live
+ * users or when the slots become half full. Compaction writes a new file next to the store (name + ".compact"), forces it to disk and
+ * atomically renames it over the store - if the process dies part way the old file is still intact and the leftover is deleted the
+ * next time the store is opened.
+ * <p>
+ * Changes are in the OS's page cache as soon as a method returns (so they survive the process dying). Call {@link #flush()} to force
+ * them to disk. getVerifier() may be called from many threads at once; updates are serialized.
+ * <p>
+ * NOTE: the JVM releases a file mapping only when its buffer is garbage collected. On platforms that don't allow a mapped file to be
+ * replaced (e.g. Windows) compaction fails with an IOException and the store carries on with the old file.
+ * <p>
+ * <code>SRPMappedVerifierStore -bench file users lookups [group]</code> measures lookup latency - see {@link #main(String[])}.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.0
+ */
+public class SRPMappedVerifierStore implements SRPVerifierStore
+{
+	/**
+	 * Open the store in the given file - it is made if it doesn't exist
+	 *
+	 * @param file the file
+	 * @param constants the constants of the verifiers
+	 * @throws IOException errors or the file is not a store for the constants
+	 */
+	public SRPMappedVerifierStore(File file, SRPConstants constants) throws IOException
+	{
+		this(file, constants, DEFAULT_EXPECTED_USERS);
+	}
+
+	/**
+	 * Open the store in the given file - it is made if it doesn't exist
+	 *
+	 * @param file the file
+	 * @param constants the constants of the verifiers
+	 * @param expectedUsers if the file is made, it is sized for this many users (it grows as needed)
+	 * @throws IOException errors or the file is not a store for the constants
+	 */
+	public SRPMappedVerifierStore(File file, SRPConstants constants, long expectedUsers) throws IOException
+	{
+		fPath = file;
+		fTempPath = new File(file.getPath() + COMPACT_SUFFIX);
+		fValueBytes = (constants.largePrime_N.bitLength() / 8) + 1;
+		fLock = new ReentrantReadWriteLock();
+
+		fTempPath.delete();	// left by a compaction that didn't finish
+		if ( file.exists() && (file.length() > 0) )
+		{
+			fFile = MappedFile.open(file, fValueBytes);
+		}
+		else
+		{
+			MappedFile		created = MappedFile.create(fTempPath, fValueBytes, slotCountFor(expectedUsers), expectedUsers);
+			fFile = replaceWith(created);
+		}
+	}
+
+	public SRPVerifier		getVerifier(String userName) throws IOException
+	{
+		byte[]		nameHash = hashUserName(userName);
+		fLock.readLock().lock();
+		try
+		{
+			MappedFile		file = getOpenFile();
+			long			slot = file.find(nameHash);
+			return (slot >= 0) ? file.readVerifier(slot) : null;
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalArgumentException if v or s are larger than N
+	 */
+	public void				putVerifier(String userName, SRPVerifier verifier) throws IOException
+	{
+		byte[]		verifierBytes = verifier.verifier_v.toByteArray();
+		byte[]		saltBytes = verifier.salt_s.toByteArray();
+		if ( (verifierBytes.length > fValueBytes) || (saltBytes.length > fValueBytes) )
+		{
+			throw new IllegalArgumentException("The verifier is too large for the store's constants");
+		}
+
+		byte[]		nameHash = hashUserName(userName);
+		fLock.writeLock().lock();
+		try
+		{
+			MappedFile		file = getOpenFile();
+			long			slot = file.find(nameHash);
+			if ( (slot < 0) && !file.hasRoomForSlot() )
+			{
+				file = compactFile(file.fLiveCount + 1);
+			}
+
+			long			record = file.append(file.makeRecord(nameHash, verifierBytes, saltBytes));
+			if ( slot >= 0 )
+			{
+				file.setRecord(slot, record);
+			}
+			else
+			{
+				file.insert(getHashPrefix(nameHash), record);
+			}
+			checkGarbage(file);
+		}
+		finally
+		{
+			fLock.writeLock().unlock();
+		}
+	}
+
+	public boolean			removeVerifier(String userName) throws IOException
+	{
+		byte[]		nameHash = hashUserName(userName);
+		fLock.writeLock().lock();
+		try
+		{
+			MappedFile		file = getOpenFile();
+			long			slot = file.find(nameHash);
+			if ( slot < 0 )
+			{
+				return false;
+			}
+
+			file.remove(slot);
+			checkGarbage(file);
+			return true;
+		}
+		finally
+		{
+			fLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of users
+	 * @throws IOException if the store is closed
+	 */
+	public long				size() throws IOException
+	{
+		fLock.readLock().lock();
+		try
+		{
+			return getOpenFile().fLiveCount;
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Force all changes to disk
+	 *
+	 * @throws IOException errors
+	 */
+	public void				flush() throws IOException
+	{
+		fLock.writeLock().lock();
+		try
+		{
+			getOpenFile().force();
+		}
+		finally
+		{
+			fLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Rewrite the file without the records of replaced/removed users. Lookups and updates wait while a compaction is in progress.
+	 *
+	 * @throws IOException errors - the store is unchanged
+	 */
+	public void				compact() throws IOException
+	{
+		fLock.writeLock().lock();
+		try
+		{
+			MappedFile		file = getOpenFile();
+			compactFile(file.fLiveCount);
+		}
+		finally
+		{
+			fLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Forces all changes to disk and closes the file
+	 *
+	 * @throws IOException errors
+	 */
+	public void				close() throws IOException
+	{
+		fLock.writeLock().lock();
+		try
+		{
+			if ( fFile != null )
+			{
+				MappedFile		file = fFile;
+				fFile = null;
+				try
+				{
+					file.force();
+				}
+				finally
+				{
+					file.close();
+				}
+			}
+		}
+		finally
+		{
+			fLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Lookup benchmark: <code>SRPMappedVerifierStore -bench file users lookups [group]</code> fills the store in file (which is
+	 * deleted first) with that many users - the verifiers are random values rather than made from passwords, as the store doesn't
+	 * care - and then looks up random users. Lookups/s and p50/p99/p999 lookup latency are printed. group is an {@link SRPGroup}
+	 * name - the default constants are used if it's missing.
+	 *
+	 * @param args see above
+	 * @throws Exception errors
+	 */
+	public static void		main(String[] args) throws Exception
+	{
+		if ( (args.length < 4) || !args[0].equals("-bench") )
+		{
+			System.err.println("usage: SRPMappedVerifierStore -bench file users lookups [group]");
+			return;
+		}
+
+		File					file = new File(args[1]);
+		int						users = Integer.parseInt(args[2]);
+		int						lookups = Integer.parseInt(args[3]);
+		SRPConstants			constants = (args.length > 4) ? SRPGroup.valueOf(args[4]).getConstants() : SRPFactory.getInstance().getConstants();
+		int						valueBits = constants.largePrime_N.bitLength() - 1;
+		Random					random = new Random();
+
+		file.delete();
+		SRPMappedVerifierStore	store = new SRPMappedVerifierStore(file, constants, users);
+		try
+		{
+			long		startTicks = System.nanoTime();
+			for ( int i = 0; i < users; ++i )
+			{
+				SRPVerifier		verifier = new SRPVerifier(new BigInteger(valueBits, random), new BigInteger(valueBits, random));
+				store.putVerifier(Integer.toString(i), verifier);
+			}
+			long		fillTicks = System.nanoTime() - startTicks;
+
+			long[]		latencies = new long[lookups];
+			startTicks = System.nanoTime();
+			for ( int i = 0; i < lookups; ++i )
+			{
+				String		userName = Integer.toString(random.nextInt(users));
+				long		lookupStartTicks = System.nanoTime();
+				if ( store.getVerifier(userName) == null )
+				{
+					throw new IllegalStateException("Missing user: " + userName);
+				}
+				latencies[i] = System.nanoTime() - lookupStartTicks;
+			}
+			long		lookupTicks = System.nanoTime() - startTicks;
+
+			Arrays.sort(latencies);
+			System.out.println("users:     " + users + " (" + file.length() + " bytes)");
+			System.out.println("puts/s:    " + ((users * 1000000000L) / Math.max(fillTicks, 1)));
+			System.out.println("lookups/s: " + ((lookups * 1000000000L) / Math.max(lookupTicks, 1)));
+			System.out.println("p50:       " + formatMicros(percentile(latencies, 0.50)));
+			System.out.println("p99:       " + formatMicros(percentile(latencies, 0.99)));
+			System.out.println("p999:      " + formatMicros(percentile(latencies, 0.999)));
+		}
+		finally
+		{
+			store.close();
+		}
+	}
+
+	private static long		percentile(long[] sorted, double fraction)
+	{
+		if ( sorted.length == 0 )
+		{
+			return 0;
+		}
+		int		index = (int)Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+
+	private static String	formatMicros(long ticks)
+	{
+		return String.format("%.2fus", ticks / 1000.0);
+	}
+
+	private MappedFile		getOpenFile() throws IOException
+	{
+		if ( fFile == null )
+		{
+			throw new IOException("The store is closed");
+		}
+		return fFile;
+	}
+
+	private void			checkGarbage(MappedFile file) throws IOException
+	{
+		if ( (file.fRecordCount - file.fLiveCount) > Math.max(file.fLiveCount, MIN_COMPACT_GARBAGE) )
+		{
+			compactFile(file.fLiveCount);
+		}
+	}
+
+	/**
+	 * Copy the live records to a new file sized for the given number of users and replace the store's file with it
+	 *
+	 * @param users number of users to size the new file for
+	 * @return the new file
+	 * @throws IOException errors - the store is unchanged
+	 */
+	private MappedFile		compactFile(long users) throws IOException
+	{
+		MappedFile		old = fFile;
+		MappedFile		compacted = MappedFile.create(fTempPath, fValueBytes, slotCountFor(users * 2), users);
+		try
+		{
+			byte[]		record = new byte[old.fRecordSize];
+			for ( long slot = 0; slot < old.fSlotCount; ++slot )
+			{
+				long		reference = old.fSlots.getLong(slot, SLOT_REFERENCE_OFFSET);
+				if ( (reference != EMPTY_REFERENCE) && (reference != REMOVED_REFERENCE) )
+				{
+					old.fRecords.get(reference - 1, 0, record);
+					compacted.insert(old.fSlots.getLong(slot, SLOT_PREFIX_OFFSET), compacted.append(record));
+				}
+			}
+			fFile = replaceWith(compacted);
+		}
+		catch ( IOException e )
+		{
+			compacted.close();
+			fTempPath.delete();
+			throw e;
+		}
+
+		old.close();
+		return fFile;
+	}
+
+	/**
+	 * Force the new file (currently at the temp path) to disk and atomically rename it to the store's path
+	 *
+	 * @param file the new file
+	 * @return the new file
+	 * @throws IOException errors
+	 */
+	private MappedFile		replaceWith(MappedFile file) throws IOException
+	{
+		file.force();
+		Files.move(fTempPath.toPath(), fPath.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+		// make the rename durable. Directories can't be opened on all platforms - the rename still happened.
+		File			directory = fPath.getAbsoluteFile().getParentFile();
+		FileChannel		channel = null;
+		try
+		{
+			channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+			channel.force(true);
+		}
+		catch ( IOException e )
+		{
+			// ignore
+		}
+		finally
+		{
+			if ( channel != null )
+			{
+				channel.close();
+			}
+		}
+		return file;
+	}
+
+	private static byte[]	hashUserName(String userName)
+	{
+		return SRPHashAlgorithm.SHA_256.digest(userName.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static long		getHashPrefix(byte[] nameHash)
+	{
+		long		prefix = 0;
+		for ( int i = 0; i < 8; ++i )
+		{
+			prefix = (prefix << 8) | (nameHash[i] & 0xff);
+		}
+		return prefix;
+	}
+
+	/**
+	 * @param users number of users
+	 * @return the smallest power of 2 that holds that many users with slots no more than half full
+	 */
+	private static long		slotCountFor(long users)
+	{
+		long		slotCount = MIN_SLOT_COUNT;
+		while ( slotCount < (users * 2) )
+		{
+			slotCount <<= 1;
+		}
+		return slotCount;
+	}
+
+	/**
+	 * An open store file
+	 */
+	private static class MappedFile
+	{
+		static MappedFile		create(File file, int valueBytes, long slotCount, long recordCapacity) throws IOException
+		{
+			FileChannel			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try
+			{
+				MappedByteBuffer	header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				header.putInt(MAGIC_OFFSET, MAGIC);
+				header.putInt(VERSION_OFFSET, VERSION);
+				header.putInt(VALUE_BYTES_OFFSET, valueBytes);
+				header.putInt(RECORD_SIZE_OFFSET, getRecordSize(valueBytes));
+				header.putLong(SLOT_COUNT_OFFSET, slotCount);
+				return new MappedFile(channel, header, valueBytes, recordCapacity);
+			}
+			catch ( IOException e )
+			{
+				channel.close();
+				throw e;
+			}
+		}
+
+		static MappedFile		open(File file, int valueBytes) throws IOException
+		{
+			FileChannel			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try
+			{
+				if ( channel.size() < HEADER_SIZE )
+				{
+					throw new IOException("Not a verifier store: " + file);
+				}
+				return new MappedFile(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE), valueBytes, 0);
+			}
+			catch ( IOException e )
+			{
+				channel.close();
+				throw e;
+			}
+		}
+
+		private MappedFile(FileChannel channel, MappedByteBuffer header, int valueBytes, long recordCapacity) throws IOException
+		{
+			fChannel = channel;
+			fHeader = header;
+			fValueBytes = valueBytes;
+			fRecordSize = getRecordSize(valueBytes);
+			fSaltOffset = VERIFIER_OFFSET + 2 + valueBytes;
+
+			fSlotCount = header.getLong(SLOT_COUNT_OFFSET);
+			fRecordCount = header.getLong(RECORD_COUNT_OFFSET);
+			fLiveCount = header.getLong(LIVE_COUNT_OFFSET);
+			fUsedSlots = header.getLong(USED_SLOTS_OFFSET);
+			if ( (header.getInt(MAGIC_OFFSET) != MAGIC) || (header.getInt(VERSION_OFFSET) != VERSION) )
+			{
+				throw new IOException("Not a verifier store");
+			}
+			if ( (header.getInt(VALUE_BYTES_OFFSET) != valueBytes) || (header.getInt(RECORD_SIZE_OFFSET) != fRecordSize) )
+			{
+				throw new IOException("The verifier store was made for different constants");
+			}
+			if ( (fSlotCount < MIN_SLOT_COUNT) || (Long.bitCount(fSlotCount) != 1) || (fUsedSlots >= fSlotCount) || (fLiveCount > fRecordCount) )
+			{
+				throw new IOException("The verifier store's header is corrupt");
+			}
+			fMask = fSlotCount - 1;
+			fRecordsOffset = HEADER_SIZE + (fSlotCount * SLOT_SIZE);
+			fSlots = new Region(channel, HEADER_SIZE, fSlotCount, SLOT_SIZE);
+
+			long		existingCapacity = Math.max(channel.size() - fRecordsOffset, 0) / fRecordSize;
+			if ( fRecordCount > existingCapacity )
+			{
+				throw new IOException("The verifier store is truncated");
+			}
+			fRecordCapacity = Math.max(Math.max(existingCapacity, recordCapacity), MIN_RECORD_CAPACITY);
+			fRecords = new Region(channel, fRecordsOffset, fRecordCapacity, fRecordSize);
+		}
+
+		/**
+		 * @param nameHash hash of the user name
+		 * @return the user's slot or -1
+		 * @throws IOException if the file is corrupt
+		 */
+		long			find(byte[] nameHash) throws IOException
+		{
+			long		prefix = getHashPrefix(nameHash);
+			long		slot = prefix & fMask;
+			for ( long i = 0; i < fSlotCount; ++i )
+			{
+				long		reference = fSlots.getLong(slot, SLOT_REFERENCE_OFFSET);
+				if ( reference == EMPTY_REFERENCE )
+				{
+					return -1;
+				}
+				if ( (reference != REMOVED_REFERENCE) && (fSlots.getLong(slot, SLOT_PREFIX_OFFSET) == prefix) )
+				{
+					checkReference(reference);
+					if ( fRecords.matches(reference - 1, NAME_HASH_OFFSET, nameHash) )
+					{
+						return slot;
+					}
+				}
+				slot = (slot + 1) & fMask;
+			}
+			return -1;
+		}
+
+		SRPVerifier		readVerifier(long slot) throws IOException
+		{
+			long		record = fSlots.getLong(slot, SLOT_REFERENCE_OFFSET) - 1;
+			return new SRPVerifier(readValue(record, VERIFIER_OFFSET), readValue(record, fSaltOffset));
+		}
+
+		boolean			hasRoomForSlot()
+		{
+			return (fUsedSlots + 1) <= (fSlotCount / 2);
+		}
+
+		byte[]			makeRecord(byte[] nameHash, byte[] verifierBytes, byte[] saltBytes)
+		{
+			byte[]		record = new byte[fRecordSize];
+			System.arraycopy(nameHash, 0, record, NAME_HASH_OFFSET, NAME_HASH_SIZE);
+			putValue(record, VERIFIER_OFFSET, verifierBytes);
+			putValue(record, fSaltOffset, saltBytes);
+			return record;
+		}
+
+		/**
+		 * Append a record. The record count is updated before the record is referenced from a slot so that a crash can only leave
+		 * an unreferenced record - never a slot that points past the end.
+		 *
+		 * @param record record bytes
+		 * @return the record number
+		 * @throws IOException errors
+		 */
+		long			append(byte[] record) throws IOException
+		{
+			if ( fRecordCount == fRecordCapacity )
+			{
+				fRecordCapacity *= 2;
+				fRecords = new Region(fChannel, fRecordsOffset, fRecordCapacity, fRecordSize);
+			}
+
+			long		recordNumber = fRecordCount;
+			fRecords.put(recordNumber, 0, record);
+			fHeader.putLong(RECORD_COUNT_OFFSET, ++fRecordCount);
+			return recordNumber;
+		}
+
+		void			setRecord(long slot, long record)
+		{
+			fSlots.putLong(slot, SLOT_REFERENCE_OFFSET, record + 1);
+		}
+
+		void			insert(long prefix, long record)
+		{
+			long		slot = prefix & fMask;
+			long		reference;
+			for(;;)
+			{
+				reference = fSlots.getLong(slot, SLOT_REFERENCE_OFFSET);
+				if ( (reference == EMPTY_REFERENCE) || (reference == REMOVED_REFERENCE) )
+				{
+					break;
+				}
+				slot = (slot + 1) & fMask;
+			}
+
+			fSlots.putLong(slot, SLOT_PREFIX_OFFSET, prefix);
+			setRecord(slot, record);
+			if ( reference == EMPTY_REFERENCE )
+			{
+				fHeader.putLong(USED_SLOTS_OFFSET, ++fUsedSlots);
+			}
+			fHeader.putLong(LIVE_COUNT_OFFSET, ++fLiveCount);
+		}
+
+		void			remove(long slot)
+		{
+			fSlots.putLong(slot, SLOT_REFERENCE_OFFSET, REMOVED_REFERENCE);
+			fHeader.putLong(LIVE_COUNT_OFFSET, --fLiveCount);
+		}
+
+		/**
+		 * Records first, so that after a crash the slots reference records that were written
+		 */
+		void			force()
+		{
+			fRecords.force();
+			fSlots.force();
+			fHeader.force();
+		}
+
+		void			close() throws IOException
+		{
+			fChannel.close();
+		}
+
+		private void			checkReference(long reference) throws IOException
+		{
+			if ( (reference < 1) || (reference > fRecordCount) )
+			{
+				throw new IOException("The verifier store is corrupt - bad record reference: " + reference);
+			}
+		}
+
+		private BigInteger		readValue(long record, int offset) throws IOException
+		{
+			int			length = fRecords.getShort(record, offset);
+			if ( (length <= 0) || (length > fValueBytes) )
+			{
+				throw new IOException("The verifier store is corrupt - bad value length: " + length);
+			}
+			byte[]		bytes = new byte[length];
+			fRecords.get(record, offset + 2, bytes);
+			return new BigInteger(bytes);
+		}
+
+		private static void		putValue(byte[] record, int offset, byte[] value)
+		{
+			record[offset] = (byte)(value.length >>> 8);
+			record[offset + 1] = (byte)value.length;
+			System.arraycopy(value, 0, record, offset + 2, value.length);
+		}
+
+		private static int		getRecordSize(int valueBytes)
+		{
+			int		size = VERIFIER_OFFSET + ((2 + valueBytes) * 2);
+			return (size + 7) & ~7;
+		}
+
+		private final FileChannel 		fChannel;
+		private final MappedByteBuffer 	fHeader;
+		private final int 				fValueBytes;
+		private final int 				fRecordSize;
+		private final int 				fSaltOffset;
+		private final long 				fSlotCount;
+		private final long 				fMask;
+		private final long 				fRecordsOffset;
+		private final Region 			fSlots;
+		private Region 					fRecords;
+		private long 					fRecordCapacity;
+		private long 					fRecordCount;
+		private long 					fLiveCount;
+		private long 					fUsedSlots;
+	}
+
+	/**
+	 * Fixed-size items in a range of the file. A single mapping can't be larger than 2GB so the range is mapped in chunks - each
+	 * holding a whole number of items.
+	 */
+	private static class Region
+	{
+		Region(FileChannel channel, long offset, long count, int itemSize) throws IOException
+		{
+			fItemSize = itemSize;
+			fItemsPerChunk = MAX_CHUNK_SIZE / itemSize;
+
+			int			chunkCount = (int)((count + fItemsPerChunk - 1) / fItemsPerChunk);
+			fChunks = new MappedByteBuffer[chunkCount];
+			for ( int i = 0; i < chunkCount; ++i )
+			{
+				long		first = (long)i * fItemsPerChunk;
+				long		items = Math.min(fItemsPerChunk, count - first);
+				fChunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset + (first * itemSize), items * itemSize);
+			}
+		}
+
+		long			getLong(long item, int offset)
+		{
+			return getChunk(item).getLong(getPosition(item, offset));
+		}
+
+		void			putLong(long item, int offset, long value)
+		{
+			getChunk(item).putLong(getPosition(item, offset), value);
+		}
+
+		int				getShort(long item, int offset)
+		{
+			return getChunk(item).getShort(getPosition(item, offset)) & 0xffff;
+		}
+
+		void			get(long item, int offset, byte[] bytes)
+		{
+			MappedByteBuffer	chunk = getChunk(item);
+			int					position = getPosition(item, offset);
+			for ( int i = 0; i < bytes.length; ++i )
+			{
+				bytes[i] = chunk.get(position + i);
+			}
+		}
+
+		void			put(long item, int offset, byte[] bytes)
+		{
+			MappedByteBuffer	chunk = getChunk(item);
+			int					position = getPosition(item, offset);
+			for ( int i = 0; i < bytes.length; ++i )
+			{
+				chunk.put(position + i, bytes[i]);
+			}
+		}
+
+		boolean			matches(long item, int offset, byte[] bytes)
+		{
+			MappedByteBuffer	chunk = getChunk(item);
+			int					position = getPosition(item, offset);
+			for ( int i = 0; i < bytes.length; ++i )
+			{
+				if ( chunk.get(position + i) != bytes[i] )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void			force()
+		{
+			for ( MappedByteBuffer chunk : fChunks )
+			{
+				chunk.force();
+			}
+		}
+
+		private MappedByteBuffer	getChunk(long item)
+		{
+			return fChunks[(int)(item / fItemsPerChunk)];
+		}
+
+		private int					getPosition(long item, int offset)
+		{
+			return (int)((item % fItemsPerChunk) * fItemSize) + offset;
+		}
+
+		private final int 					fItemSize;
+		private final long 					fItemsPerChunk;
+		private final MappedByteBuffer[] 	fChunks;
+	}
+
+	private static final String		COMPACT_SUFFIX = ".compact";
+	private static final long		DEFAULT_EXPECTED_USERS = 1024;
+	private static final long		MIN_COMPACT_GARBAGE = 65536;
+	private static final long		MIN_SLOT_COUNT = 1024;
+	private static final long		MIN_RECORD_CAPACITY = 1024;
+	private static final int		MAX_CHUNK_SIZE = 1 << 30;
+
+	private static final int		MAGIC = 0x53525056;	// "SRPV"
+	private static final int		VERSION = 1;
+
+	private static final int		MAGIC_OFFSET = 0;
+	private static final int		VERSION_OFFSET = 4;
+	private static final int		VALUE_BYTES_OFFSET = 8;
+	private static final int		RECORD_SIZE_OFFSET = 12;
+	private static final int		SLOT_COUNT_OFFSET = 16;
+	private static final int		RECORD_COUNT_OFFSET = 24;
+	private static final int		LIVE_COUNT_OFFSET = 32;
+	private static final int		USED_SLOTS_OFFSET = 40;
+	private static final int		HEADER_SIZE = 64;
+
+	private static final int		SLOT_PREFIX_OFFSET = 0;
+	private static final int		SLOT_REFERENCE_OFFSET = 8;
+	private static final int		SLOT_SIZE = 16;
+	private static final long		EMPTY_REFERENCE = 0;
+	private static final long		REMOVED_REFERENCE = -1;
+
+	private static final int		NAME_HASH_OFFSET = 0;
+	private static final int		NAME_HASH_SIZE = 32;
+	private static final int		VERIFIER_OFFSET = NAME_HASH_SIZE;
+
+	private final File 				fPath;
+	private final File 				fTempPath;
+	private final int 				fValueBytes;
+	private final ReadWriteLock 	fLock;
+	private MappedFile 				fFile;
+}
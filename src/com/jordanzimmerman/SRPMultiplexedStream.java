@@ -0,0 +1,168 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * One logical stream of an {@link SRPMultiplexer}. Get one from {@link SRPMultiplexer#openStream()} or
+ * {@link SRPMultiplexer#accept()}.<br>
+ * <p>
+ * Like {@link SRPOutputStream}, written data is sent once flush() is called or a full block has been written. Writes block while
+ * the other end hasn't read what was sent before (see {@link SRPMultiplexer}). Closing the output stream tells the other end
+ * that there's no more data - its input stream then returns -1. Closing the input stream discards whatever else arrives.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.0
+ */
+public class SRPMultiplexedStream implements Closeable
+{
+	/**
+	 * @return the id of the stream - odd for streams opened by the client end, even for the server end
+	 */
+	public int				getId()
+	{
+		return fId;
+	}
+
+	/**
+	 * @return the data from the other end
+	 */
+	public InputStream		getInputStream()
+	{
+		return fInputStream;
+	}
+
+	/**
+	 * @return the data to the other end
+	 */
+	public OutputStream		getOutputStream()
+	{
+		return fOutputStream;
+	}
+
+	/**
+	 * Closes the input and output streams
+	 *
+	 * @throws IOException errors
+	 */
+	public void				close() throws IOException
+	{
+		fMultiplexer.closeOutput(this);
+		fMultiplexer.closeInput(this);
+	}
+
+	SRPMultiplexedStream(SRPMultiplexer multiplexer, int id, int sendWindow, int receiveWindow, Condition readable, Condition writable)
+	{
+		fMultiplexer = multiplexer;
+		fId = id;
+		fReadable = readable;
+		fWritable = writable;
+		fSendWindow = sendWindow;
+		fReceiveCredit = receiveWindow;
+
+		fSendBuffer = null;		// buffers are allocated on first use - many streams are never written (or read) in one direction
+		fReceiveBuffer = null;
+		fFlushed = 0;
+		fConsumed = 0;
+		fQueued = false;
+		fOutputClosed = false;
+		fCloseSent = false;
+		fInputClosed = false;
+		fCloseReceived = false;
+	}
+
+	private class Input extends InputStream
+	{
+		public int read() throws IOException
+		{
+			int		bytesRead = fMultiplexer.read(SRPMultiplexedStream.this, fOneByte, 0, 1);
+			return (bytesRead > 0) ? (fOneByte[0] & 0xff) : -1;
+		}
+
+		public int read(byte b[], int off, int len) throws IOException
+		{
+			return fMultiplexer.read(SRPMultiplexedStream.this, b, off, len);
+		}
+
+		public int available() throws IOException
+		{
+			return fMultiplexer.available(SRPMultiplexedStream.this);
+		}
+
+		public void close() throws IOException
+		{
+			fMultiplexer.closeInput(SRPMultiplexedStream.this);
+		}
+
+		private final byte[]		fOneByte = new byte[1];
+	}
+
+	private class Output extends OutputStream
+	{
+		public void write(int b) throws IOException
+		{
+			fOneByte[0] = (byte)(b & 0xff);
+			fMultiplexer.write(SRPMultiplexedStream.this, fOneByte, 0, 1);
+		}
+
+		public void write(byte b[], int off, int len) throws IOException
+		{
+			fMultiplexer.write(SRPMultiplexedStream.this, b, off, len);
+		}
+
+		public void flush() throws IOException
+		{
+			fMultiplexer.flush(SRPMultiplexedStream.this);
+		}
+
+		public void close() throws IOException
+		{
+			fMultiplexer.closeOutput(SRPMultiplexedStream.this);
+		}
+
+		private final byte[]		fOneByte = new byte[1];
+	}
+
+	// the rest is guarded by the multiplexer's lock
+
+	final SRPMultiplexer 	fMultiplexer;
+	final int 				fId;
+	final Condition 		fReadable;
+	final Condition 		fWritable;
+
+	ByteBuffer 				fSendBuffer;		// unsent data (write mode)
+	int 					fFlushed;			// bytes at the start of fSendBuffer that can be sent
+	int 					fSendWindow;		// bytes the other end can take
+	boolean 				fQueued;			// in the multiplexer's queue of streams with something to send
+	boolean 				fOutputClosed;
+	boolean 				fCloseSent;
+
+	ByteBuffer 				fReceiveBuffer;		// unread data (write mode)
+	int 					fReceiveCredit;		// bytes the other end can still send
+	int 					fConsumed;			// bytes read that haven't been given back to the other end yet
+	boolean 				fInputClosed;
+	boolean 				fCloseReceived;
+
+	private final InputStream 		fInputStream = new Input();
+	private final OutputStream 		fOutputStream = new Output();
+}
@@ -0,0 +1,874 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Many logical streams ({@link SRPMultiplexedStream}) over one authenticated {@link SRPInputStream}/{@link SRPOutputStream} pair - one
+ * connection, one SRP exchange and one cipher for all of them. Both ends must use an SRPMultiplexer.<br>
+ * <p>
+ * Usage:
+ * <code><pre>
+ * // client
+ * SRPServer.Connection connection = SRPServer.connect(socket, factory, userName, password, options);
+ * SRPMultiplexer multiplexer = new SRPMultiplexer(connection, true);
+ * SRPMultiplexedStream stream = multiplexer.openStream();
+ * ...
+ * // server (in the SRPServer.Handler)
+ * SRPMultiplexer multiplexer = new SRPMultiplexer(connection, false);
+ * SRPMultiplexedStream stream = multiplexer.accept();
+ * ...
+ * multiplexer.close();
+ * </pre></code>
+ * Protocol: the data of the authenticated streams is a series of frames:
+ * <code><pre>
+ * [type - 1 byte][stream id - 4 bytes][length - 4 bytes]
+ * [data - length bytes, DATA frames only]
+ * </pre></code>
+ * ints are big-endian. The types are OPEN (length is 0), DATA (length is the number of data bytes, at most
+ * {@link #MAX_DATA_LENGTH}), WINDOW (length is the number of bytes given back to the sender - there is no data) and CLOSE (the sender
+ * has no more data for the stream - length is 0). The client end opens odd stream ids and the server end even ones, each in
+ * increasing order.
+ * <p>
+ * Flow control: each end may have at most {@link #DEFAULT_WINDOW} unread bytes of a stream in flight. The reader gives bytes back
+ * with WINDOW frames as they are read (once half the window has been read). A stream that isn't read therefore only stops its own
+ * writer - the other streams carry on. An end with a larger window sends the difference in a WINDOW frame when the stream is opened.
+ * <p>
+ * Streams take turns: a writer thread sends one DATA frame (at most {@link #MAX_DATA_LENGTH} bytes - one data block of the
+ * underlying stream) for each stream that has data in turn. Frames are written as they come and the underlying stream is flushed
+ * once there's nothing left to send, so frames of several streams share data blocks. OPEN, WINDOW and CLOSE go ahead of data. A
+ * second thread reads frames. The threads come from a ThreadFactory - by default {@link SRPServer#newConnectionThreadFactory()}.
+ * <p>
+ * Limits: each end may have at most <code>maxStreams</code> of its own streams open at once (a stream counts until both ends have
+ * closed it) and at most <code>acceptBacklog</code> of the other end's streams waiting for {@link #accept()}. {@link #openStream()}
+ * waits while this end has <code>maxStreams</code> streams open. An OPEN beyond either limit is a protocol error and fails the
+ * multiplexer - so both ends must use the same <code>maxStreams</code>, and the other end can't see the backlog: the accepting end
+ * must keep up with accept() or use a backlog as large as <code>maxStreams</code> (the default).
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.1 Limits on open streams and on streams waiting to be accepted - 10/16/26
+ * @version 1.0
+ */
+public class SRPMultiplexer implements Closeable
+{
+	/**
+	 * Uses the default window, limits and thread factory. Turns on TCP_NODELAY for the socket - WINDOW frames and the last frame of a
+	 * message are small and would otherwise wait on the acknowledgement of what was sent before.
+	 *
+	 * @param connection an authenticated connection
+	 * @param client true for the client end, false for the server end
+	 * @throws IOException socket errors
+	 */
+	public SRPMultiplexer(SRPServer.Connection connection, boolean client) throws IOException
+	{
+		this(connection, client, DEFAULT_MAX_STREAMS, DEFAULT_MAX_STREAMS);
+	}
+
+	/**
+	 * Uses the default window and thread factory. Turns on TCP_NODELAY for the socket.
+	 *
+	 * @param connection an authenticated connection
+	 * @param client true for the client end, false for the server end
+	 * @param maxStreams most streams each end may have open at once - must be the same at both ends
+	 * @param acceptBacklog most streams of the other end that may wait for {@link #accept()}
+	 * @throws IOException socket errors
+	 */
+	public SRPMultiplexer(SRPServer.Connection connection, boolean client, int maxStreams, int acceptBacklog) throws IOException
+	{
+		this(connection.in, connection.out, noDelay(connection.socket), client, DEFAULT_WINDOW, maxStreams, acceptBacklog, SRPServer.newConnectionThreadFactory());
+	}
+
+	/**
+	 * @param in authenticated input stream
+	 * @param out authenticated output stream
+	 * @param connection closed when the multiplexer is done (e.g. the socket of the streams). Closing it must stop a blocked read
+	 * of <code>in</code>. For a socket, TCP_NODELAY should be on.
+	 * @param client true for the client end, false for the server end
+	 * @param receiveWindow most unread bytes of each stream that the other end may send - at least {@link #DEFAULT_WINDOW}
+	 * @param maxStreams most streams each end may have open at once - must be the same at both ends
+	 * @param acceptBacklog most streams of the other end that may wait for {@link #accept()} - at most maxStreams
+	 * @param threads makes the reader and writer threads
+	 */
+	public SRPMultiplexer(SRPInputStream in, SRPOutputStream out, Closeable connection, boolean client, int receiveWindow, int maxStreams, int acceptBacklog, ThreadFactory threads)
+	{
+		if ( receiveWindow < DEFAULT_WINDOW )
+		{
+			throw new IllegalArgumentException("Window must be at least " + DEFAULT_WINDOW + ": " + receiveWindow);
+		}
+		if ( maxStreams <= 0 )
+		{
+			throw new IllegalArgumentException("maxStreams must be greater than 0");
+		}
+		if ( (acceptBacklog <= 0) || (acceptBacklog > maxStreams) )
+		{
+			throw new IllegalArgumentException("acceptBacklog must be greater than 0 and at most maxStreams: " + acceptBacklog);
+		}
+
+		fIn = in;
+		fOut = out;
+		fConnection = connection;
+		fReceiveWindow = receiveWindow;
+		fMaxStreams = maxStreams;
+		fAcceptBacklog = acceptBacklog;
+		fOwnStreams = 0;
+		fPeerStreams = 0;
+		fNextId = client ? 1 : 2;
+		fPeerParity = client ? 0 : 1;
+		fLastPeerId = 0;
+		fClosed = false;
+		fError = null;
+
+		fReadFrame = new byte[HEADER_SIZE + MAX_DATA_LENGTH];
+		fWriteFrame = ByteBuffer.allocate(HEADER_SIZE + MAX_DATA_LENGTH);
+
+		threads.newThread(new Runnable()
+		{
+			public void run()
+			{
+				readFrames();
+			}
+		}).start();
+		threads.newThread(new Runnable()
+		{
+			public void run()
+			{
+				writeFrames();
+			}
+		}).start();
+	}
+
+	/**
+	 * Open a new stream. The other end gets it from {@link #accept()}. Waits while this end has the most streams open.
+	 *
+	 * @return the stream
+	 * @throws IOException if the multiplexer is closed or has failed
+	 */
+	public SRPMultiplexedStream		openStream() throws IOException
+	{
+		fLock.lock();
+		try
+		{
+			for(;;)
+			{
+				checkOpen();
+				if ( fOwnStreams < fMaxStreams )
+				{
+					break;
+				}
+				fOpenable.awaitUninterruptibly();
+			}
+			if ( fNextId < 0 )
+			{
+				throw new IOException("No more stream ids");
+			}
+
+			int 		id = fNextId;
+			fNextId += 2;	// goes negative once the ids are used up
+			++fOwnStreams;
+			queueControl(TYPE_OPEN, id, 0);
+			return newStream(id);
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
+
+	/**
+	 * Wait for the other end to open a stream
+	 *
+	 * @return the stream
+	 * @throws IOException if the multiplexer is closed or has failed
+	 */
+	public SRPMultiplexedStream		accept() throws IOException
+	{
+		fLock.lock();
+		try
+		{
+			for(;;)
+			{
+				checkOpen();
+				if ( !fAccepted.isEmpty() )
+				{
+					return fAccepted.poll();
+				}
+				fAcceptable.awaitUninterruptibly();
+			}
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of streams that haven't been closed by both ends
+	 */
+	public int						getStreamCount()
+	{
+		fLock.lock();
+		try
+		{
+			return fStreams.size();
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
+
+	/**
+	 * Closes every stream and then the connection. This doesn't wait: data that has been flushed is sent first as long as the other
+	 * end has room for it - for an orderly shutdown, close the streams and wait for the other end to close its streams before
+	 * calling this.
+	 */
+	public void						close()
+	{
+		fLock.lock();
+		try
+		{
+			if ( fClosed )
+			{
+				return;
+			}
+			fClosed = true;
+
+			for ( SRPMultiplexedStream stream : fStreams.values() )
+			{
+				if ( !stream.fOutputClosed )
+				{
+					stream.fOutputClosed = true;
+					if ( stream.fSendBuffer != null )
+					{
+						stream.fFlushed = stream.fSendBuffer.position();
+					}
+					queueIfReady(stream);
+				}
+				stream.fReadable.signalAll();
+				stream.fWritable.signalAll();
+			}
+			fAcceptable.signalAll();
+			fOpenable.signalAll();
+			fWork.signalAll();
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
+
+	/**
+	 * Most streams each end may have open at once unless given to the constructor
+	 */
+	public static final int			DEFAULT_MAX_STREAMS = 100;
+
+	/**
+	 * Most unread bytes of a stream in flight unless an end gives more
+	 */
+	public static final int			DEFAULT_WINDOW = 0x10000;
+
+	/**
+	 * Most data bytes in a frame - a full frame fills one data block of the underlying stream
+	 */
+	public static final int			MAX_DATA_LENGTH = SRPInputStream.BUFFER_SIZE - 9;
+
+	int								read(SRPMultiplexedStream stream, byte[] b, int off, int len) throws IOException
+	{
+		fLock.lock();
+		try
+		{
+			for(;;)
+			{
+				if ( stream.fInputClosed )
+				{
+					throw new IOException("Stream closed");
+				}
+				if ( (stream.fReceiveBuffer != null) && (stream.fReceiveBuffer.position() > 0) )
+				{
+					break;
+				}
+				if ( stream.fCloseReceived )
+				{
+					return -1;
+				}
+				checkOpen();
+				if ( len == 0 )
+				{
+					return 0;
+				}
+				stream.fReadable.awaitUninterruptibly();
+			}
+
+			ByteBuffer		buffer = stream.fReceiveBuffer;
+			buffer.flip();
+			int				thisLength = Math.min(len, buffer.remaining());
+			buffer.get(b, off, thisLength);
+			buffer.compact();
+			consumed(stream, thisLength);
+			return thisLength;
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
+
+	int								available(SRPMultiplexedStream stream)
+	{
+		fLock.lock();
+		try
+		{
+			return ((stream.fReceiveBuffer != null) && !stream.fInputClosed) ? stream.fReceiveBuffer.position() : 0;
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
+
+	void							write(SRPMultiplexedStream stream, byte[] b, int off, int len) throws IOException
+	{
+		fLock.lock();
+		try
+		{
+			while ( len > 0 )
+			{
+				if ( stream.fOutputClosed )
+				{
+					throw new IOException("Stream closed");
+				}
+				checkOpen();
+
+				if ( stream.fSendBuffer == null )
+				{
+					stream.fSendBuffer = ByteBuffer.allocate(SEND_BUFFER_SIZE);
+				}
+				ByteBuffer		buffer = stream.fSendBuffer;
+				if ( !buffer.hasRemaining() )
+				{
+					// full - send it all and wait for room
+					stream.fFlushed = buffer.position();
+					queueIfReady(stream);
+					stream.fWritable.awaitUninterruptibly();
+					continue;
+				}
+
+				int				thisLength = Math.min(len, buffer.remaining());
+				buffer.put(b, off, thisLength);
+				off += thisLength;
+				len -= thisLength;
+			}
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
+
+	void							flush(SRPMultiplexedStream stream) throws IOException
+	{
+		fLock.lock();
+		try
+		{
+			if ( stream.fOutputClosed )
+			{
+				return;
+			}
+			checkOpen();
+
+			if ( stream.fSendBuffer != null )
+			{
+				stream.fFlushed = stream.fSendBuffer.position();
+				queueIfReady(stream);
+			}
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
+
+	void							closeOutput(SRPMultiplexedStream stream)
+	{
+		fLock.lock();
+		try
+		{
+			if ( stream.fOutputClosed )
+			{
+				return;
+			}
+			stream.fOutputClosed = true;
+
+			// pending data goes first - the writer sends CLOSE once the buffer is empty
+			if ( stream.fSendBuffer != null )
+			{
+				stream.fFlushed = stream.fSendBuffer.position();
+			}
+			queueIfReady(stream);
+			stream.fWritable.signalAll();
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
+
+	void							closeInput(SRPMultiplexedStream stream)
+	{
+		fLock.lock();
+		try
+		{
+			if ( stream.fInputClosed )
+			{
+				return;
+			}
+			stream.fInputClosed = true;
+
+			if ( stream.fReceiveBuffer != null )
+			{
+				int		unread = stream.fReceiveBuffer.position();
+				stream.fReceiveBuffer = null;
+				consumed(stream, unread);
+			}
+			stream.fReadable.signalAll();
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
+
+	private SRPMultiplexedStream	newStream(int id)
+	{
+		SRPMultiplexedStream		stream = new SRPMultiplexedStream(this, id, DEFAULT_WINDOW, fReceiveWindow, fLock.newCondition(), fLock.newCondition());
+		fStreams.put(id, stream);
+		if ( fReceiveWindow > DEFAULT_WINDOW )
+		{
+			queueControl(TYPE_WINDOW, id, fReceiveWindow - DEFAULT_WINDOW);
+		}
+		return stream;
+	}
+
+	private void					consumed(SRPMultiplexedStream stream, int length)
+	{
+		if ( stream.fCloseReceived )
+		{
+			return;	// nothing more is coming
+		}
+
+		stream.fConsumed += length;
+		if ( stream.fConsumed >= (fReceiveWindow / 2) )
+		{
+			queueControl(TYPE_WINDOW, stream.fId, stream.fConsumed);
+			stream.fReceiveCredit += stream.fConsumed;
+			stream.fConsumed = 0;
+		}
+	}
+
+	private void					queueControl(int type, int id, int length)
+	{
+		fControl.add(new int[]{type, id, length});
+		fWork.signal();
+	}
+
+	private void					queueIfReady(SRPMultiplexedStream stream)
+	{
+		if ( stream.fQueued || (fError != null) )
+		{
+			return;
+		}
+
+		boolean		hasData = Math.min(stream.fFlushed, stream.fSendWindow) > 0;
+		boolean		canClose = stream.fOutputClosed && !stream.fCloseSent && ((stream.fSendBuffer == null) || (stream.fSendBuffer.position() == 0));
+		if ( hasData || canClose )
+		{
+			stream.fQueued = true;
+			fReady.add(stream);
+			fWork.signal();
+		}
+	}
+
+	private void					removeIfDone(SRPMultiplexedStream stream)
+	{
+		if ( stream.fCloseSent && stream.fCloseReceived )
+		{
+			fStreams.remove(stream.fId);
+			if ( (stream.fId & 1) == fPeerParity )
+			{
+				--fPeerStreams;
+			}
+			else
+			{
+				--fOwnStreams;
+				fOpenable.signal();
+			}
+		}
+	}
+
+	private void					checkOpen() throws IOException
+	{
+		if ( fError != null )
+		{
+			IOException		e = new IOException(fError.getMessage());
+			e.initCause(fError);
+			throw e;
+		}
+		if ( fClosed )
+		{
+			throw new IOException("Multiplexer closed");
+		}
+	}
+
+	private void					readFrames()
+	{
+		try
+		{
+			for(;;)
+			{
+				int		bytesRead = readFully(fReadFrame, 0, HEADER_SIZE);
+				if ( bytesRead == 0 )
+				{
+					fail(new IOException("Connection closed"));
+					return;
+				}
+				if ( bytesRead < HEADER_SIZE )
+				{
+					throw new EOFException();
+				}
+
+				int		type = fReadFrame[0];
+				int		id = getInt(fReadFrame, 1);
+				int		length = getInt(fReadFrame, 5);
+				if ( type == TYPE_DATA )
+				{
+					if ( (length <= 0) || (length > MAX_DATA_LENGTH) )
+					{
+						throw new IOException("Bad data length: " + length);
+					}
+					if ( readFully(fReadFrame, HEADER_SIZE, length) < length )
+					{
+						throw new EOFException();
+					}
+				}
+
+				fLock.lock();
+				try
+				{
+					frameReceived(type, id, length);
+				}
+				finally
+				{
+					fLock.unlock();
+				}
+			}
+		}
+		catch ( IOException e )
+		{
+			fail(e);
+		}
+	}
+
+	private void					frameReceived(int type, int id, int length) throws IOException
+	{
+		SRPMultiplexedStream	stream = fStreams.get(id);
+		switch ( type )
+		{
+			case TYPE_OPEN:
+			{
+				if ( ((id & 1) != fPeerParity) || (id <= fLastPeerId) || (length != 0) )
+				{
+					throw new IOException("Bad open of stream " + id);
+				}
+				if ( fPeerStreams >= fMaxStreams )
+				{
+					throw new IOException("Too many streams opened: " + (fPeerStreams + 1));
+				}
+				if ( fAccepted.size() >= fAcceptBacklog )
+				{
+					throw new IOException("Too many streams waiting to be accepted: " + (fAccepted.size() + 1));
+				}
+				fLastPeerId = id;
+				++fPeerStreams;
+				fAccepted.add(newStream(id));
+				fAcceptable.signal();
+				break;
+			}
+
+			case TYPE_DATA:
+			{
+				if ( (stream == null) || stream.fCloseReceived || (length > stream.fReceiveCredit) )
+				{
+					throw new IOException("Unexpected data for stream " + id);
+				}
+				stream.fReceiveCredit -= length;
+
+				if ( stream.fInputClosed )
+				{
+					consumed(stream, length);	// no one is reading - give it straight back
+				}
+				else
+				{
+					if ( stream.fReceiveBuffer == null )
+					{
+						stream.fReceiveBuffer = ByteBuffer.allocate(fReceiveWindow);
+					}
+					stream.fReceiveBuffer.put(fReadFrame, HEADER_SIZE, length);
+					stream.fReadable.signalAll();
+				}
+				break;
+			}
+
+			case TYPE_WINDOW:
+			{
+				if ( stream == null )
+				{
+					break;	// closed by both ends since
+				}
+				if ( (length <= 0) || (stream.fSendWindow > (Integer.MAX_VALUE - length)) )
+				{
+					throw new IOException("Bad window for stream " + id + ": " + length);
+				}
+				stream.fSendWindow += length;
+				queueIfReady(stream);
+				break;
+			}
+
+			case TYPE_CLOSE:
+			{
+				if ( (stream == null) || stream.fCloseReceived )
+				{
+					throw new IOException("Unexpected close of stream " + id);
+				}
+				stream.fCloseReceived = true;
+				stream.fReadable.signalAll();
+				removeIfDone(stream);
+				break;
+			}
+
+			default:
+			{
+				throw new IOException("Bad frame type: " + type);
+			}
+		}
+	}
+
+	private void					writeFrames()
+	{
+		try
+		{
+			boolean		unflushed = false;
+			for(;;)
+			{
+				boolean		hasFrame;
+				fLock.lock();
+				try
+				{
+					while ( !(hasFrame = takeFrame()) && !unflushed && (fError == null) && !fClosed )
+					{
+						fWork.awaitUninterruptibly();
+					}
+				}
+				finally
+				{
+					fLock.unlock();
+				}
+
+				if ( hasFrame )
+				{
+					fOut.write(fWriteFrame.array(), 0, fWriteFrame.position());
+					unflushed = true;
+				}
+				else if ( unflushed )
+				{
+					fOut.flush();	// nothing left to send for now
+					unflushed = false;
+				}
+				else
+				{
+					break;	// closed or failed
+				}
+			}
+		}
+		catch ( IOException e )
+		{
+			fail(e);
+		}
+
+		fail(new IOException("Multiplexer closed"));
+	}
+
+	private boolean					takeFrame()
+	{
+		if ( fError != null )
+		{
+			return false;
+		}
+
+		fWriteFrame.clear();
+		int[]					control = fControl.poll();
+		if ( control != null )
+		{
+			putHeader(control[0], control[1], control[2]);
+			return true;
+		}
+
+		SRPMultiplexedStream	stream = fReady.poll();
+		if ( stream == null )
+		{
+			return false;
+		}
+		stream.fQueued = false;
+
+		int						length = Math.min(Math.min(stream.fFlushed, stream.fSendWindow), MAX_DATA_LENGTH);
+		if ( length > 0 )
+		{
+			putHeader(TYPE_DATA, stream.fId, length);
+			ByteBuffer		buffer = stream.fSendBuffer;
+			buffer.flip();
+			buffer.get(fWriteFrame.array(), HEADER_SIZE, length);
+			buffer.compact();
+			fWriteFrame.position(HEADER_SIZE + length);
+
+			stream.fFlushed -= length;
+			stream.fSendWindow -= length;
+			stream.fWritable.signalAll();
+		}
+		else
+		{
+			putHeader(TYPE_CLOSE, stream.fId, 0);
+			stream.fCloseSent = true;
+			removeIfDone(stream);
+		}
+
+		queueIfReady(stream);	// to the back of the line
+		return true;
+	}
+
+	private void					putHeader(int type, int id, int length)
+	{
+		fWriteFrame.put((byte)type);
+		fWriteFrame.putInt(id);
+		fWriteFrame.putInt(length);
+	}
+
+	private void					fail(IOException e)
+	{
+		fLock.lock();
+		try
+		{
+			if ( fError != null )
+			{
+				return;
+			}
+			fError = fClosed ? new IOException("Multiplexer closed") : e;
+
+			fControl.clear();
+			fReady.clear();
+			for ( SRPMultiplexedStream stream : new ArrayList<SRPMultiplexedStream>(fStreams.values()) )
+			{
+				stream.fReadable.signalAll();
+				stream.fWritable.signalAll();
+			}
+			fAcceptable.signalAll();
+			fOpenable.signalAll();
+			fWork.signalAll();
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+
+		try
+		{
+			fConnection.close();
+		}
+		catch ( IOException ignore )
+		{
+			// ignore
+		}
+	}
+
+	private int						readFully(byte[] b, int off, int len) throws IOException
+	{
+		int		total = 0;
+		while ( total < len )
+		{
+			int		bytesRead = fIn.read(b, off + total, len - total);
+			if ( bytesRead < 0 )
+			{
+				break;
+			}
+			total += bytesRead;
+		}
+		return total;
+	}
+
+	private static Socket			noDelay(Socket socket) throws IOException
+	{
+		socket.setTcpNoDelay(true);
+		return socket;
+	}
+
+	private static int				getInt(byte[] b, int off)
+	{
+		return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+	}
+
+	private static final int		HEADER_SIZE = 9;
+	private static final int		SEND_BUFFER_SIZE = 2 * MAX_DATA_LENGTH;
+
+	private static final int		TYPE_OPEN = 0;
+	private static final int		TYPE_DATA = 1;
+	private static final int		TYPE_WINDOW = 2;
+	private static final int		TYPE_CLOSE = 3;
+
+	private final SRPInputStream 							fIn;
+	private final SRPOutputStream 							fOut;
+	private final Closeable 								fConnection;
+	private final int 										fReceiveWindow;
+	private final int 										fMaxStreams;
+	private final int 										fAcceptBacklog;
+	private final int 										fPeerParity;
+	private final byte[] 									fReadFrame;
+	private final ByteBuffer 								fWriteFrame;
+	private final ReentrantLock 							fLock = new ReentrantLock();
+	private final Condition 								fWork = fLock.newCondition();
+	private final Condition 								fAcceptable = fLock.newCondition();
+	private final Condition 								fOpenable = fLock.newCondition();
+	private final Map<Integer, SRPMultiplexedStream> 		fStreams = new HashMap<Integer, SRPMultiplexedStream>();
+	private final ArrayDeque<SRPMultiplexedStream> 			fAccepted = new ArrayDeque<SRPMultiplexedStream>();
+	private final ArrayDeque<SRPMultiplexedStream> 			fReady = new ArrayDeque<SRPMultiplexedStream>();
+	private final ArrayDeque<int[]> 						fControl = new ArrayDeque<int[]>();
+	private int 											fOwnStreams;
+	private int 											fPeerStreams;
+	private int 											fNextId;
+	private int 											fLastPeerId;
+	private boolean 										fClosed;
+	private IOException 									fError;
+}
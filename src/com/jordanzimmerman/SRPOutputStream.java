@@ -20,8 +20,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
-import java.security.GeneralSecurityException;
-import java.security.Key;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An Output Stream that authenticates and encrypts (using AES). All write() methods process encrypted data using the active
@@ -30,6 +29,13 @@ import java.security.Key;
  *
  * @author Jordan Zimmerman - jordan@jordanzimmerman.com
  * @see SRPFactory Full Documentation
+ * @version 1.9 Authentication values can be written without flushing each one - 10/16/26
+ * @version 1.8 ReentrantLock instead of synchronized (a blocked write no longer pins a virtual thread's carrier) - 10/16/26
+ * @version 1.7 Values/sizes encoded by {@link SRPWireFormat} - 10/16/26
+ * @version 1.6 Data blocks are encrypted and written without allocating - 10/16/26
+ * @version 1.5 Cipher negotiated via {@link SRPStreamOptions} - 10/16/26
+ * @version 1.4 Optional binary framing negotiated via {@link SRPStreamOptions} - 10/16/26
+ * @version 1.3 write(byte[], int, int) copies/encrypts whole slices instead of going through write(int) - 10/16/26
  * @version 1.2 Updated to use the SRP-6 spec 2/21/07
  * @version 1.1
  */
@@ -41,101 +47,175 @@ public class SRPOutputStream extends OutputStream
 	public SRPOutputStream(OutputStream out)
 	{
 		fOut = out;
-		fSessionKey = null;
-		fCipher = null;
+		fFrameCipher = null;
+		fEncrypted = null;
+		fFraming = SRPFraming.HEX;
 
 		fBuffer = ByteBuffer.wrap(new byte[SRPInputStream.BUFFER_SIZE]);
 		fBuffer.clear();
 	}
 
 	/**
-	 * Must be called before any other method. This will completely authenticate to the corresponding client/server.
+	 * Must be called before any other method. This will completely authenticate to the corresponding client/server using
+	 * the original protocol ({@link SRPStreamOptions#LEGACY}).
 	 *
 	 * @param runner A session runner
 	 * @param in an input stream to the corresponding client/server.
 	 * @throws IOException if authentication fails or there is an I/O error
 	 */
-	public synchronized void		authenticate(SRPRunner runner, SRPInputStream in) throws IOException
+	public void		authenticate(SRPRunner runner, SRPInputStream in) throws IOException
 	{
-		while ( runner.next() )
+		fLock.lock();
+		try
 		{
-			if ( runner.hasOutput() )
-			{
-				writeAuthenticationValue(runner.getOutput(), true);
-			}
+			authenticate(runner, in, SRPStreamOptions.LEGACY);
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
 
-			if ( runner.needsInput() )
+	/**
+	 * Must be called before any other method. This will negotiate the given options and completely authenticate to the
+	 * corresponding client/server. The input stream is authenticated as well - calling
+	 * {@link SRPInputStream#authenticate(SRPRunner, SRPOutputStream)} afterwards is harmless but not needed.
+	 *
+	 * @param runner A session runner
+	 * @param in an input stream to the corresponding client/server.
+	 * @param options protocol options to negotiate. The corresponding client/server must also use non-legacy options.
+	 * @throws IOException if authentication fails or there is an I/O error
+	 */
+	public void		authenticate(SRPRunner runner, SRPInputStream in, SRPStreamOptions options) throws IOException
+	{
+		fLock.lock();
+		try
+		{
+			if ( fFrameCipher != null )
 			{
-				runner.setInput(in.readAuthenticationValue(true));
+				return;	// already authenticated along with the input stream
 			}
-		}
 
-		if ( !runner.success() )
+			SRPStreamHandshake.run(runner, options, in, this);
+		}
+		finally
 		{
-			throw new SRPAuthenticationFailedException("Authentication failed.");
+			fLock.unlock();
 		}
+	}
 
-		fSessionKey = SRPInputStream.makeJCEKey(runner);
+	public void write(int b) throws IOException
+	{
+		fLock.lock();
+		try
+		{
+			checkBuffer(false);
+			fBuffer.put((byte)(b & 0xff));
+		}
+		finally
+		{
+			fLock.unlock();
+		}
+	}
 
+	public void write(byte b[]) throws IOException
+	{
+		fLock.lock();
 		try
 		{
-			fCipher = Cipher.getInstance(SRPInputStream.ENCRYPTION_TYPE);
-			fCipher.init(Cipher.ENCRYPT_MODE, fSessionKey);
+			write(b, 0, b.length);
 		}
-		catch ( GeneralSecurityException e )
+		finally
 		{
-			IOException 		wrapped = new IOException();
-			wrapped.initCause(e);
-			throw wrapped;
+			fLock.unlock();
 		}
 	}
 
-	public synchronized void write(int b) throws IOException
+	public void write(byte b[], int off, int len) throws IOException
 	{
-		checkBuffer(false);
-		fBuffer.put((byte)(b & 0xff));
+		fLock.lock();
+		try
+		{
+			while ( len > 0 )
+			{
+				int		thisLength;
+				if ( (fBuffer.position() == 0) && (len > fBuffer.capacity()) )
+				{
+					// nothing is staged and there's more than a full frame left - encrypt straight from the caller's array
+					thisLength = fBuffer.capacity();
+					checkSessionKey();
+					writeFrame(fFrameCipher.process(b, off, thisLength, fEncrypted.array(), 0));
+				}
+				else
+				{
+					checkBuffer(false);
+					thisLength = Math.min(len, fBuffer.remaining());
+					fBuffer.put(b, off, thisLength);
+				}
+
+				off += thisLength;
+				len -= thisLength;
+			}
+		}
+		finally
+		{
+			fLock.unlock();
+		}
 	}
 
-	public synchronized void write(byte b[]) throws IOException
+	public void flush() throws IOException
 	{
-		for ( byte i : b )
+		fLock.lock();
+		try
 		{
-			write(i & 0xff);
+			checkBuffer(true);
+		}
+		finally
+		{
+			fLock.unlock();
 		}
 	}
 
-	public synchronized void write(byte b[], int off, int len) throws IOException
+	public void close() throws IOException
 	{
-		while ( len-- > 0 )
+		fLock.lock();
+		try
+		{
+			flush();
+			fOut.close();
+		}
+		finally
 		{
-			write(b[off++] & 0xff);
+			fLock.unlock();
 		}
 	}
 
-	public synchronized void flush() throws IOException
+	void		setFraming(SRPFraming framing)
 	{
-		checkBuffer(true);
+		fFraming = framing;
 	}
 
-	public synchronized void close() throws IOException
+	void		startSession(byte[] key, SRPCipherSuite suite, int direction) throws IOException
 	{
-		flush();
-		fOut.close();
+		fFrameCipher = new SRPFrameCipher(suite, key, Cipher.ENCRYPT_MODE, direction);
+		fEncrypted = ByteBuffer.allocate(fFrameCipher.getOutputSize(fBuffer.capacity()));
 	}
 
-	void			writeAuthenticationValue(BigInteger i, boolean flush) throws IOException
+	/**
+	 * Write a value of the authentication exchange. It isn't flushed - call {@link #flushAuthentication()} before waiting for a
+	 * reply.
+	 *
+	 * @param i the value
+	 * @throws IOException errors
+	 */
+	void			writeAuthenticationValue(BigInteger i) throws IOException
 	{
-		String		str = i.toString(16);
-		for ( int j = 0; j < str.length(); ++j )
-		{
-			char		c = str.charAt(j);
-			fOut.write(c & 0xff);
-		}
-		fOut.write('\n');
-		if ( flush )
-		{
-			fOut.flush();
-		}
+		fOut.write(SRPWireFormat.encodeValue(i, fFraming));
+	}
+
+	void			flushAuthentication() throws IOException
+	{
+		fOut.flush();
 	}
 
 	private void	checkBuffer(boolean force) throws IOException
@@ -145,37 +225,46 @@ public class SRPOutputStream extends OutputStream
 			return;
 		}
 
-		if ( fSessionKey == null )
-		{
-			throw new IOException("authenticate() has not been called");
-		}
+		checkSessionKey();
 
 		fBuffer.flip();
 
-		if ( fBuffer.limit() > 0 )
+		if ( fBuffer.hasRemaining() )
 		{
-			byte[] 		encryptedBytes;
-			try
-			{
-				encryptedBytes = fCipher.doFinal(fBuffer.array(), 0, fBuffer.limit());
-			}
-			catch ( GeneralSecurityException e )
-			{
-				IOException 		wrapped = new IOException();
-				wrapped.initCause(e);
-				throw wrapped;
-			}
-
-			writeAuthenticationValue(BigInteger.valueOf(encryptedBytes.length), false);
-			fOut.write(encryptedBytes);
-			fOut.flush();
+			fEncrypted.clear();
+			writeFrame(fFrameCipher.process(fBuffer, fEncrypted));
 		}
 
 		fBuffer.clear();
 	}
 
+	private void	checkSessionKey() throws IOException
+	{
+		if ( fFrameCipher == null )
+		{
+			throw new IOException("authenticate() has not been called");
+		}
+	}
+
+	private void	writeFrame(int encryptedSize) throws IOException
+	{
+		writeFrameSize(encryptedSize);
+		fOut.write(fEncrypted.array(), 0, encryptedSize);
+		fOut.flush();
+	}
+
+	private void	writeFrameSize(int size) throws IOException
+	{
+		fFrameSize.clear();
+		SRPWireFormat.encodeFrameSize(size, fFraming, fFrameSize);
+		fOut.write(fFrameSize.array(), 0, fFrameSize.position());
+	}
+
 	private OutputStream 	fOut;
-	private Cipher 			fCipher;
+	private SRPFrameCipher 	fFrameCipher;
 	private ByteBuffer		fBuffer;
-	private Key 			fSessionKey;
+	private ByteBuffer		fEncrypted;
+	private SRPFraming		fFraming;
+	private final ByteBuffer	fFrameSize = ByteBuffer.allocate(SRPWireFormat.MAX_FRAME_SIZE_LENGTH);
+	private final ReentrantLock		fLock = new ReentrantLock();
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runner for clients that saves a round trip. With {@link SRPClientSessionRunner} the client can't send A until it has the salt.
+ * But A = g^a doesn't depend on the salt, so here the client sends its user name and A straight away and the server answers
+ * with s and B together:
+ * <code><pre>
+ * client: user name, A
+ * server: s, B
+ * client: M(1)
+ * server: M(2)
+ * </pre></code>
+ * Several values are sent in a row - the runner has output without needing input until the last of them. The server must use an
+ * {@link SRPPipelinedServerRunner}. As the user name is part of the exchange, there's no need to send it separately.
+ * <p>
+ * With non-legacy {@link SRPStreamOptions}, pipelined runners don't wait for the hello of the other end before starting the
+ * exchange (see {@link SRPStreamHandshake}) - the hello and the first values go together.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.1 Implements {@link SRPRunnerCapabilities} - 10/16/26
+ * @version 1.0
+ */
+public class SRPPipelinedClientRunner implements SRPRunner, SRPRunnerCapabilities
+{
+	/**
+	 * @param session the client session
+	 * @param userName the user to authenticate as
+	 * @throws IllegalArgumentException if the user name is empty or longer than {@link SRPServer#MAX_USER_NAME_LENGTH} bytes (UTF-8)
+	 */
+	public SRPPipelinedClientRunner(SRPClientSession session, String userName)
+	{
+		byte[]		userNameBytes = userName.getBytes(StandardCharsets.UTF_8);
+		if ( (userNameBytes.length == 0) || (userNameBytes.length > SRPServer.MAX_USER_NAME_LENGTH) )
+		{
+			throw new IllegalArgumentException("Bad user name length: " + userNameBytes.length);
+		}
+
+		fSession = session;
+		fUserName = userNameBytes;
+		fState = State.OUTPUT_USER_NAME;
+		fSuccess = false;
+		fOutput = null;
+		fInput = null;
+		fSalt_s = null;
+	}
+
+	public boolean needsInput()
+	{
+		return (fState == State.INPUT_S) || (fState == State.INPUT_B) || (fState == State.INPUT_M2);
+	}
+
+	public void setInput(BigInteger i)
+	{
+		fInput = i;
+	}
+
+	public boolean hasOutput()
+	{
+		return (fOutput != null);
+	}
+
+	public BigInteger getOutput()
+	{
+		return fOutput;
+	}
+
+	public boolean 			next() throws SRPAuthenticationFailedException
+	{
+		switch ( fState )
+		{
+			case OUTPUT_USER_NAME:
+			{
+				fState = State.OUTPUT_A;
+				fOutput = SRPUtils.bytesToValue(fUserName);
+				break;
+			}
+
+			case OUTPUT_A:
+			{
+				fState = State.INPUT_S;
+				fOutput = fSession.makePublicKey_A();
+				break;
+			}
+
+			case INPUT_S:
+			{
+				fState = State.INPUT_B;
+				fSalt_s = fInput;
+				fOutput = null;
+				break;
+			}
+
+			case INPUT_B:
+			{
+				fState = State.INPUT_M2;
+				fSession.setSalt_s(fSalt_s, false);
+				fSession.setServerPublicKey_B(fInput);
+				fOutput = fSession.getEvidenceValue_M1();
+				break;
+			}
+
+			case INPUT_M2:
+			{
+				fOutput = null;
+				fState = State.DONE;
+				fSession.validateServerEvidenceValue_M2(fInput);
+				fSuccess = true;
+				break;
+			}
+
+			default:
+			case DONE:
+			{
+				// do nothing
+				break;
+			}
+		}
+
+		return fState != State.DONE;
+	}
+
+	public boolean				success()
+	{
+		return fSuccess;
+	}
+
+	public byte[] 				getSessionKey()
+	{
+		return fSession.getSessionKey_K();
+	}
+
+	public boolean				isServer()
+	{
+		return false;
+	}
+
+	public boolean				sendsBeforeHello()
+	{
+		return true;
+	}
+
+	public boolean				canPipeline()
+	{
+		return true;
+	}
+
+	public boolean				holdsHello()
+	{
+		return false;
+	}
+
+	public void					agreed(boolean pipelined) throws SRPAuthenticationFailedException
+	{
+		if ( !pipelined )
+		{
+			throw new SRPAuthenticationFailedException("Corresponding client/server can't do the pipelined exchange");
+		}
+	}
+
+	private enum State
+	{
+		OUTPUT_USER_NAME,
+		OUTPUT_A,
+		INPUT_S,
+		INPUT_B,
+		INPUT_M2,
+		DONE
+	}
+
+	private final SRPClientSession 	fSession;
+	private final byte[] 			fUserName;
+	private State 					fState;
+	private boolean					fSuccess;
+	private BigInteger 				fOutput;
+	private BigInteger 				fInput;
+	private BigInteger 				fSalt_s;
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runner for servers when the client uses an {@link SRPPipelinedClientRunner} - see there for the exchange. The user name comes
+ * in the exchange, so the runner is given a {@link SRPServer.VerifierLookup} rather than a session. Once authenticated,
+ * {@link #getUserName()} is the user.
+ * <p>
+ * A user the lookup doesn't know gets a made up salt and verifier (see {@link SRPUtils#makeUnknownUserVerifier(SRPConstants, String)})
+ * and fails at the client proof - just like a bad password - so user names can't be probed.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.2 Implements {@link SRPRunnerCapabilities} - 10/16/26
+ * @version 1.1 Unknown users fail at the client proof - 10/16/26
+ * @version 1.0
+ */
+public class SRPPipelinedServerRunner implements SRPRunner, SRPRunnerCapabilities
+{
+	/**
+	 * @param factory factory for the server session
+	 * @param lookup gets the verifier for the user name sent by the client
+	 */
+	public SRPPipelinedServerRunner(SRPFactory factory, SRPServer.VerifierLookup lookup)
+	{
+		fFactory = factory;
+		fLookup = lookup;
+		fState = State.INIT;
+		fSuccess = false;
+		fOutput = null;
+		fInput = null;
+		fUserName = null;
+		fSession = null;
+	}
+
+	public boolean needsInput()
+	{
+		return (fState == State.INPUT_USER_NAME) || (fState == State.INPUT_A) || (fState == State.INPUT_M1);
+	}
+
+	public void setInput(BigInteger i)
+	{
+		fInput = i;
+	}
+
+	public boolean hasOutput()
+	{
+		return (fOutput != null);
+	}
+
+	public BigInteger getOutput()
+	{
+		return fOutput;
+	}
+
+	public boolean			next() throws SRPAuthenticationFailedException
+	{
+		switch ( fState )
+		{
+			case INIT:
+			{
+				fState = State.INPUT_USER_NAME;
+				fOutput = null;
+				break;
+			}
+
+			case INPUT_USER_NAME:
+			{
+				byte[]		userName = SRPUtils.valueToBytes(fInput);
+				if ( (userName.length == 0) || (userName.length > SRPServer.MAX_USER_NAME_LENGTH) )
+				{
+					throw new SRPAuthenticationFailedException("Bad user name length: " + userName.length);
+				}
+				fUserName = new String(userName, StandardCharsets.UTF_8);
+				fSession = fFactory.newServerSession(lookupVerifier(fFactory, fLookup, fUserName));
+				fState = State.INPUT_A;
+				fOutput = null;
+				break;
+			}
+
+			case INPUT_A:
+			{
+				fState = State.OUTPUT_B;
+				fSession.setClientPublicKey_A(fInput);
+				fSession.computeCommonValue_S();
+				fOutput = fSession.getVerifier().salt_s;
+				break;
+			}
+
+			case OUTPUT_B:
+			{
+				fState = State.INPUT_M1;
+				fOutput = fSession.getPublicKey_B();
+				break;
+			}
+
+			case INPUT_M1:
+			{
+				fSession.validateClientEvidenceValue_M1(fInput);
+				fState = State.OUTPUT_M2;
+				fSuccess = true;
+				fOutput = fSession.getEvidenceValue_M2();
+				break;
+			}
+
+			case OUTPUT_M2:
+			{
+				fState = State.DONE;
+				fOutput = null;
+				break;
+			}
+
+			default:
+			case DONE:
+			{
+				// do nothing
+				break;
+			}
+		}
+
+		return fState != State.DONE;
+	}
+
+	public boolean				success()
+	{
+		return fSuccess;
+	}
+
+	public byte[] 				getSessionKey()
+	{
+		return fSession.getSessionKey_K();
+	}
+
+	public boolean				isServer()
+	{
+		return true;
+	}
+
+	public boolean				sendsBeforeHello()
+	{
+		return true;
+	}
+
+	public boolean				canPipeline()
+	{
+		return true;
+	}
+
+	public boolean				holdsHello()
+	{
+		return false;
+	}
+
+	public void					agreed(boolean pipelined) throws SRPAuthenticationFailedException
+	{
+		if ( !pipelined )
+		{
+			throw new SRPAuthenticationFailedException("Corresponding client/server can't do the pipelined exchange");
+		}
+	}
+
+	/**
+	 * The user the client authenticated as. Only valid once {@link #success()} returns true.
+	 *
+	 * @return user name
+	 */
+	public String				getUserName()
+	{
+		return fSuccess ? fUserName : null;
+	}
+
+	/**
+	 * Get a verifier - a lookup error fails authentication. A missing user gets a made up verifier that fails at the client proof
+	 *
+	 * @param factory the factory of the server session
+	 * @param lookup the lookup
+	 * @param userName the user
+	 * @return the verifier
+	 * @throws SRPAuthenticationFailedException if the lookup failed
+	 */
+	static SRPVerifier			lookupVerifier(SRPFactory factory, SRPServer.VerifierLookup lookup, String userName) throws SRPAuthenticationFailedException
+	{
+		SRPVerifier		verifier;
+		try
+		{
+			verifier = lookup.getVerifier(userName);
+		}
+		catch ( SRPAuthenticationFailedException e )
+		{
+			throw e;
+		}
+		catch ( IOException e )
+		{
+			throw new SRPAuthenticationFailedException("Could not get the verifier of " + userName + ": " + e.getMessage());
+		}
+		if ( verifier == null )
+		{
+			// fail at M1 like a bad password - see SRPUtils.makeUnknownUserVerifier()
+			verifier = SRPUtils.makeUnknownUserVerifier(factory.getConstants(), userName);
+		}
+		return verifier;
+	}
+
+	private enum State
+	{
+		INIT,
+		INPUT_USER_NAME,
+		INPUT_A,
+		OUTPUT_B,
+		INPUT_M1,
+		OUTPUT_M2,
+		DONE
+	}
+
+	private final SRPFactory 				fFactory;
+	private final SRPServer.VerifierLookup 	fLookup;
+	private State 							fState;
+	private boolean							fSuccess;
+	private BigInteger 						fOutput;
+	private BigInteger 						fInput;
+	private String 							fUserName;
+	private SRPServerSession 				fSession;
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Runner for clients that resume a session with an {@link SRPTicket}. Use it in place of an {@link SRPClientSessionRunner} - the
+ * server must use an {@link SRPResumeServerRunner}. The exchange (RS is the resumption secret, Nc/Ns are random bytes):
+ * <code><pre>
+ * client: ticket | Nc
+ * server: Ns | HMAC(RS, "SRP resumed server" | Nc | Ns)
+ * client: HMAC(RS, "SRP resumed client" | Nc | Ns)
+ * </pre></code>
+ * The new session key is the first 16 bytes of HMAC(RS, "SRP resumed key" | Nc | Ns). As with the full exchange, the server
+ * proves itself to the client and the client to the server - but the client can start sending as soon as it has the server's reply.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @see SRPTicketIssuer
+ * @version 1.0
+ */
+public class SRPResumeClientRunner implements SRPRunner
+{
+	/**
+	 * @param ticket the ticket to present - each ticket can only be used once
+	 */
+	public SRPResumeClientRunner(SRPTicket ticket)
+	{
+		fTicket = ticket;
+		fState = State.INIT;
+		fSuccess = false;
+		fOutput = null;
+		fInput = null;
+	}
+
+	public boolean needsInput()
+	{
+		return (fState == State.INPUT_SERVER_PROOF);
+	}
+
+	public void setInput(BigInteger i)
+	{
+		fInput = i;
+	}
+
+	public boolean hasOutput()
+	{
+		return (fOutput != null);
+	}
+
+	public BigInteger getOutput()
+	{
+		return fOutput;
+	}
+
+	public boolean			next() throws SRPAuthenticationFailedException
+	{
+		switch ( fState )
+		{
+			case INIT:
+			{
+				fClientNonce = new byte[SRPTicket.RESUME_NONCE_LENGTH];
+				fRandom.nextBytes(fClientNonce);
+
+				byte[]		ticket = fTicket.getTicket();
+				byte[]		value = Arrays.copyOf(ticket, ticket.length + fClientNonce.length);
+				System.arraycopy(fClientNonce, 0, value, ticket.length, fClientNonce.length);
+
+				fState = State.INPUT_SERVER_PROOF;
+				fOutput = SRPUtils.bytesToValue(value);
+				break;
+			}
+
+			case INPUT_SERVER_PROOF:
+			{
+				byte[]		value = SRPUtils.valueToBytes(fInput);
+				if ( value.length != (SRPTicket.RESUME_NONCE_LENGTH + SRPTicket.PROOF_LENGTH) )
+				{
+					throw new SRPAuthenticationFailedException("Bad resumption value");
+				}
+				byte[]		serverNonce = Arrays.copyOf(value, SRPTicket.RESUME_NONCE_LENGTH);
+				byte[]		serverProof = Arrays.copyOfRange(value, SRPTicket.RESUME_NONCE_LENGTH, value.length);
+
+				byte[]		secret = fTicket.getResumptionSecret();
+				if ( !MessageDigest.isEqual(serverProof, SRPTicket.derive(secret, SRPTicket.SERVER_PROOF_LABEL, fClientNonce, serverNonce)) )
+				{
+					throw new SRPAuthenticationFailedException("Bad server resumption proof");
+				}
+
+				fSessionKey = Arrays.copyOf(SRPTicket.derive(secret, SRPTicket.KEY_LABEL, fClientNonce, serverNonce), SRPTicket.SESSION_KEY_LENGTH);
+				fState = State.OUTPUT_CLIENT_PROOF;
+				fSuccess = true;
+				fOutput = SRPUtils.bytesToValue(SRPTicket.derive(secret, SRPTicket.CLIENT_PROOF_LABEL, fClientNonce, serverNonce));
+				break;
+			}
+
+			case OUTPUT_CLIENT_PROOF:
+			{
+				fState = State.DONE;
+				fOutput = null;
+				break;
+			}
+
+			default:
+			case DONE:
+			{
+				// do nothing
+				break;
+			}
+		}
+
+		return fState != State.DONE;
+	}
+
+	public boolean				success()
+	{
+		return fSuccess;
+	}
+
+	public byte[] 				getSessionKey()
+	{
+		return fSessionKey;
+	}
+
+	private enum State
+	{
+		INIT,
+		INPUT_SERVER_PROOF,
+		OUTPUT_CLIENT_PROOF,
+		DONE
+	}
+
+	private static final SecureRandom 		fRandom = new SecureRandom();
+
+	private final SRPTicket 	fTicket;
+	private State 				fState;
+	private boolean				fSuccess;
+	private BigInteger 			fOutput;
+	private BigInteger 			fInput;
+	private byte[] 				fClientNonce;
+	private byte[] 				fSessionKey;
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Runner for servers when the client resumes a session with a ticket - see {@link SRPResumeClientRunner} for the exchange. Use it
+ * in place of an {@link SRPServerSessionRunner}. Once authenticated, {@link #getUserName()} is the user the ticket was issued to.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @see SRPTicketIssuer
+ * @version 1.2 Implements {@link SRPRunnerCapabilities} - 10/16/26
+ * @version 1.1 the ticket is marked used after the client proof - 10/16/26
+ * @version 1.0
+ */
+public class SRPResumeServerRunner implements SRPRunner, SRPRunnerCapabilities
+{
+	/**
+	 * @param issuer the issuer of the client's ticket
+	 */
+	public SRPResumeServerRunner(SRPTicketIssuer issuer)
+	{
+		fIssuer = issuer;
+		fState = State.INIT;
+		fSuccess = false;
+		fOutput = null;
+		fInput = null;
+	}
+
+	public boolean needsInput()
+	{
+		return (fState == State.INPUT_TICKET) || (fState == State.INPUT_CLIENT_PROOF);
+	}
+
+	public void setInput(BigInteger i)
+	{
+		fInput = i;
+	}
+
+	public boolean hasOutput()
+	{
+		return (fOutput != null);
+	}
+
+	public BigInteger getOutput()
+	{
+		return fOutput;
+	}
+
+	public boolean			next() throws SRPAuthenticationFailedException
+	{
+		switch ( fState )
+		{
+			case INIT:
+			{
+				fState = State.INPUT_TICKET;
+				fOutput = null;
+				break;
+			}
+
+			case INPUT_TICKET:
+			{
+				byte[]		value = SRPUtils.valueToBytes(fInput);
+				if ( value.length <= SRPTicket.RESUME_NONCE_LENGTH )
+				{
+					throw new SRPAuthenticationFailedException("Bad resumption value");
+				}
+				int			ticketLength = value.length - SRPTicket.RESUME_NONCE_LENGTH;
+				byte[]		clientNonce = Arrays.copyOfRange(value, ticketLength, value.length);
+				fTicket = fIssuer.redeem(Arrays.copyOf(value, ticketLength));
+
+				byte[]		serverNonce = new byte[SRPTicket.RESUME_NONCE_LENGTH];
+				fRandom.nextBytes(serverNonce);
+
+				byte[]		secret = fTicket.getResumptionSecret();
+				byte[]		serverProof = SRPTicket.derive(secret, SRPTicket.SERVER_PROOF_LABEL, clientNonce, serverNonce);
+				fSessionKey = Arrays.copyOf(SRPTicket.derive(secret, SRPTicket.KEY_LABEL, clientNonce, serverNonce), SRPTicket.SESSION_KEY_LENGTH);
+				fClientProof = SRPTicket.derive(secret, SRPTicket.CLIENT_PROOF_LABEL, clientNonce, serverNonce);
+
+				byte[]		output = Arrays.copyOf(serverNonce, serverNonce.length + serverProof.length);
+				System.arraycopy(serverProof, 0, output, serverNonce.length, serverProof.length);
+				fState = State.INPUT_CLIENT_PROOF;
+				fOutput = SRPUtils.bytesToValue(output);
+				break;
+			}
+
+			case INPUT_CLIENT_PROOF:
+			{
+				if ( !MessageDigest.isEqual(SRPUtils.valueToBytes(fInput), fClientProof) )
+				{
+					throw new SRPAuthenticationFailedException("Bad client resumption proof");
+				}
+				fIssuer.markUsed(fTicket);	// only now - otherwise anyone who saw the ticket could use it up
+				fState = State.DONE;
+				fSuccess = true;
+				fOutput = null;
+				break;
+			}
+
+			default:
+			case DONE:
+			{
+				// do nothing
+				break;
+			}
+		}
+
+		return fState != State.DONE;
+	}
+
+	public boolean				success()
+	{
+		return fSuccess;
+	}
+
+	public byte[] 				getSessionKey()
+	{
+		return fSessionKey;
+	}
+
+	public boolean				isServer()
+	{
+		return true;
+	}
+
+	public boolean				sendsBeforeHello()
+	{
+		return false;
+	}
+
+	public boolean				canPipeline()
+	{
+		return false;
+	}
+
+	public boolean				holdsHello()
+	{
+		return true;
+	}
+
+	public void					agreed(boolean pipelined) throws SRPAuthenticationFailedException
+	{
+		// nothing to do - this runner never does the pipelined exchange
+	}
+
+	/**
+	 * The user the ticket was issued to. Only valid once {@link #success()} returns true.
+	 *
+	 * @return user name
+	 */
+	public String				getUserName()
+	{
+		return fSuccess ? fTicket.getUserName() : null;
+	}
+
+	private enum State
+	{
+		INIT,
+		INPUT_TICKET,
+		INPUT_CLIENT_PROOF,
+		DONE
+	}
+
+	private static final SecureRandom 		fRandom = new SecureRandom();
+
+	private final SRPTicketIssuer 	fIssuer;
+	private State 					fState;
+	private boolean					fSuccess;
+	private BigInteger 				fOutput;
+	private BigInteger 				fInput;
+	private SRPTicket 				fTicket;
+	private byte[] 					fSessionKey;
+	private byte[] 					fClientProof;
+}
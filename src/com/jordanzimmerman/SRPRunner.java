@@ -28,24 +28,31 @@ import java.math.BigInteger;
 		if ( runner.hasOutput() )
 		{
 			BigInteger		output = runner.getOutput();
- 			// TODO: send output to corresponding client/server
+ 			// TODO: queue output for corresponding client/server
 		}
 
 		if ( runner.needsInput() )
 		{
+ 			// TODO: send the queued outputs as one message
  			// TODO: get BigInteger from corresponding client/server
  			BigInteger		i = ... // read from client/server
 			runner.setInput(i);
 		}
 	}
 
+ 	// TODO: send any queued outputs
  	// at this point, runner.success() can be called to determine if authentication was successful.
 </pre></code>
+ * <p>
+ * Messages: a runner can have output from several calls to next() in a row before it needs input (e.g. {@link SRPPipelinedServerRunner}
+ * sends s and B together). All outputs up to the next needsInput() (or the end) make up one message and should be sent together -
+ * the streams, {@link SRPEngine} and the rest write each message at once and flush once per message rather than once per value.
  * <p>
  * Released into the public domain
  *
  * @author Jordan Zimmerman - jordan@jordanzimmerman.com
  * @see SRPFactory for boilerplate code
+ * @version 1.4 Outputs up to the next input are one message - 10/16/26
  * @version 1.3 Some session methods now throw an authentication exception instead of returning true/false 2/21/07
  * @version 1.2 Updated to use the SRP-6 spec 2/21/07
  * @version 1.1
@@ -78,7 +85,7 @@ public interface SRPRunner
 
 	/**
 	 * Returns true if there is an int that needs to be sent to the corresponding client/server. {@link #getOutput()} will return the int
-	 * which should immediately be sent to the corresponding client/server.
+	 * which should be sent to the corresponding client/server as part of the current message (see above).
 	 *
 	 * @return true/false
 	 */
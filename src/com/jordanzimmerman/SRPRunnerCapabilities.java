@@ -0,0 +1,65 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;
+
+/**
+ * Optional interface for runners that need more from the streams, {@link SRPChannel}, {@link SRPEngine} and {@link SRPAsyncHandshake}
+ * than the values of the exchange. These look for it when negotiating the options (see {@link SRPStreamHandshake}). A runner
+ * that doesn't implement it is taken to be a client that waits for the hello of the server and can't do the pipelined exchange -
+ * like {@link SRPClientSessionRunner}.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.0
+ */
+public interface SRPRunnerCapabilities
+{
+	/**
+	 * The client always sends in direction 0 and the server in direction 1, and the hellos say which end each is
+	 *
+	 * @return true if the runner is the server end of the exchange
+	 */
+	public boolean			isServer();
+
+	/**
+	 * Pipelined runners ({@link SRPPipelinedClientRunner}/{@link SRPPipelinedServerRunner}) don't wait for the hello of the other
+	 * end: the exchange values are always in {@link SRPFraming#HEX} and the agreed options are only used for the session.
+	 *
+	 * @return true if the runner starts the exchange without waiting for the hello of the other end
+	 */
+	public boolean			sendsBeforeHello();
+
+	/**
+	 * @return true if the runner can do the pipelined exchange - it is pipelined or adapts to the client
+	 */
+	public boolean			canPipeline();
+
+	/**
+	 * Clients always send their hello straight away, so servers can hold theirs back until they have the client's and send it
+	 * with their first values - one packet fewer.
+	 *
+	 * @return true if the runner is a server that holds its hello back
+	 */
+	public boolean			holdsHello();
+
+	/**
+	 * Called once the options are agreed on, before the first value of the other end is given to the runner
+	 *
+	 * @param pipelined true if both ends can do the pipelined exchange
+	 * @throws SRPAuthenticationFailedException if the runner can't run the agreed exchange
+	 */
+	public void				agreed(boolean pipelined) throws SRPAuthenticationFailedException;
+}
@@ -0,0 +1,843 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ready-made server: accepts sockets and runs each connection - authentication via {@link SRPServerSessionRunner} and
+ * {@link SRPInputStream}/{@link SRPOutputStream}, then a {@link Handler} - on its own thread. By default the threads are virtual
+ * threads when the JVM has them (Java 21 or later) and platform threads otherwise - see {@link #newConnectionThreadFactory()}.<br>
+ * <p>
+ * The SRP exchange doesn't carry a user name, so the client first sends one: UTF-8, ending with a newline, at most
+ * {@link #MAX_USER_NAME_LENGTH} bytes. The server gets the verifier for it from a {@link VerifierLookup}. Clients can use
+ * {@link #connect(Socket, SRPFactory, String, byte[], SRPStreamOptions)} to do all of this.
+ * <p>
+ * Session resumption: give the server an {@link SRPTicketIssuer} via {@link #setTicketIssuer(SRPTicketIssuer)}. Once a client has
+ * authenticated, the server then sends it a ticket as the first data block: a 2 byte big-endian length followed by the ticket. A
+ * client that sends an empty user name is resuming - the exchange is {@link SRPResumeServerRunner}'s and the user is the one the
+ * ticket was issued to. Clients of such a server must use {@link #connectWithTicket(Socket, SRPFactory, String, byte[], SRPStreamOptions)}
+ * and {@link #resume(Socket, SRPTicket, SRPStreamOptions)}, which read the ticket.
+ * <p>
+ * Pipelined exchange: a client that sends a NUL character as its user name uses {@link SRPPipelinedClientRunner} - the real user
+ * name is sent in the exchange. This saves a round trip for every full authentication. See
+ * {@link #connectPipelined(Socket, SRPFactory, String, byte[], SRPStreamOptions, boolean)}.
+ * <p>
+ * Usage:
+ * <code><pre>
+ * SRPServer server = new SRPServer(factory, lookup, handler, options);
+ * server.start(new ServerSocket(port));
+ * ...
+ * server.close();
+ * </pre></code>
+ * <code>SRPServer -load|-resume clients handshakesPerClient</code> runs a loopback load test - see {@link #main(String[])}.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.4 Failed accepts are counted and retried with a backoff - 10/16/26
+ * @version 1.3 Unknown users fail at M1. The handshake has a total deadline - 10/16/26
+ * @version 1.2 Pipelined exchange - 10/16/26
+ * @version 1.1 Session resumption - 10/16/26
+ * @version 1.0
+ */
+public class SRPServer implements Closeable
+{
+	/**
+	 * Returns the verifiers of users
+	 */
+	public interface VerifierLookup
+	{
+		/**
+		 * Return the verifier for a user
+		 *
+		 * @param userName the name sent by the client
+		 * @return the verifier or null if there is no such user. The exchange is still run (with a stand-in verifier) and fails at
+		 * M1, so clients can't tell an unknown user from a bad password.
+		 * @throws IOException errors - the connection is closed
+		 */
+		public SRPVerifier		getVerifier(String userName) throws IOException;
+	}
+
+	/**
+	 * Serves authenticated connections
+	 */
+	public interface Handler
+	{
+		/**
+		 * Called on the connection's thread once the client has authenticated. The socket is closed when this returns.
+		 *
+		 * @param connection the connection
+		 * @throws IOException errors - the connection is closed
+		 */
+		public void				connected(Connection connection) throws IOException;
+	}
+
+	/**
+	 * POJO for an authenticated connection
+	 */
+	public static class Connection
+	{
+		Connection(Socket socket, String userName, SRPInputStream in, SRPOutputStream out, SRPTicket ticket)
+		{
+			this.socket = socket;
+			this.userName = userName;
+			this.in = in;
+			this.out = out;
+			this.ticket = ticket;
+		}
+
+		/**
+		 * the socket
+		 */
+		public final Socket				socket;
+
+		/**
+		 * the user that authenticated
+		 */
+		public final String				userName;
+
+		/**
+		 * decrypts from the corresponding client/server
+		 */
+		public final SRPInputStream		in;
+
+		/**
+		 * encrypts to the corresponding client/server
+		 */
+		public final SRPOutputStream	out;
+
+		/**
+		 * client side: the ticket for resuming next time or null if the server doesn't issue tickets. Always null server side.
+		 */
+		public final SRPTicket			ticket;
+	}
+
+	/**
+	 * Connections run on threads from {@link #newConnectionThreadFactory()}
+	 *
+	 * @param factory factory for the server sessions
+	 * @param lookup returns the verifiers of users
+	 * @param handler serves authenticated connections
+	 * @param options protocol options to negotiate. Must match the kind (legacy or not) used by the clients.
+	 */
+	public SRPServer(SRPFactory factory, VerifierLookup lookup, Handler handler, SRPStreamOptions options)
+	{
+		this(factory, lookup, handler, options, newConnectionThreadFactory());
+	}
+
+	/**
+	 * @param factory factory for the server sessions
+	 * @param lookup returns the verifiers of users
+	 * @param handler serves authenticated connections
+	 * @param options protocol options to negotiate. Must match the kind (legacy or not) used by the clients.
+	 * @param connectionThreads makes the thread for each connection
+	 */
+	public SRPServer(SRPFactory factory, VerifierLookup lookup, Handler handler, SRPStreamOptions options, ThreadFactory connectionThreads)
+	{
+		fFactory = factory;
+		fLookup = lookup;
+		fHandler = handler;
+		fOptions = options;
+		fConnectionThreads = connectionThreads;
+		fSockets = ConcurrentHashMap.newKeySet();
+		fAuthenticatedCount = new AtomicLong(0);
+		fResumedCount = new AtomicLong(0);
+		fFailedCount = new AtomicLong(0);
+		fAcceptFailedCount = new AtomicLong(0);
+		fTicketIssuer = null;
+		fServerSocket = null;
+		fDeadlines = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread		thread = new Thread(r, "SRPServer-deadlines");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		fDeadlines.setRemoveOnCancelPolicy(true);	// most handshakes finish long before their deadline
+	}
+
+	/**
+	 * Issue tickets to authenticated clients and let clients resume with them (see above). Call before {@link #start(ServerSocket)}.
+	 *
+	 * @param issuer the issuer or null for no resumption
+	 */
+	public void				setTicketIssuer(SRPTicketIssuer issuer)
+	{
+		fTicketIssuer = issuer;
+	}
+
+	/**
+	 * Returns a factory for virtual threads if the JVM has them (Java 21 or later), otherwise for daemon platform threads. With
+	 * platform threads, every connection - including ones that are only waiting on the client - holds a thread.
+	 *
+	 * @return thread factory
+	 */
+	public static ThreadFactory		newConnectionThreadFactory()
+	{
+		try
+		{
+			// via reflection so that this class still runs on older JVMs
+			Class<?>		builderClass = Class.forName("java.lang.Thread$Builder");
+			Object			builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "SRPServer-", 0L);
+			return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+		}
+		catch ( Exception e )
+		{
+			// no virtual threads
+		}
+
+		final AtomicInteger		count = new AtomicInteger(0);
+		return new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread		thread = new Thread(r, "SRPServer-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Start accepting connections on a daemon thread
+	 *
+	 * @param serverSocket the bound server socket - closed by {@link #close()}
+	 */
+	public synchronized void	start(final ServerSocket serverSocket)
+	{
+		if ( fServerSocket != null )
+		{
+			throw new IllegalStateException("Already started");
+		}
+		fServerSocket = serverSocket;
+
+		Thread		acceptThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				acceptLoop(serverSocket);
+			}
+		}, "SRPServer-accept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	/**
+	 * Stop accepting and close all open connections
+	 *
+	 * @throws IOException errors closing the server socket
+	 */
+	public void				close() throws IOException
+	{
+		ServerSocket		serverSocket;
+		synchronized(this)
+		{
+			serverSocket = fServerSocket;
+		}
+		if ( serverSocket != null )
+		{
+			serverSocket.close();
+		}
+
+		for ( Socket socket : fSockets )
+		{
+			closeQuietly(socket);
+		}
+		fDeadlines.shutdownNow();
+	}
+
+	/**
+	 * @return number of clients that have authenticated
+	 */
+	public long				getAuthenticatedCount()
+	{
+		return fAuthenticatedCount.get();
+	}
+
+	/**
+	 * @return number of clients that have authenticated by resuming with a ticket - included in {@link #getAuthenticatedCount()}
+	 */
+	public long				getResumedCount()
+	{
+		return fResumedCount.get();
+	}
+
+	/**
+	 * @return number of connections that failed authentication (bad password, unknown user, bad values or I/O errors before
+	 * authentication completed)
+	 */
+	public long				getFailedCount()
+	{
+		return fFailedCount.get();
+	}
+
+	/**
+	 * @return number of times accepting a connection failed (e.g. too many open files). Each failure is followed by a pause - 10ms,
+	 * doubling up to 1s while the failures go on
+	 */
+	public long				getAcceptFailedCount()
+	{
+		return fAcceptFailedCount.get();
+	}
+
+	/**
+	 * @return number of open connections
+	 */
+	public int				getConnectionCount()
+	{
+		return fSockets.size();
+	}
+
+	/**
+	 * Client side: send the user name and authenticate
+	 *
+	 * @param socket socket connected to an SRPServer
+	 * @param factory factory for the client session - must use the same constants as the server
+	 * @param userName user name
+	 * @param password password
+	 * @param options protocol options to negotiate
+	 * @return the authenticated connection
+	 * @throws IOException if authentication fails or there is an I/O error
+	 */
+	public static Connection	connect(Socket socket, SRPFactory factory, String userName, byte[] password, SRPStreamOptions options) throws IOException
+	{
+		if ( userName.isEmpty() )
+		{
+			throw new IllegalArgumentException("User name is empty");
+		}
+		return connect(socket, userName, new SRPClientSessionRunner(factory.newClientSession(password)), options, false);
+	}
+
+	/**
+	 * Client side: send the user name, authenticate and read the ticket sent by a server that has an {@link SRPTicketIssuer}
+	 *
+	 * @param socket socket connected to an SRPServer
+	 * @param factory factory for the client session - must use the same constants as the server
+	 * @param userName user name
+	 * @param password password
+	 * @param options protocol options to negotiate
+	 * @return the authenticated connection - {@link Connection#ticket} is the ticket for {@link #resume(Socket, SRPTicket, SRPStreamOptions)}
+	 * @throws IOException if authentication fails or there is an I/O error
+	 */
+	public static Connection	connectWithTicket(Socket socket, SRPFactory factory, String userName, byte[] password, SRPStreamOptions options) throws IOException
+	{
+		if ( userName.isEmpty() )
+		{
+			throw new IllegalArgumentException("User name is empty");
+		}
+		return connect(socket, userName, new SRPClientSessionRunner(factory.newClientSession(password)), options, true);
+	}
+
+	/**
+	 * Client side: authenticate with the pipelined exchange ({@link SRPPipelinedClientRunner}) - one round trip fewer than
+	 * {@link #connect(Socket, SRPFactory, String, byte[], SRPStreamOptions)}
+	 *
+	 * @param socket socket connected to an SRPServer
+	 * @param factory factory for the client session - must use the same constants as the server
+	 * @param userName user name
+	 * @param password password
+	 * @param options protocol options to negotiate
+	 * @param readTicket true if the server has an {@link SRPTicketIssuer} - the ticket it sends is read into {@link Connection#ticket}
+	 * @return the authenticated connection
+	 * @throws IOException if authentication fails or there is an I/O error
+	 */
+	public static Connection	connectPipelined(Socket socket, SRPFactory factory, String userName, byte[] password, SRPStreamOptions options, boolean readTicket) throws IOException
+	{
+		return connect(socket, userName, new SRPPipelinedClientRunner(factory.newClientSession(password), userName), options, readTicket);
+	}
+
+	/**
+	 * Client side: resume with a ticket - no exponentiation at either end. If the ticket is turned down (e.g. it has expired,
+	 * was already used or the server was restarted) an {@link SRPAuthenticationFailedException} is thrown and the socket is no
+	 * longer usable - connect again with {@link #connectWithTicket(Socket, SRPFactory, String, byte[], SRPStreamOptions)}.
+	 *
+	 * @param socket socket connected to an SRPServer
+	 * @param ticket ticket from the last connection - can't be used again
+	 * @param options protocol options to negotiate
+	 * @return the authenticated connection - {@link Connection#ticket} is the ticket for next time
+	 * @throws IOException if authentication fails or there is an I/O error
+	 */
+	public static Connection	resume(Socket socket, SRPTicket ticket, SRPStreamOptions options) throws IOException
+	{
+		return connect(socket, ticket.getUserName(), new SRPResumeClientRunner(ticket), options, true);
+	}
+
+	/**
+	 * Loopback load test: <code>SRPServer -load clients handshakesPerClient [group]</code> starts a server and that many concurrent
+	 * clients (on connection threads - see {@link #newConnectionThreadFactory()}). Each client connects and authenticates
+	 * handshakesPerClient times in a row. The handshakes/s and p50/p99/p999 handshake latency are printed. group is an
+	 * {@link SRPGroup} name - the default constants are used if it's missing.<br>
+	 * <p>
+	 * With <code>-resume</code> in place of <code>-load</code> the server has an {@link SRPTicketIssuer}. Each client does one full
+	 * exchange before the test starts and then resumes handshakesPerClient times - each time with the ticket from the last time.
+	 * <p>
+	 * NOTE: for large numbers of clients, raise the open file limit (ulimit -n) - each client uses two sockets.
+	 *
+	 * @param args see above
+	 * @throws Exception errors
+	 */
+	public static void		main(String[] args) throws Exception
+	{
+		if ( (args.length < 3) || !(args[0].equals("-load") || args[0].equals("-resume")) )
+		{
+			System.err.println("usage: SRPServer -load|-resume clients handshakesPerClient [group]");
+			return;
+		}
+
+		boolean					resume = args[0].equals("-resume");
+		int						clients = Integer.parseInt(args[1]);
+		int						handshakesPerClient = Integer.parseInt(args[2]);
+		SRPFactory				factory = (args.length > 3) ? SRPFactory.getInstance(SRPGroup.valueOf(args[3])) : SRPFactory.getInstance();
+		LoadTest				loadTest = new LoadTest(factory, clients, handshakesPerClient, resume);
+		loadTest.run();
+	}
+
+	/**
+	 * The most UTF-8 bytes of a user name
+	 */
+	public static final int		MAX_USER_NAME_LENGTH = 1024;
+
+	/**
+	 * A client that hasn't authenticated within this time is disconnected - the whole handshake, not each read
+	 */
+	public static final int		HANDSHAKE_TIMEOUT_MS = 30000;
+
+	private static final String	PIPELINED_USER_NAME = "\u0000";
+	private static final long	ACCEPT_RETRY_MIN_MS = 10;
+	private static final long	ACCEPT_RETRY_MAX_MS = 1000;
+
+	private static class LoadTest
+	{
+		LoadTest(SRPFactory factory, int clients, int handshakesPerClient, boolean resume)
+		{
+			fFactory = factory;
+			fClients = clients;
+			fHandshakesPerClient = handshakesPerClient;
+			fResume = resume;
+			fLatencies = new long[clients * handshakesPerClient];
+			fLatencyCount = new AtomicInteger(0);
+			fErrorCount = new AtomicInteger(0);
+		}
+
+		void		run() throws Exception
+		{
+			final byte[]			password = "password".getBytes();
+			final SRPVerifier		verifier = fFactory.makeVerifier(password);
+			VerifierLookup			lookup = new VerifierLookup()
+			{
+				public SRPVerifier getVerifier(String userName)
+				{
+					return verifier;
+				}
+			};
+			Handler					handler = new Handler()
+			{
+				public void connected(Connection connection)
+				{
+					// nothing - only the handshake is measured
+				}
+			};
+
+			SRPServer				server = new SRPServer(fFactory, lookup, handler, SRPStreamOptions.ALL);
+			if ( fResume )
+			{
+				server.setTicketIssuer(new SRPTicketIssuer(TimeUnit.HOURS.toMillis(1), Math.max(fClients * (fHandshakesPerClient + 1), 1)));
+			}
+			ServerSocket			serverSocket = new ServerSocket(0, Math.max(50, fClients), InetAddress.getLoopbackAddress());
+			server.start(serverSocket);
+
+			final int				port = serverSocket.getLocalPort();
+			final CountDownLatch	readyLatch = new CountDownLatch(fClients);
+			final CountDownLatch	startLatch = new CountDownLatch(1);
+			final CountDownLatch	doneLatch = new CountDownLatch(fClients);
+			ThreadFactory			threadFactory = newConnectionThreadFactory();
+			for ( int i = 0; i < fClients; ++i )
+			{
+				threadFactory.newThread(new Runnable()
+				{
+					public void run()
+					{
+						try
+						{
+							SRPTicket		ticket = fResume ? getTicket(port, password) : null;
+							readyLatch.countDown();
+							startLatch.await();
+							runClient(port, password, ticket);
+						}
+						catch ( InterruptedException e )
+						{
+							Thread.currentThread().interrupt();
+						}
+						finally
+						{
+							doneLatch.countDown();
+						}
+					}
+				}).start();
+			}
+
+			readyLatch.await();
+			long		startTicks = System.nanoTime();
+			startLatch.countDown();
+			doneLatch.await();
+			long		elapsedTicks = System.nanoTime() - startTicks;
+			server.close();
+
+			int			count = fLatencyCount.get();
+			long[]		latencies = Arrays.copyOf(fLatencies, count);
+			Arrays.sort(latencies);
+			System.out.println("clients:      " + fClients + (fResume ? " (resuming)" : ""));
+			System.out.println("handshakes:   " + count + " (" + fErrorCount.get() + " errors)");
+			System.out.println("handshakes/s: " + ((count * 1000000000L) / Math.max(elapsedTicks, 1)));
+			System.out.println("p50:          " + formatMs(percentile(latencies, 0.50)));
+			System.out.println("p99:          " + formatMs(percentile(latencies, 0.99)));
+			System.out.println("p999:         " + formatMs(percentile(latencies, 0.999)));
+		}
+
+		private void		runClient(int port, byte[] password, SRPTicket ticket)
+		{
+			for ( int i = 0; i < fHandshakesPerClient; ++i )
+			{
+				if ( fResume && (ticket == null) )
+				{
+					ticket = getTicket(port, password);	// the last resume failed - not measured
+				}
+
+				long		startTicks = System.nanoTime();
+				Socket		socket = null;
+				try
+				{
+					socket = new Socket(InetAddress.getLoopbackAddress(), port);
+					if ( fResume )
+					{
+						SRPTicket		usedTicket = ticket;
+						ticket = null;	// can't be used again, even if resuming fails
+						ticket = resume(socket, usedTicket, SRPStreamOptions.ALL).ticket;
+					}
+					else
+					{
+						connect(socket, fFactory, "user", password, SRPStreamOptions.ALL);
+					}
+					fLatencies[fLatencyCount.getAndIncrement()] = System.nanoTime() - startTicks;
+				}
+				catch ( IOException e )
+				{
+					fErrorCount.incrementAndGet();
+				}
+				finally
+				{
+					closeQuietly(socket);
+				}
+			}
+		}
+
+		private SRPTicket	getTicket(int port, byte[] password)
+		{
+			Socket		socket = null;
+			try
+			{
+				socket = new Socket(InetAddress.getLoopbackAddress(), port);
+				return connectWithTicket(socket, fFactory, "user", password, SRPStreamOptions.ALL).ticket;
+			}
+			catch ( IOException e )
+			{
+				return null;
+			}
+			finally
+			{
+				closeQuietly(socket);
+			}
+		}
+
+		private static long		percentile(long[] sorted, double fraction)
+		{
+			if ( sorted.length == 0 )
+			{
+				return 0;
+			}
+			int		index = (int)Math.ceil(fraction * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+		}
+
+		private static String	formatMs(long ticks)
+		{
+			return String.format("%.2fms", ticks / 1000000.0);
+		}
+
+		private final SRPFactory 		fFactory;
+		private final int 				fClients;
+		private final int 				fHandshakesPerClient;
+		private final boolean 			fResume;
+		private final long[] 			fLatencies;
+		private final AtomicInteger 	fLatencyCount;
+		private final AtomicInteger 	fErrorCount;
+	}
+
+	private void			acceptLoop(ServerSocket serverSocket)
+	{
+		long		retryMs = ACCEPT_RETRY_MIN_MS;
+		while ( !serverSocket.isClosed() )
+		{
+			final Socket		socket;
+			try
+			{
+				socket = serverSocket.accept();
+			}
+			catch ( IOException e )
+			{
+				if ( serverSocket.isClosed() )
+				{
+					break;
+				}
+
+				// e.g. too many open files - retrying straight away would only spin until connections close, so back off
+				fAcceptFailedCount.incrementAndGet();
+				try
+				{
+					Thread.sleep(retryMs);
+				}
+				catch ( InterruptedException interrupted )
+				{
+					Thread.currentThread().interrupt();
+					break;
+				}
+				retryMs = Math.min(retryMs * 2, ACCEPT_RETRY_MAX_MS);
+				continue;
+			}
+			retryMs = ACCEPT_RETRY_MIN_MS;
+
+			fSockets.add(socket);
+			fConnectionThreads.newThread(new Runnable()
+			{
+				public void run()
+				{
+					serve(socket);
+				}
+			}).start();
+		}
+	}
+
+	private void			serve(final Socket socket)
+	{
+		// SO_TIMEOUT is per read - a client that trickles bytes in would never hit it, so the whole handshake has a deadline too
+		ScheduledFuture<?>		deadline = fDeadlines.schedule(new Runnable()
+		{
+			public void run()
+			{
+				closeQuietly(socket);
+			}
+		}, HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		try
+		{
+			Connection		connection;
+			try
+			{
+				socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+
+				InputStream					rawIn = new BufferedInputStream(socket.getInputStream());
+				String						userName = readUserName(rawIn);
+				SRPTicketIssuer				issuer = fTicketIssuer;
+				SRPResumeServerRunner		resumeRunner = null;
+				SRPPipelinedServerRunner	pipelinedRunner = null;
+				SRPRunner					runner;
+				if ( userName.isEmpty() && (issuer != null) )
+				{
+					resumeRunner = new SRPResumeServerRunner(issuer);
+					runner = resumeRunner;
+				}
+				else if ( userName.equals(PIPELINED_USER_NAME) )
+				{
+					pipelinedRunner = new SRPPipelinedServerRunner(fFactory, fLookup);
+					runner = pipelinedRunner;
+				}
+				else
+				{
+					SRPVerifier		verifier = fLookup.getVerifier(userName);
+					if ( verifier == null )
+					{
+						// fail at M1 like a bad password - see SRPUtils.makeUnknownUserVerifier()
+						verifier = SRPUtils.makeUnknownUserVerifier(fFactory.getConstants(), userName);
+					}
+					runner = new SRPServerSessionRunner(fFactory.newServerSession(verifier));
+				}
+
+				SRPInputStream		in = new SRPInputStream(rawIn);
+				SRPOutputStream		out = new SRPOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				in.authenticate(runner, out, fOptions);
+				if ( resumeRunner != null )
+				{
+					userName = resumeRunner.getUserName();
+					fResumedCount.incrementAndGet();
+				}
+				else if ( pipelinedRunner != null )
+				{
+					userName = pipelinedRunner.getUserName();
+				}
+				if ( issuer != null )
+				{
+					writeTicket(out, issuer.issueTicket(userName, runner));
+				}
+				connection = new Connection(socket, userName, in, out, null);
+
+				if ( !deadline.cancel(false) )
+				{
+					throw new SRPAuthenticationFailedException("Handshake did not finish within " + HANDSHAKE_TIMEOUT_MS + "ms");
+				}
+				socket.setSoTimeout(0);
+			}
+			catch ( IOException e )
+			{
+				fFailedCount.incrementAndGet();
+				return;
+			}
+
+			fAuthenticatedCount.incrementAndGet();
+			fHandler.connected(connection);
+		}
+		catch ( IOException e )
+		{
+			// the handler failed - the connection is closed
+		}
+		finally
+		{
+			deadline.cancel(false);
+			fSockets.remove(socket);
+			closeQuietly(socket);
+		}
+	}
+
+	private static Connection	connect(Socket socket, String userName, SRPRunner runner, SRPStreamOptions options, boolean readTicket) throws IOException
+	{
+		// an empty line asks to resume, a NUL for the pipelined exchange
+		String		line = userName;
+		if ( runner instanceof SRPResumeClientRunner )
+		{
+			line = "";
+		}
+		else if ( runner instanceof SRPPipelinedClientRunner )
+		{
+			line = PIPELINED_USER_NAME;
+		}
+		byte[]		nameBytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+		if ( nameBytes.length > (MAX_USER_NAME_LENGTH + 1) )
+		{
+			throw new IllegalArgumentException("User name is too long");
+		}
+
+		OutputStream		bufferedOut = new BufferedOutputStream(socket.getOutputStream());
+		bufferedOut.write(nameBytes);	// flushed along with the first values of the exchange
+
+		SRPInputStream		in = new SRPInputStream(new BufferedInputStream(socket.getInputStream()));
+		SRPOutputStream		out = new SRPOutputStream(bufferedOut);
+		in.authenticate(runner, out, options);
+
+		SRPTicket			ticket = null;
+		if ( readTicket )
+		{
+			DataInputStream		dataIn = new DataInputStream(in);
+			byte[]				ticketBytes = new byte[dataIn.readUnsignedShort()];
+			dataIn.readFully(ticketBytes);
+			ticket = new SRPTicket(ticketBytes, runner);
+		}
+		return new Connection(socket, userName, in, out, ticket);
+	}
+
+	private static void		writeTicket(SRPOutputStream out, byte[] ticket) throws IOException
+	{
+		DataOutputStream		dataOut = new DataOutputStream(out);
+		dataOut.writeShort(ticket.length);
+		dataOut.write(ticket);
+		dataOut.flush();
+	}
+
+	private static String	readUserName(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream		bytes = new ByteArrayOutputStream();
+		for(;;)
+		{
+			int		b = in.read();
+			if ( b < 0 )
+			{
+				throw new EOFException();
+			}
+			if ( b == '\n' )
+			{
+				break;
+			}
+			if ( bytes.size() >= MAX_USER_NAME_LENGTH )
+			{
+				throw new SRPAuthenticationFailedException("User name is too long");
+			}
+			bytes.write(b);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void		closeQuietly(Closeable closeable)
+	{
+		if ( closeable != null )
+		{
+			try
+			{
+				closeable.close();
+			}
+			catch ( IOException e )
+			{
+				// ignore
+			}
+		}
+	}
+
+	private final SRPFactory 			fFactory;
+	private final VerifierLookup 		fLookup;
+	private final Handler 				fHandler;
+	private final SRPStreamOptions 		fOptions;
+	private final ThreadFactory 		fConnectionThreads;
+	private final Set<Socket> 			fSockets;
+	private final AtomicLong 			fAuthenticatedCount;
+	private final AtomicLong 			fResumedCount;
+	private final AtomicLong 			fFailedCount;
+	private final AtomicLong 			fAcceptFailedCount;
+	private final ScheduledThreadPoolExecutor	fDeadlines;
+	private volatile SRPTicketIssuer 	fTicketIssuer;
+	private ServerSocket 				fServerSocket;
+}
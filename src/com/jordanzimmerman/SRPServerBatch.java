@@ -0,0 +1,266 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the server side of many authentication exchanges at once: for each pending (verifier, A) a new {@link SRPServerSession} is
+ * made and {@link SRPServerSession#setClientPublicKey_A(BigInteger)}/{@link SRPServerSession#computeCommonValue_S()} are called.
+ * The results hold B, S, M(1) and K - and the session itself for validating the client's M(1) later.<br>
+ * <p>
+ * The batch is split into a few work units per thread of a {@link ForkJoinPool} so all cores stay busy even though some units
+ * finish early. Every session shares the factory's {@link SRPConstants} - and so its fixed-base table for g^b (which a batch of a
+ * few thousand builds straight away, see {@link SRPConstants}) and any {@link SRPEphemeralKeyPool}. Note: B is computed when the
+ * session is made, so it is part of the results rather than something sent before A.
+ * <p>
+ * Usage:
+ * <code><pre>
+ * SRPServerBatch batch = new SRPServerBatch(factory);
+ * SRPServerBatch.Results results = batch.process(requests);
+ * for ( SRPServerBatch.Result result : results.results ) ...
+ * </pre></code>
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.0
+ */
+public class SRPServerBatch
+{
+	/**
+	 * POJO for a pending exchange
+	 */
+	public static class Request
+	{
+		/**
+		 * @param verifier the user's verifier
+		 * @param publicKey_A A as received from the client
+		 */
+		public Request(SRPVerifier verifier, BigInteger publicKey_A)
+		{
+			this.verifier = verifier;
+			this.publicKey_A = publicKey_A;
+		}
+
+		/**
+		 * v/s
+		 */
+		public final SRPVerifier		verifier;
+
+		/**
+		 * A
+		 */
+		public final BigInteger			publicKey_A;
+	}
+
+	/**
+	 * POJO for the result of one exchange. If A was rejected (see {@link #failure}) only B is available.
+	 */
+	public static class Result
+	{
+		Result(SRPServerSession session, SRPAuthenticationFailedException failure)
+		{
+			this.session = session;
+			this.failure = failure;
+		}
+
+		/**
+		 * @return true if A was accepted - the session is ready for the client's M(1)
+		 */
+		public boolean			isSuccess()
+		{
+			return (failure == null);
+		}
+
+		/**
+		 * @return B - send to the client
+		 */
+		public BigInteger		getPublicKey_B()
+		{
+			return session.getPublicKey_B();
+		}
+
+		/**
+		 * @return S
+		 */
+		public BigInteger		getSessionCommonValue()
+		{
+			return session.getSessionCommonValue();
+		}
+
+		/**
+		 * @return M(1) expected from the client
+		 */
+		public BigInteger		getEvidenceValue_M1()
+		{
+			return session.getEvidenceValue_M1();
+		}
+
+		/**
+		 * @return K
+		 */
+		public byte[]			getSessionKey_K()
+		{
+			return session.getSessionKey_K();
+		}
+
+		/**
+		 * the session
+		 */
+		public final SRPServerSession					session;
+
+		/**
+		 * why A was rejected or null
+		 */
+		public final SRPAuthenticationFailedException	failure;
+	}
+
+	/**
+	 * POJO for the results of a batch
+	 */
+	public static class Results
+	{
+		Results(List<Result> results, long elapsedNanos)
+		{
+			this.results = results;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * @return exchanges processed per second
+		 */
+		public double			getThroughput()
+		{
+			return (elapsedNanos > 0) ? (results.size() * 1000000000.0) / elapsedNanos : 0;
+		}
+
+		/**
+		 * one result per request, in the same order
+		 */
+		public final List<Result>		results;
+
+		/**
+		 * how long the batch took
+		 */
+		public final long				elapsedNanos;
+	}
+
+	/**
+	 * Uses the common fork/join pool
+	 *
+	 * @param factory factory for the sessions
+	 */
+	public SRPServerBatch(SRPFactory factory)
+	{
+		this(factory, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param factory factory for the sessions
+	 * @param pool pool to run batches on
+	 */
+	public SRPServerBatch(SRPFactory factory, ForkJoinPool pool)
+	{
+		fFactory = factory;
+		fPool = pool;
+	}
+
+	/**
+	 * Process a batch. Returns when every request has been processed.
+	 *
+	 * @param requests pending exchanges
+	 * @return results
+	 */
+	public Results				process(List<Request> requests)
+	{
+		long			startTicks = System.nanoTime();
+		Request[]		requestArray = requests.toArray(new Request[requests.size()]);
+		Result[]		resultArray = new Result[requestArray.length];
+		if ( requestArray.length > 0 )
+		{
+			int		unitSize = Math.max(1, requestArray.length / (UNITS_PER_THREAD * fPool.getParallelism()));
+			fPool.invoke(new Unit(fFactory, requestArray, resultArray, 0, requestArray.length, unitSize));
+		}
+		return new Results(Collections.unmodifiableList(Arrays.asList(resultArray)), System.nanoTime() - startTicks);
+	}
+
+	private static final int		UNITS_PER_THREAD = 4;
+
+	/**
+	 * A range of the batch - split in half until it is no bigger than the unit size
+	 */
+	private static class Unit extends RecursiveAction
+	{
+		Unit(SRPFactory factory, Request[] requests, Result[] results, int start, int end, int unitSize)
+		{
+			fFactory = factory;
+			fRequests = requests;
+			fResults = results;
+			fStart = start;
+			fEnd = end;
+			fUnitSize = unitSize;
+		}
+
+		@Override
+		protected void			compute()
+		{
+			if ( (fEnd - fStart) > fUnitSize )
+			{
+				int		middle = (fStart + fEnd) >>> 1;
+				invokeAll(new Unit(fFactory, fRequests, fResults, fStart, middle, fUnitSize), new Unit(fFactory, fRequests, fResults, middle, fEnd, fUnitSize));
+				return;
+			}
+
+			for ( int i = fStart; i < fEnd; ++i )
+			{
+				fResults[i] = processOne(fFactory, fRequests[i]);
+			}
+		}
+
+		// units are never serialized - RecursiveAction is Serializable by way of ForkJoinTask
+		private static final long		serialVersionUID = 1L;
+
+		private final SRPFactory 	fFactory;
+		private final Request[] 	fRequests;
+		private final Result[] 		fResults;
+		private final int 			fStart;
+		private final int 			fEnd;
+		private final int 			fUnitSize;
+	}
+
+	private static Result		processOne(SRPFactory factory, Request request)
+	{
+		SRPServerSession		session = factory.newServerSession(request.verifier);
+		try
+		{
+			session.setClientPublicKey_A(request.publicKey_A);
+			session.computeCommonValue_S();
+			return new Result(session, null);
+		}
+		catch ( SRPAuthenticationFailedException e )
+		{
+			return new Result(session, e);
+		}
+	}
+
+	private final SRPFactory 		fFactory;
+	private final ForkJoinPool 		fPool;
+}
@@ -22,6 +22,11 @@ import java.math.BigInteger;
  *
  * @author Jordan Zimmerman - jordan@jordanzimmerman.com
  * @see SRPFactory Full Documentation
+ * @version 1.9 getEvidenceValue_M1() - 10/16/26
+ * @version 1.8 u, M(1) and M(2) use the {@link SRPConstants} hash function - 10/16/26
+ * @version 1.7 B reduced mod N (an unreduced B exposed the high bits of kv). S computed from operands reduced mod N - 10/16/26
+ * @version 1.6 b/g^b taken from {@link SRPEphemeralKeyPool} when one is open - 10/16/26
+ * @version 1.5 g^b via {@link SRPConstants} fixed-base table - 10/16/26
  * @version 1.4 Make sure safeguards are checked: abort if A == 0 (mod N) or u == 0 - 2/27/07
  * @version 1.3 Updated to use the SRP-6 spec 2/21/07
  * @version 1.2
@@ -36,15 +41,17 @@ public class SRPServerSession
 	{
 		fConstants = constants;
 		fVerifier = verifier;
-		fRandom_b = SRPUtils.random(fConstants);
+		SRPEphemeralKeyPool.Key		ephemeralKey = fConstants.newEphemeralKey();
+		fRandom_b = ephemeralKey.random;
 		fSRP6_u = null;
 		fPublicKey_A = null;
+		fReducedPublicKey_A = null;
 		fCommonValue_S = null;
 		fEvidenceValue_M1 = null;
 		fSessionKey_K = null;
 
-		// B = 3v + g^b
-		fPublicKey_B = fVerifier.verifier_v.multiply(constants.srp6Multiplier_k).add(fConstants.primitiveRoot_g.modPow(fRandom_b, fConstants.largePrime_N));
+		// B = kv + g^b (mod N) - clients compute B - kg^x mod N so the reduced value works with them too
+		fPublicKey_B = fVerifier.verifier_v.multiply(constants.srp6Multiplier_k).add(ephemeralKey.publicValue).mod(fConstants.largePrime_N);
 	}
 
 	/**
@@ -55,13 +62,16 @@ public class SRPServerSession
 	 */
 	public void				setClientPublicKey_A(BigInteger publicKey_A) throws SRPAuthenticationFailedException
 	{
-		if ( publicKey_A.mod(fConstants.largePrime_N).equals(BigInteger.ZERO) )
+		BigInteger		reducedPublicKey_A = publicKey_A.mod(fConstants.largePrime_N);
+		if ( reducedPublicKey_A.equals(BigInteger.ZERO) )
 		{
 			throw new SRPAuthenticationFailedException("A%N == 0");
 		}
 
+		// A as sent is what's hashed - the reduced value is used for S
 		fPublicKey_A = publicKey_A;
-		fSRP6_u = SRPUtils.calc_u(fPublicKey_A, fPublicKey_B);
+		fReducedPublicKey_A = reducedPublicKey_A;
+		fSRP6_u = SRPUtils.calc_u(fConstants, fPublicKey_A, fPublicKey_B);
 		if ( fSRP6_u.mod(fConstants.largePrime_N).equals(BigInteger.ZERO) )
 		{
 			throw new SRPAuthenticationFailedException("u%N == 0");
@@ -88,9 +98,12 @@ public class SRPServerSession
 			throw new IllegalStateException("setClientPublicKey_A() has not been called yet.");
 		}
 
-		// S = (A  v^u)^b
-		fCommonValue_S = fPublicKey_A.multiply(fVerifier.verifier_v.modPow(fSRP6_u, fConstants.largePrime_N)).modPow(fRandom_b, fConstants.largePrime_N);
-		fEvidenceValue_M1 = SRPUtils.calcM1(fPublicKey_A, fPublicKey_B, fCommonValue_S);
+		// S = (A  v^u)^b - the base is reduced mod N before the exponentiation by b. u is only as long as the hash so v^u is the
+		// cheaper of the two exponentiations. Note: computing A^b  v^(ub) instead (Shamir's trick) would need two full length
+		// exponents and so would be slower.
+		BigInteger		base = fReducedPublicKey_A.multiply(fVerifier.verifier_v.modPow(fSRP6_u, fConstants.largePrime_N)).mod(fConstants.largePrime_N);
+		fCommonValue_S = base.modPow(fRandom_b, fConstants.largePrime_N);
+		fEvidenceValue_M1 = SRPUtils.calcM1(fConstants, fPublicKey_A, fPublicKey_B, fCommonValue_S);
 
 		// the MD5 output is the same as the AES key length
 		fSessionKey_K = SRPUtils.hashToBytesMD5(fCommonValue_S);
@@ -127,7 +140,22 @@ public class SRPServerSession
 			throw new IllegalStateException("computeCommonValue_S() has not been called yet.");
 		}
 
-		return SRPUtils.calcM2(fPublicKey_A, fEvidenceValue_M1, fCommonValue_S);
+		return SRPUtils.calcM2(fConstants, fPublicKey_A, fEvidenceValue_M1, fCommonValue_S);
+	}
+
+	/**
+	 * Returns the M(1) that the client must send - e.g. for {@link SRPServerBatch} results
+	 *
+	 * @return M(1)
+	 */
+	public BigInteger		getEvidenceValue_M1()
+	{
+		if ( fEvidenceValue_M1 == null )
+		{
+			throw new IllegalStateException("computeCommonValue_S() has not been called yet.");
+		}
+
+		return fEvidenceValue_M1;
 	}
 
 	/**
@@ -165,6 +193,7 @@ public class SRPServerSession
 	private BigInteger 			fRandom_b;
 	private BigInteger 			fSRP6_u;
 	private BigInteger 			fPublicKey_A;
+	private BigInteger 			fReducedPublicKey_A;
 	private BigInteger 			fPublicKey_B;
 	private BigInteger 			fCommonValue_S;
 	private byte[]	 			fSessionKey_K;
@@ -22,11 +22,12 @@ import java.math.BigInteger;
  *
  * @author Jordan Zimmerman - jordan@jordanzimmerman.com
  * @see SRPFactory Full Documentation
+ * @version 1.4 Implements {@link SRPRunnerCapabilities} - 10/16/26
  * @version 1.3 Some session methods now throw an authentication exception instead of returning true/false 2/21/07
  * @version 1.2 Updated to use the SRP-6 spec 2/21/07
  * @version 1.1
  */
-public class SRPServerSessionRunner implements SRPRunner
+public class SRPServerSessionRunner implements SRPRunner, SRPRunnerCapabilities
 {
 	public SRPServerSessionRunner(SRPServerSession session)
 	{
@@ -119,6 +120,31 @@ public class SRPServerSessionRunner implements SRPRunner
 		return fSession.getSessionKey_K();
 	}
 
+	public boolean				isServer()
+	{
+		return true;
+	}
+
+	public boolean				sendsBeforeHello()
+	{
+		return false;
+	}
+
+	public boolean				canPipeline()
+	{
+		return false;
+	}
+
+	public boolean				holdsHello()
+	{
+		return true;
+	}
+
+	public void					agreed(boolean pipelined) throws SRPAuthenticationFailedException
+	{
+		// nothing to do - this runner never does the pipelined exchange
+	}
+
 	private enum State
 	{
 		OUTPUT_S,
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.nio.ByteBuffer;
+
+/**
+ * An authenticated session as produced by {@link SRPAsyncHandshake}. Data is encrypted/decrypted with the session's
+ * {@link SRPEngine} - its handshake is complete so {@link SRPEngine#wrap(ByteBuffer, ByteBuffer)} and
+ * {@link SRPEngine#unwrap(ByteBuffer, ByteBuffer)} work on data blocks straight away.<br>
+ * <p>
+ * The corresponding client/server may have sent data blocks right behind its last authentication value. Those bytes have
+ * already been read from the channel and are in {@link #getInbound()} - unwrap them before anything read later.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.0
+ */
+public class SRPSession
+{
+	SRPSession(SRPEngine engine, ByteBuffer inbound, byte[] sessionKey)
+	{
+		fEngine = engine;
+		fInbound = inbound;
+		fSessionKey = sessionKey;
+	}
+
+	/**
+	 * @return the engine for encrypting/decrypting data blocks
+	 */
+	public SRPEngine		getEngine()
+	{
+		return fEngine;
+	}
+
+	/**
+	 * Returns the bytes that were received after the authentication exchange, ready to be passed to
+	 * {@link SRPEngine#unwrap(ByteBuffer, ByteBuffer)}. The buffer has room for {@link SRPEngine#getPacketBufferSize()} bytes
+	 * so it can be used as the inbound buffer from now on.
+	 *
+	 * @return inbound bytes (position to limit)
+	 */
+	public ByteBuffer		getInbound()
+	{
+		return fInbound;
+	}
+
+	/**
+	 * The 16 byte session key - K
+	 *
+	 * @return session key
+	 */
+	public byte[]			getSessionKey()
+	{
+		return fSessionKey;
+	}
+
+	private final SRPEngine 	fEngine;
+	private final ByteBuffer 	fInbound;
+	private final byte[] 		fSessionKey;
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Runs the authentication exchange for an {@link SRPInputStream}/{@link SRPOutputStream} pair. The negotiation pieces are also
+ * used by {@link SRPChannel}.<br>
+ * <p>
+ * For non-legacy options, each end first writes a hello (always in {@link SRPFraming#HEX} so that it can be read before anything
+ * has been agreed on) and reads the hello of the other end. The hello is: 4 bytes of magic, a version byte, a bit mask of the
+ * acceptable framings, a bit mask of the acceptable cipher suites (bit = 1 &lt;&lt; ordinal), 8 random bytes and a flags byte. Both
+ * ends then pick the same options from what they have in common.
+ * <p>
+ * The hello is sent in the clear so the session doesn't use K directly: each direction has its own key - a hash of K, the
+ * direction and a hash of both hellos (client's first). A hello that was changed on the way gives the two ends different keys and
+ * the session fails instead of running with options (or random bytes) that neither end chose. The client always sends in
+ * direction 0 and the server in direction 1 (see {@link SRPFrameCipher}) - {@link #FLAG_SERVER} makes sure that the two ends
+ * don't both think they are the client or the server. Hellos older than version 4 are refused.
+ * <p>
+ * What each runner does comes from {@link SRPRunnerCapabilities}. With a pipelined runner (see {@link SRPRunnerCapabilities#sendsBeforeHello()}) each end sends its hello and starts the exchange straight away.
+ * The exchange values are then in {@link SRPFraming#HEX} as nothing has been agreed when the first of them are sent. The hello of
+ * the other end is read before its first exchange value and the agreed framing and cipher suite apply from the session on. Ends
+ * that can do the pipelined exchange set {@link #FLAG_PIPELINED} - a pipelined runner fails if the other end doesn't and an
+ * {@link SRPAdaptiveServerRunner} does the pipelined exchange if the client sets it.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.6 Runners are queried through {@link SRPRunnerCapabilities} - 10/16/26
+ * @version 1.5 Direction from the client/server role. Separate keys for each direction derived from K and the hellos - 10/16/26
+ * @version 1.4 Hello flags byte - pipelined exchanges are agreed on. Servers send their hello with their first values - 10/16/26
+ * @version 1.3 Pipelined runners don't wait for the hello. Values in a row are flushed together - 10/16/26
+ * @version 1.2 Negotiation usable without streams - 10/16/26
+ * @version 1.1 Added cipher suites - 10/16/26
+ * @version 1.0
+ */
+class SRPStreamHandshake
+{
+	/**
+	 * Negotiate the options, run the runner to completion and start the session on both streams
+	 *
+	 * @param runner A session runner
+	 * @param options options to negotiate
+	 * @param in input stream from the corresponding client/server
+	 * @param out output stream to the corresponding client/server
+	 * @throws IOException if authentication fails or there is an I/O error
+	 */
+	static void			run(SRPRunner runner, SRPStreamOptions options, SRPInputStream in, SRPOutputStream out) throws IOException
+	{
+		Agreement		agreement = LEGACY_AGREEMENT;
+		byte[]			hello = null;
+		if ( !options.isLegacy() )
+		{
+			hello = makeHello(options, canPipeline(runner), isServer(runner));
+			out.writeAuthenticationValue(new BigInteger(hello));
+			if ( !isPipelined(runner) )
+			{
+				if ( !holdsHello(runner) )
+				{
+					out.flushAuthentication();
+				}
+				agreement = agree(hello, in.readAuthenticationValue(true), isServer(runner));
+				hello = null;
+				agreed(runner, agreement);
+				if ( !agreement.pipelined )
+				{
+					in.setFraming(agreement.framing);
+					out.setFraming(agreement.framing);
+				}
+			}
+		}
+
+		// values are only flushed when there's a value to wait for - values in a row go together
+		while ( runner.next() )
+		{
+			if ( runner.hasOutput() )
+			{
+				out.writeAuthenticationValue(runner.getOutput());
+			}
+
+			if ( runner.needsInput() )
+			{
+				out.flushAuthentication();
+				if ( hello != null )
+				{
+					// pipelined - the hello of the other end is the first thing it sent
+					agreement = agree(hello, in.readAuthenticationValue(true), isServer(runner));
+					hello = null;
+					agreed(runner, agreement);
+				}
+				runner.setInput(in.readAuthenticationValue(true));
+			}
+		}
+		out.flushAuthentication();
+
+		if ( hello != null )
+		{
+			agreement = agree(hello, in.readAuthenticationValue(true), isServer(runner));
+			agreed(runner, agreement);
+		}
+		in.setFraming(agreement.framing);
+		out.setFraming(agreement.framing);
+
+		checkSuccess(runner);
+
+		byte[]		sessionKey = runner.getSessionKey();
+		int			receiveDirection = 1 - agreement.sendDirection;
+		in.startSession(agreement.makeKey(sessionKey, receiveDirection), agreement.cipherSuite, receiveDirection);
+		out.startSession(agreement.makeKey(sessionKey, agreement.sendDirection), agreement.cipherSuite, agreement.sendDirection);
+	}
+
+	/**
+	 * @param runner the runner
+	 * @return true if the runner is the server end of the exchange - see {@link SRPRunnerCapabilities#isServer()}
+	 */
+	static boolean		isServer(SRPRunner runner)
+	{
+		return getCapabilities(runner).isServer();
+	}
+
+	/**
+	 * @param runner the runner
+	 * @return true if the runner is pipelined - see {@link SRPRunnerCapabilities#sendsBeforeHello()}
+	 */
+	static boolean		isPipelined(SRPRunner runner)
+	{
+		return getCapabilities(runner).sendsBeforeHello();
+	}
+
+	/**
+	 * @param runner the runner
+	 * @return true if the runner is a server that holds its hello back - see {@link SRPRunnerCapabilities#holdsHello()}
+	 */
+	static boolean		holdsHello(SRPRunner runner)
+	{
+		return getCapabilities(runner).holdsHello();
+	}
+
+	/**
+	 * @param runner the runner
+	 * @return true if the runner can do the pipelined exchange - see {@link SRPRunnerCapabilities#canPipeline()}
+	 */
+	static boolean		canPipeline(SRPRunner runner)
+	{
+		return getCapabilities(runner).canPipeline();
+	}
+
+	/**
+	 * Called once the options are agreed on - see {@link SRPRunnerCapabilities#agreed(boolean)}
+	 *
+	 * @param runner the runner
+	 * @param agreement the agreed options
+	 * @throws SRPAuthenticationFailedException if the runner can't run the agreed exchange
+	 */
+	static void			agreed(SRPRunner runner, Agreement agreement) throws SRPAuthenticationFailedException
+	{
+		getCapabilities(runner).agreed(agreement.pipelined);
+	}
+
+	/**
+	 * The options that both ends picked
+	 */
+	static class Agreement
+	{
+		Agreement(SRPFraming framing, SRPCipherSuite cipherSuite, int sendDirection, boolean pipelined, byte[] hellosHash)
+		{
+			this.framing = framing;
+			this.cipherSuite = cipherSuite;
+			this.sendDirection = sendDirection;
+			this.pipelined = pipelined;
+			fHellosHash = hellosHash;
+		}
+
+		/**
+		 * Make the key for one direction of the session: H(direction | K | H(client hello | server hello)) cut to the length of
+		 * K. The legacy agreement has no hellos and uses K for both directions.
+		 *
+		 * @param sessionKey K
+		 * @param direction {@link #CLIENT_DIRECTION} or {@link #SERVER_DIRECTION}
+		 * @return key bytes
+		 */
+		byte[]					makeKey(byte[] sessionKey, int direction)
+		{
+			if ( fHellosHash == null )
+			{
+				return sessionKey;
+			}
+
+			byte[]		input = new byte[1 + sessionKey.length + fHellosHash.length];
+			input[0] = (byte)direction;
+			System.arraycopy(sessionKey, 0, input, 1, sessionKey.length);
+			System.arraycopy(fHellosHash, 0, input, 1 + sessionKey.length, fHellosHash.length);
+			byte[]		hash = SRPUtils.sha256(input);
+			return Arrays.copyOf(hash, Math.min(sessionKey.length, hash.length));
+		}
+
+		final SRPFraming		framing;
+		final SRPCipherSuite	cipherSuite;
+		final int				sendDirection;
+
+		/**
+		 * true if both ends can do the pipelined exchange - exchange values are then in hex
+		 */
+		final boolean			pipelined;
+
+		private final byte[]	fHellosHash;
+	}
+
+	/**
+	 * What {@link SRPStreamOptions#LEGACY} always uses - no hello is exchanged
+	 */
+	static final Agreement		LEGACY_AGREEMENT = new Agreement(SRPFraming.HEX, SRPCipherSuite.AES_ECB, SRPStreamHandshake.CLIENT_DIRECTION, false, null);
+
+	/**
+	 * Make the hello to send. It is sent as an authentication value in {@link SRPFraming#HEX}.
+	 *
+	 * @param options options to negotiate
+	 * @param pipelined true to set {@link #FLAG_PIPELINED}
+	 * @param server true to set {@link #FLAG_SERVER}
+	 * @return hello bytes
+	 */
+	static byte[]		makeHello(SRPStreamOptions options, boolean pipelined, boolean server)
+	{
+		int			cipherSuites = 0;
+		for ( SRPCipherSuite suite : options.cipherSuites )
+		{
+			if ( suite.isAvailable() )
+			{
+				cipherSuites |= 1 << suite.ordinal();
+			}
+		}
+
+		byte[]		hello = new byte[HELLO_SIZE];
+		System.arraycopy(HELLO_MAGIC, 0, hello, 0, HELLO_MAGIC.length);
+		hello[VERSION_INDEX] = HELLO_VERSION;
+		hello[FRAMINGS_INDEX] = (byte)toMask(options.framings);
+		hello[CIPHER_SUITES_INDEX] = (byte)cipherSuites;
+		byte[]		random = new byte[RANDOM_LENGTH];
+		fRandom.nextBytes(random);
+		System.arraycopy(random, 0, hello, RANDOM_INDEX, random.length);
+		hello[FLAGS_INDEX] = (byte)((pipelined ? FLAG_PIPELINED : 0) | (server ? FLAG_SERVER : 0));
+		return hello;
+	}
+
+	/**
+	 * Pick the options from the two hellos. Both ends pick the same options.
+	 *
+	 * @param hello the hello that was sent
+	 * @param peerHelloValue the hello that was received
+	 * @param server true if this end is the server
+	 * @return the agreed options
+	 * @throws SRPAuthenticationFailedException if the received hello is bad, both ends have the same role or there is nothing in common
+	 */
+	static Agreement		agree(byte[] hello, BigInteger peerHelloValue, boolean server) throws SRPAuthenticationFailedException
+	{
+		byte[]			peerHello = parseHello(peerHelloValue);
+		if ( ((peerHello[FLAGS_INDEX] & FLAG_SERVER) != 0) == server )
+		{
+			throw new SRPAuthenticationFailedException("Corresponding client/server has the same role: " + (server ? "server" : "client"));
+		}
+
+		SRPFraming		framing = choose(FRAMING_PREFERENCE, hello[FRAMINGS_INDEX] & peerHello[FRAMINGS_INDEX], "framing");
+		SRPCipherSuite	suite = choose(CIPHER_SUITE_PREFERENCE, hello[CIPHER_SUITES_INDEX] & peerHello[CIPHER_SUITES_INDEX], "cipher suite");
+		boolean			pipelined = (hello[FLAGS_INDEX] & peerHello[FLAGS_INDEX] & FLAG_PIPELINED) != 0;
+		byte[]			hellosHash = server ? hashHellos(peerHello, hello) : hashHellos(hello, peerHello);
+		return new Agreement(framing, suite, server ? SERVER_DIRECTION : CLIENT_DIRECTION, pipelined, hellosHash);
+	}
+
+	/**
+	 * Throws if the runner finished without authenticating
+	 *
+	 * @param runner the finished runner
+	 * @throws SRPAuthenticationFailedException if authentication failed
+	 */
+	static void			checkSuccess(SRPRunner runner) throws SRPAuthenticationFailedException
+	{
+		if ( !runner.success() )
+		{
+			throw new SRPAuthenticationFailedException("Authentication failed.");
+		}
+	}
+
+	private static SRPRunnerCapabilities	getCapabilities(SRPRunner runner)
+	{
+		return (runner instanceof SRPRunnerCapabilities) ? (SRPRunnerCapabilities)runner : CLIENT_CAPABILITIES;
+	}
+
+	private static byte[]		parseHello(BigInteger peerHelloValue) throws SRPAuthenticationFailedException
+	{
+		byte[]		hello = peerHelloValue.toByteArray();
+		if ( hello.length < VERSION_INDEX + 1 )
+		{
+			throw new SRPAuthenticationFailedException("Corresponding client/server did not send a hello");
+		}
+		for ( int i = 0; i < HELLO_MAGIC.length; ++i )
+		{
+			if ( hello[i] != HELLO_MAGIC[i] )
+			{
+				throw new SRPAuthenticationFailedException("Corresponding client/server did not send a hello");
+			}
+		}
+
+		// older hellos aren't bound to the session keys - refuse them rather than fall back to something that can be downgraded
+		if ( (hello[VERSION_INDEX] < HELLO_VERSION) || (hello.length < HELLO_SIZE) )
+		{
+			throw new SRPAuthenticationFailedException("Corresponding client/server uses an older hello: version " + hello[VERSION_INDEX]);
+		}
+		return hello;
+	}
+
+	private static <T extends Enum<T>> T		choose(T[] preference, int common, String name) throws SRPAuthenticationFailedException
+	{
+		for ( T value : preference )
+		{
+			if ( (common & (1 << value.ordinal())) != 0 )
+			{
+				return value;
+			}
+		}
+		throw new SRPAuthenticationFailedException("No " + name + " in common with the corresponding client/server");
+	}
+
+	private static byte[]	hashHellos(byte[] clientHello, byte[] serverHello)
+	{
+		byte[]		both = new byte[clientHello.length + serverHello.length];
+		System.arraycopy(clientHello, 0, both, 0, clientHello.length);
+		System.arraycopy(serverHello, 0, both, clientHello.length, serverHello.length);
+		return SRPUtils.sha256(both);
+	}
+
+	private static int		toMask(Iterable<? extends Enum<?>> values)
+	{
+		int		mask = 0;
+		for ( Enum<?> value : values )
+		{
+			mask |= 1 << value.ordinal();
+		}
+		return mask;
+	}
+
+	private SRPStreamHandshake()
+	{
+	}
+
+	/**
+	 * Hello flag: this end can do the pipelined exchange
+	 */
+	static final int					FLAG_PIPELINED = 1;
+
+	/**
+	 * Hello flag: this end is the server
+	 */
+	static final int					FLAG_SERVER = 2;
+
+	/**
+	 * Data blocks from the client
+	 */
+	static final int					CLIENT_DIRECTION = 0;
+
+	/**
+	 * Data blocks from the server
+	 */
+	static final int					SERVER_DIRECTION = 1;
+
+	private static final byte[]			HELLO_MAGIC = {'S', 'R', 'P', '!'};
+	private static final byte			HELLO_VERSION = 4;
+	private static final int			VERSION_INDEX = HELLO_MAGIC.length;
+	private static final int			FRAMINGS_INDEX = VERSION_INDEX + 1;
+	private static final int			CIPHER_SUITES_INDEX = FRAMINGS_INDEX + 1;
+	private static final int			RANDOM_INDEX = CIPHER_SUITES_INDEX + 1;
+	private static final int			RANDOM_LENGTH = 8;
+	private static final int			FLAGS_INDEX = RANDOM_INDEX + RANDOM_LENGTH;
+	private static final int			HELLO_SIZE = FLAGS_INDEX + 1;
+
+	private static final SRPFraming[]		FRAMING_PREFERENCE = {SRPFraming.BINARY, SRPFraming.HEX};
+	private static final SRPCipherSuite[]	CIPHER_SUITE_PREFERENCE = {SRPCipherSuite.AES_GCM, SRPCipherSuite.CHACHA20_POLY1305, SRPCipherSuite.AES_ECB};
+
+	private static final SecureRandom 		fRandom = new SecureRandom();
+
+	// for runners that don't implement SRPRunnerCapabilities - e.g. SRPClientSessionRunner
+	private static final SRPRunnerCapabilities	CLIENT_CAPABILITIES = new SRPRunnerCapabilities()
+	{
+		public boolean isServer()
+		{
+			return false;
+		}
+
+		public boolean sendsBeforeHello()
+		{
+			return false;
+		}
+
+		public boolean canPipeline()
+		{
+			return false;
+		}
+
+		public boolean holdsHello()
+		{
+			return false;
+		}
+
+		public void agreed(boolean pipelined)
+		{
+			// nothing to do
+		}
+	};
+}
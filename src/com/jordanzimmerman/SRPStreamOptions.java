@@ -0,0 +1,98 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * POJO for holding the protocol options that {@link SRPInputStream}/{@link SRPOutputStream} will accept.<br>
+ * <p>
+ * With {@link #LEGACY} (what the two argument authenticate() methods use) the streams speak the original protocol
+ * and interoperate with peers that know nothing about options. With any other options, both ends first exchange a hello
+ * listing what they accept and then use the best choice that both have in common. Both ends must therefore be configured with
+ * non-legacy options.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @version 1.1 {@link #ALL} no longer includes {@link SRPCipherSuite#AES_ECB} - 10/16/26
+ * @version 1.0
+ */
+public class SRPStreamOptions
+{
+	/**
+	 * The original protocol - no hello is exchanged
+	 */
+	public static final SRPStreamOptions		LEGACY = new SRPStreamOptions(EnumSet.of(SRPFraming.HEX), EnumSet.of(SRPCipherSuite.AES_ECB));
+
+	/**
+	 * Accept every framing and every cipher that has an integrity check, preferring the most efficient.
+	 * {@link SRPCipherSuite#AES_ECB} is left out - it has no integrity check and is meant for {@link #LEGACY} peers.
+	 */
+	public static final SRPStreamOptions		ALL = new SRPStreamOptions(EnumSet.allOf(SRPFraming.class), EnumSet.of(SRPCipherSuite.AES_GCM, SRPCipherSuite.CHACHA20_POLY1305));
+
+	/**
+	 * Uses only the legacy cipher: {@link SRPCipherSuite#AES_ECB}
+	 *
+	 * @param framings the framings that are acceptable. When both ends accept more than one, {@link SRPFraming#BINARY} is preferred.
+	 */
+	public SRPStreamOptions(Set<SRPFraming> framings)
+	{
+		this(framings, EnumSet.of(SRPCipherSuite.AES_ECB));
+	}
+
+	/**
+	 * @param framings the framings that are acceptable. When both ends accept more than one, {@link SRPFraming#BINARY} is preferred.
+	 * @param cipherSuites the ciphers that are acceptable. Ciphers that the installed JCE doesn't provide are ignored. When both
+	 * ends accept more than one, the order of preference is {@link SRPCipherSuite#AES_GCM}, {@link SRPCipherSuite#CHACHA20_POLY1305}
+	 * and then {@link SRPCipherSuite#AES_ECB}.
+	 */
+	public SRPStreamOptions(Set<SRPFraming> framings, Set<SRPCipherSuite> cipherSuites)
+	{
+		if ( framings.isEmpty() )
+		{
+			throw new IllegalArgumentException("At least one framing must be specified");
+		}
+		if ( cipherSuites.isEmpty() )
+		{
+			throw new IllegalArgumentException("At least one cipher suite must be specified");
+		}
+
+		this.framings = Collections.unmodifiableSet(EnumSet.copyOf(framings));
+		this.cipherSuites = Collections.unmodifiableSet(EnumSet.copyOf(cipherSuites));
+	}
+
+	/**
+	 * acceptable framings
+	 */
+	public final Set<SRPFraming>		framings;
+
+	/**
+	 * acceptable ciphers
+	 */
+	public final Set<SRPCipherSuite>	cipherSuites;
+
+	/**
+	 * Returns true if these options describe the original protocol
+	 *
+	 * @return true/false
+	 */
+	boolean			isLegacy()
+	{
+		return framings.equals(LEGACY.framings) && cipherSuites.equals(LEGACY.cipherSuites);
+	}
+}
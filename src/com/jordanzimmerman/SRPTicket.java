@@ -0,0 +1,215 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * Client side of session resumption: a ticket issued by an {@link SRPTicketIssuer} plus the resumption secret that goes with it.
+ * Pass it to an {@link SRPResumeClientRunner} to get a new session without a full authentication exchange.<br>
+ * <p>
+ * The resumption secret is derived from the session key K of the session the ticket was issued in - both ends derive it, it is
+ * never sent. The ticket itself is opaque to the client apart from the user name and expiration, which are in the clear (but
+ * can't be changed - the issuer authenticates them).
+ * <p>
+ * Tickets can only be used once. Every resumed session should be given a new ticket.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @see SRPTicketIssuer
+ * @version 1.0
+ */
+public class SRPTicket
+{
+	/**
+	 * @param ticket the ticket bytes as returned by {@link SRPTicketIssuer#issueTicket(String, SRPRunner)}
+	 * @param runner the (successful) client runner of the session that the ticket was issued in
+	 * @throws IllegalArgumentException if the ticket is malformed
+	 */
+	public SRPTicket(byte[] ticket, SRPRunner runner)
+	{
+		this(ticket.clone(), makeResumptionSecret(runner.getSessionKey()));
+	}
+
+	/**
+	 * @return the ticket bytes
+	 */
+	public byte[]			getTicket()
+	{
+		return fTicket.clone();
+	}
+
+	/**
+	 * @return the user name the ticket was issued to
+	 */
+	public String			getUserName()
+	{
+		return fUserName;
+	}
+
+	/**
+	 * @return when the ticket expires - milliseconds since the epoch
+	 */
+	public long				getExpiration()
+	{
+		return fExpiration;
+	}
+
+	/**
+	 * @return true if the ticket has expired and can't be used
+	 */
+	public boolean			isExpired()
+	{
+		return System.currentTimeMillis() >= fExpiration;
+	}
+
+	/**
+	 * @param ticket ticket bytes
+	 * @param resumptionSecret the resumption secret or null if not known (server side, before the ticket is decrypted)
+	 */
+	SRPTicket(byte[] ticket, byte[] resumptionSecret)
+	{
+		fTicket = ticket;
+		fResumptionSecret = resumptionSecret;
+		try
+		{
+			ByteBuffer		buffer = ByteBuffer.wrap(ticket);
+			int				version = buffer.get() & 0xff;
+			if ( version != TICKET_VERSION )
+			{
+				throw new IllegalArgumentException("Unknown ticket version: " + version);
+			}
+			fExpiration = buffer.getLong();
+			byte[]			userName = new byte[buffer.getShort() & 0xffff];
+			buffer.get(userName);
+			fUserName = new String(userName, StandardCharsets.UTF_8);
+			fHeaderLength = buffer.position();
+			if ( buffer.remaining() != (NONCE_LENGTH + SECRET_LENGTH + TAG_LENGTH) )
+			{
+				throw new IllegalArgumentException("Bad ticket length");
+			}
+		}
+		catch ( BufferUnderflowException e )
+		{
+			throw new IllegalArgumentException("Bad ticket length");
+		}
+	}
+
+	byte[]					getResumptionSecret()
+	{
+		return fResumptionSecret;
+	}
+
+	/**
+	 * @return the length of the part of the ticket that is in the clear (version, expiration and user name)
+	 */
+	int						getHeaderLength()
+	{
+		return fHeaderLength;
+	}
+
+	/**
+	 * The secret that resumed sessions are derived from: HMAC-SHA256(K, "SRP resumption")
+	 *
+	 * @param sessionKey K
+	 * @return resumption secret
+	 */
+	static byte[]			makeResumptionSecret(byte[] sessionKey)
+	{
+		return hmac(sessionKey, RESUMPTION_LABEL);
+	}
+
+	/**
+	 * Derive a value of a resumed session: HMAC-SHA256(resumption secret, label | client nonce | server nonce)
+	 *
+	 * @param resumptionSecret the resumption secret
+	 * @param label what's derived - one of the *_LABEL values
+	 * @param clientNonce client's random bytes
+	 * @param serverNonce server's random bytes
+	 * @return the value
+	 */
+	static byte[]			derive(byte[] resumptionSecret, byte[] label, byte[] clientNonce, byte[] serverNonce)
+	{
+		return hmac(resumptionSecret, label, clientNonce, serverNonce);
+	}
+
+	/**
+	 * HMAC-SHA256 of the concatenation of the given byte arrays
+	 *
+	 * @param key the key
+	 * @param parts bytes to authenticate
+	 * @return the MAC
+	 */
+	static byte[]			hmac(byte[] key, byte[]... parts)
+	{
+		try
+		{
+			Mac			mac = fMacs.get();
+			mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+			for ( byte[] part : parts )
+			{
+				mac.update(part);
+			}
+			return mac.doFinal();
+		}
+		catch ( GeneralSecurityException e )
+		{
+			throw new UnsupportedOperationException(e);
+		}
+	}
+
+	static final byte[]		KEY_LABEL = "SRP resumed key".getBytes(StandardCharsets.US_ASCII);
+	static final byte[]		CLIENT_PROOF_LABEL = "SRP resumed client".getBytes(StandardCharsets.US_ASCII);
+	static final byte[]		SERVER_PROOF_LABEL = "SRP resumed server".getBytes(StandardCharsets.US_ASCII);
+
+	static final int		RESUME_NONCE_LENGTH = 16;
+	static final int		SESSION_KEY_LENGTH = 16;
+	static final int		PROOF_LENGTH = 32;
+
+	static final int		TICKET_VERSION = 1;
+	static final int		NONCE_LENGTH = 12;
+	static final int		SECRET_LENGTH = 32;
+	static final int		TAG_LENGTH = 16;
+
+	private static final String		HMAC_ALGORITHM = "HmacSHA256";
+	private static final byte[]		RESUMPTION_LABEL = "SRP resumption".getBytes(StandardCharsets.US_ASCII);
+
+	private static final ThreadLocal<Mac>	fMacs = new ThreadLocal<Mac>()
+	{
+		protected Mac initialValue()
+		{
+			try
+			{
+				return Mac.getInstance(HMAC_ALGORITHM);
+			}
+			catch ( GeneralSecurityException e )
+			{
+				throw new UnsupportedOperationException(e);
+			}
+		}
+	};
+
+	private final byte[] 		fTicket;
+	private final byte[] 		fResumptionSecret;
+	private final long 			fExpiration;
+	private final String 		fUserName;
+	private final int 			fHeaderLength;
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server side of session resumption. After a full authentication exchange the server issues a ticket to the client. A client that
+ * presents the ticket (see {@link SRPResumeClientRunner}/{@link SRPResumeServerRunner}) gets a new session key in one round trip
+ * with no exponentiation - only HMACs.<br>
+ * <p>
+ * Tickets are not kept by the server. A ticket holds the user name, an expiration time and the resumption secret (derived from the
+ * session key, see {@link SRPTicket}) encrypted with AES-GCM under a random key made when the issuer is made. So tickets are only
+ * good for the issuer that made them - share one issuer among all connections of a server.
+ * <code><pre>
+ * [version - 1 byte][expiration - 8 bytes][user name length - 2 bytes][user name - UTF-8][nonce - 12 bytes][encrypted secret + tag - 48 bytes]
+ * </pre></code>
+ * Each ticket can be used once. A ticket is only used up once the client has proven it holds the ticket's secret - so replaying a
+ * ticket that was seen on the wire can't burn it. Used tickets are remembered (by nonce) until they have expired so that they can't be replayed. The
+ * number remembered is bounded: when it is full (and nothing has expired), tickets are turned down until there's room and clients
+ * must do a full exchange.
+ * <p>
+ * Usage:
+ * <code><pre>
+ * SRPTicketIssuer issuer = new SRPTicketIssuer(TimeUnit.HOURS.toMillis(1), 100000);
+ * ...
+ * // after a full exchange
+ * byte[] ticket = issuer.issueTicket(userName, runner);
+ * DataOutputStream ticketOut = new DataOutputStream(srpOut);	// the authenticated SRPOutputStream
+ * ticketOut.writeShort(ticket.length);
+ * ticketOut.write(ticket);
+ * ticketOut.flush();
+ * ...
+ * // client reconnects with the ticket
+ * SRPResumeServerRunner resumeRunner = new SRPResumeServerRunner(issuer);
+ * </pre></code>
+ * {@link SRPServer} does all of this when given an issuer.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @see SRPTicket
+ * @version 1.1 a ticket is only marked used after the client proof - 10/16/26
+ * @version 1.0
+ */
+public class SRPTicketIssuer
+{
+	/**
+	 * @param lifetimeMs how long tickets can be used for
+	 * @param maxUsedTickets the most used (unexpired) tickets to remember
+	 */
+	public SRPTicketIssuer(long lifetimeMs, int maxUsedTickets)
+	{
+		if ( lifetimeMs <= 0 )
+		{
+			throw new IllegalArgumentException("lifetimeMs must be greater than 0");
+		}
+		if ( maxUsedTickets <= 0 )
+		{
+			throw new IllegalArgumentException("maxUsedTickets must be greater than 0");
+		}
+
+		byte[]		key = new byte[KEY_LENGTH];
+		fRandom.nextBytes(key);
+		fKey = new SecretKeySpec(key, "AES");
+		fLifetimeMs = lifetimeMs;
+		fMaxUsedTickets = maxUsedTickets;
+		fUsedTickets = new LinkedHashMap<ByteBuffer, Long>();
+	}
+
+	/**
+	 * Make a ticket for a client that has authenticated
+	 *
+	 * @param userName the user name of the client
+	 * @param runner the (successful) server runner of the client's session - full or resumed
+	 * @return ticket bytes to send to the client
+	 */
+	public byte[]			issueTicket(String userName, SRPRunner runner)
+	{
+		byte[]		userNameBytes = userName.getBytes(StandardCharsets.UTF_8);
+		if ( userNameBytes.length > 0xffff )
+		{
+			throw new IllegalArgumentException("User name is too long");
+		}
+
+		byte[]		nonce = new byte[SRPTicket.NONCE_LENGTH];
+		fRandom.nextBytes(nonce);
+		byte[]		secret = SRPTicket.makeResumptionSecret(runner.getSessionKey());
+
+		ByteBuffer	ticket = ByteBuffer.allocate(HEADER_LENGTH + userNameBytes.length + SRPTicket.NONCE_LENGTH + SRPTicket.SECRET_LENGTH + SRPTicket.TAG_LENGTH);
+		ticket.put((byte)SRPTicket.TICKET_VERSION);
+		ticket.putLong(System.currentTimeMillis() + fLifetimeMs);
+		ticket.putShort((short)userNameBytes.length);
+		ticket.put(userNameBytes);
+		int			headerLength = ticket.position();
+		ticket.put(nonce);
+		try
+		{
+			Cipher		cipher = fCiphers.get();
+			cipher.init(Cipher.ENCRYPT_MODE, fKey, new GCMParameterSpec(SRPTicket.TAG_LENGTH * 8, nonce));
+			cipher.updateAAD(ticket.array(), 0, headerLength);
+			cipher.doFinal(secret, 0, secret.length, ticket.array(), ticket.position());
+		}
+		catch ( GeneralSecurityException e )
+		{
+			throw new UnsupportedOperationException(e);
+		}
+		return ticket.array();
+	}
+
+	/**
+	 * @return the number of used tickets that are remembered
+	 */
+	public int				getUsedTicketCount()
+	{
+		synchronized(fUsedTickets)
+		{
+			removeExpired(System.nanoTime());
+			return fUsedTickets.size();
+		}
+	}
+
+	/**
+	 * Check and decrypt a ticket. The ticket isn't marked used until the client has proven it has the secret - see {@link #markUsed(SRPTicket)}
+	 *
+	 * @param ticketBytes the ticket sent by the client
+	 * @return the ticket with its resumption secret
+	 * @throws SRPAuthenticationFailedException if the ticket is bad, expired, already used or too many tickets are in use
+	 */
+	SRPTicket				redeem(byte[] ticketBytes) throws SRPAuthenticationFailedException
+	{
+		SRPTicket		ticket;
+		try
+		{
+			ticket = new SRPTicket(ticketBytes, (byte[])null);
+		}
+		catch ( IllegalArgumentException e )
+		{
+			throw new SRPAuthenticationFailedException("Bad ticket: " + e.getMessage());
+		}
+		if ( ticket.isExpired() )
+		{
+			throw new SRPAuthenticationFailedException("The ticket has expired");
+		}
+
+		int				headerLength = ticket.getHeaderLength();
+		byte[]			secret;
+		try
+		{
+			Cipher		cipher = fCiphers.get();
+			cipher.init(Cipher.DECRYPT_MODE, fKey, new GCMParameterSpec(SRPTicket.TAG_LENGTH * 8, ticketBytes, headerLength, SRPTicket.NONCE_LENGTH));
+			cipher.updateAAD(ticketBytes, 0, headerLength);
+			int			encryptedOffset = headerLength + SRPTicket.NONCE_LENGTH;
+			secret = cipher.doFinal(ticketBytes, encryptedOffset, ticketBytes.length - encryptedOffset);
+		}
+		catch ( GeneralSecurityException e )
+		{
+			throw new SRPAuthenticationFailedException("Bad ticket");	// forged, altered or from another issuer
+		}
+
+		synchronized(fUsedTickets)
+		{
+			checkUnused(getNonce(ticketBytes, headerLength), System.nanoTime());
+		}
+		return new SRPTicket(ticketBytes, secret);
+	}
+
+	/**
+	 * Mark a redeemed ticket used. Call only once the client has proven it holds the ticket's secret. The checks of
+	 * {@link #redeem(byte[])} are made again as another connection may have used the same ticket in the meantime
+	 *
+	 * @param ticket the ticket returned by {@link #redeem(byte[])}
+	 * @throws SRPAuthenticationFailedException if the ticket has been used or too many tickets are in use
+	 */
+	void					markUsed(SRPTicket ticket) throws SRPAuthenticationFailedException
+	{
+		ByteBuffer		nonce = getNonce(ticket.getTicket(), ticket.getHeaderLength());
+		synchronized(fUsedTickets)
+		{
+			long		now = System.nanoTime();
+			checkUnused(nonce, now);
+			// a ticket expires within the lifetime of being used so this is a safe time to forget it. As every entry gets the
+			// same lifetime, the map is in order of removal time
+			fUsedTickets.put(nonce, now + TimeUnit.MILLISECONDS.toNanos(fLifetimeMs));
+		}
+	}
+
+	private void			checkUnused(ByteBuffer nonce, long now) throws SRPAuthenticationFailedException
+	{
+		removeExpired(now);
+		if ( fUsedTickets.containsKey(nonce) )
+		{
+			throw new SRPAuthenticationFailedException("The ticket has already been used");
+		}
+		if ( fUsedTickets.size() >= fMaxUsedTickets )
+		{
+			throw new SRPAuthenticationFailedException("Too many tickets used recently");
+		}
+	}
+
+	private static ByteBuffer	getNonce(byte[] ticketBytes, int headerLength)
+	{
+		return ByteBuffer.wrap(Arrays.copyOfRange(ticketBytes, headerLength, headerLength + SRPTicket.NONCE_LENGTH));
+	}
+
+	private void			removeExpired(long now)
+	{
+		Iterator<Map.Entry<ByteBuffer, Long>>		iterator = fUsedTickets.entrySet().iterator();
+		while ( iterator.hasNext() && ((iterator.next().getValue() - now) <= 0) )
+		{
+			iterator.remove();
+		}
+	}
+
+	private static final int		KEY_LENGTH = 16;
+	private static final int		HEADER_LENGTH = 11;
+
+	private static final SecureRandom 				fRandom = new SecureRandom();
+
+	private static final ThreadLocal<Cipher>		fCiphers = new ThreadLocal<Cipher>()
+	{
+		protected Cipher initialValue()
+		{
+			try
+			{
+				return Cipher.getInstance("AES/GCM/NoPadding");
+			}
+			catch ( GeneralSecurityException e )
+			{
+				throw new UnsupportedOperationException(e);
+			}
+		}
+	};
+
+	private final SecretKeySpec 				fKey;
+	private final long 							fLifetimeMs;
+	private final int 							fMaxUsedTickets;
+	private final Map<ByteBuffer, Long> 		fUsedTickets;
+}
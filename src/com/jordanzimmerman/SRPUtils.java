@@ -16,16 +16,24 @@
 package com.jordanzimmerman;     
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Various utilities<br>
  *
  * @author Jordan Zimmerman - jordan@jordanzimmerman.com
  * @see SRPFactory Full Documentation
+ * @version 1.9 The verifier of an unknown user is made without an exponentiation - 10/16/26
+ * @version 1.8 Stand-in verifiers for unknown users - 10/16/26
+ * @version 1.7 bytesToValue()/valueToBytes() (were in {@link SRPTicket}) - 10/16/26
+ * @version 1.6 Magnitude encoding for toBytes()/fromBytes() - 10/16/26
+ * @version 1.5 combine() and hashing of combined values without intermediate BigIntegers - 10/16/26
+ * @version 1.4 Hash function taken from {@link SRPConstants}. Digests are reused per thread - 10/16/26
+ * @version 1.3 g^x via {@link SRPConstants} fixed-base table - 10/16/26
  * @version 1.2 Updated to use the SRP-6 spec 2/21/07
  * @version 1.1
  */
@@ -71,8 +79,8 @@ class SRPUtils
 	static SRPVerifier		makeVerifier(SRPConstants constants, byte[] password)
 	{
 		BigInteger		salt = random(constants);
-		BigInteger 		x = makePrivateKey(password, salt);
-		BigInteger		v = constants.primitiveRoot_g.modPow(x, constants.largePrime_N);
+		BigInteger 		x = makePrivateKey(constants, password, salt);
+		BigInteger		v = constants.primitiveRootPow(x);
 
 		return new SRPVerifier(v, salt);
 	}
@@ -80,14 +88,15 @@ class SRPUtils
 	/**
 	 * Make a new private key via x = H(s, P) where H is a hash() function, s is random salt, and P is the password.
 	 *
+	 * @param constants the constants to use
 	 * @param password the password
 	 * @param salt random salt
 	 * @return the private key
 	 */
-	static BigInteger makePrivateKey(byte[] password, BigInteger salt)
+	static BigInteger makePrivateKey(SRPConstants constants, byte[] password, BigInteger salt)
 	{
 		BigInteger		passwordInt = new BigInteger(password);
-		return hash(combine(passwordInt, salt));
+		return hashCombined(constants.hashFunction_H, passwordInt, salt);
 	}
 
 	/**
@@ -102,94 +111,65 @@ class SRPUtils
 	 */
 	static BigInteger		combine(BigInteger a, BigInteger b)
 	{
-		ByteBuffer	abuf = ByteBuffer.wrap(a.toByteArray());
-		ByteBuffer	bbuf = ByteBuffer.wrap(b.toByteArray());
-		byte[]		combined = new byte[abuf.capacity() + bbuf.capacity()];
-		ByteBuffer	combinedbuf = ByteBuffer.wrap(combined);
-
-		abuf.rewind();
-		bbuf.rewind();
-		combinedbuf.clear();
-
-		while ( abuf.hasRemaining() && bbuf.hasRemaining() )
-		{
-			byte		abyte = abuf.get();
-			combinedbuf.put(abyte);
-			byte		bbyte = bbuf.get();
-			combinedbuf.put(bbyte);
-			if ( ((abyte & 1) == 0) && bbuf.hasRemaining() )
-			{
-				bbyte = bbuf.get();
-				combinedbuf.put(bbyte);
-			}
-		}
-
-		while ( abuf.hasRemaining() )
-		{
-			byte		x = abuf.get();
-			combinedbuf.put(x);
-		}
-
-		while ( bbuf.hasRemaining() )
-		{
-			byte		x = bbuf.get();
-			combinedbuf.put(x);
-		}
+		byte[]		abytes = a.toByteArray();
+		byte[]		bbytes = b.toByteArray();
+		byte[]		combined = new byte[abytes.length + bbytes.length];
+		interleave(abytes, 0, abytes.length, bbytes, combined);
 
 		return new BigInteger(combined);
 	}
 
 	/**
-	 * hash a big int. Use SHA 256.
+	 * Hash the combination of the given values - H(combine(combine(first, second), third)...). The bytes hashed are exactly
+	 * those of the combined BigInteger but no intermediate BigIntegers are built: the values are interleaved into per thread
+	 * scratch buffers.
 	 *
-	 * @param i int to hash
+	 * @param hashFunction hash function to use
+	 * @param first first value to combine
+	 * @param rest values to combine in turn with the combination so far
 	 * @return the hash
 	 */
-	static BigInteger		hash(BigInteger i)
+	static BigInteger		hashCombined(SRPHashAlgorithm hashFunction, BigInteger first, BigInteger... rest)
 	{
-		return new BigInteger(hashToBytes(i));
+		CombineScratch		scratch = fCombineScratch.get();
+		byte[]				combined = first.toByteArray();
+		int					offset = 0;
+		int					length = combined.length;
+		for ( BigInteger value : rest )
+		{
+			byte[]		bytes = value.toByteArray();
+			byte[]		dest = scratch.next(length + bytes.length);
+			int			destLength = interleave(combined, offset, length, bytes, dest);
+
+			// the combined value's bytes are those of new BigInteger(dest) - i.e. without redundant sign bytes
+			combined = dest;
+			offset = getSignificantOffset(dest, destLength);
+			length = destLength - offset;
+		}
+
+		return new BigInteger(hashFunction.digest(combined, offset, length));
 	}
 
 	/**
-	 * hash a big int. Use SHA 256.
+	 * hash a big int. Use MD5.
 	 *
 	 * @param i int to hash
 	 * @return the hash
 	 */
-	static byte[]		hashToBytes(BigInteger i)
+	static byte[]		hashToBytesMD5(BigInteger i)
 	{
-		try
-		{
-			MessageDigest		sha = MessageDigest.getInstance("SHA-256");
-			byte[] 				b = i.toByteArray();
-			sha.update(b, 0, b.length);
-			return sha.digest();
-		}
-		catch ( NoSuchAlgorithmException e )
-		{
-			throw new UnsupportedOperationException(e);
-		}
+		return fMD5Digests.get().digest(i.toByteArray());
 	}
 
 	/**
-	 * hash a big int. Use MD5.
+	 * hash bytes. Use SHA 256.
 	 *
-	 * @param i int to hash
+	 * @param b bytes to hash
 	 * @return the hash
 	 */
-	static byte[]		hashToBytesMD5(BigInteger i)
+	static byte[]		sha256(byte[] b)
 	{
-		try
-		{
-			MessageDigest		sha = MessageDigest.getInstance("MD5");
-			byte[] 				b = i.toByteArray();
-			sha.update(b, 0, b.length);
-			return sha.digest();
-		}
-		catch ( NoSuchAlgorithmException e )
-		{
-			throw new UnsupportedOperationException(e);
-		}
+		return SRPHashAlgorithm.SHA_256.digest(b);
 	}
 
 	/**
@@ -200,59 +180,286 @@ class SRPUtils
 	 */
 	static BigInteger		random(SRPConstants constants)
 	{
-		int 		numberOfBytes = (constants.largePrime_N.bitLength() + (constants.largePrime_N.bitLength() - 1)) / 8;
-		byte[]		b = new byte[numberOfBytes];
+		byte[]		b = new byte[getRandomLength(constants)];
 		fRandom.nextBytes(b);
-		BigInteger	i = new BigInteger(b);
+		return toRandom(constants, b);
+	}
 
-		// random numbers must be: 1 < r < n
-		BigInteger	max = constants.largePrime_N.subtract(TWO);
-		return i.mod(max).add(TWO);
+	/**
+	 * Make a stand-in verifier for a user that doesn't exist. Servers run the exchange with it and fail at M(1), the same as for a
+	 * bad password - turning the user down before any value is sent would tell anyone which user names exist. The salt and v are
+	 * HMACs of the user name under a random secret, so the same name always gets the same salt (for the life of the process) and
+	 * the salt looks like one from {@link #random(SRPConstants)}. v is never sent and no password has to match it, so it isn't
+	 * g^x - an exponentiation here would make unknown users slower to answer than known ones.
+	 *
+	 * @param constants the constants to use
+	 * @param userName the user that doesn't exist
+	 * @return the verifier
+	 */
+	static SRPVerifier		makeUnknownUserVerifier(SRPConstants constants, String userName)
+	{
+		byte[]		name = userName.getBytes(StandardCharsets.UTF_8);
+		BigInteger	salt = toRandom(constants, expandSecret(UNKNOWN_USER_SALT_LABEL, name, getRandomLength(constants)));
+		BigInteger	v = toRandom(constants, expandSecret(UNKNOWN_USER_KEY_LABEL, name, getRandomLength(constants)));
+		return new SRPVerifier(v, salt);
 	}
 
 	/**
 	 * Calculate M(1) - H(A, B, K)
 	 *
+	 * @param constants the constants to use
 	 * @param publicKey_A generated public key - A
 	 * @param publicKey_B generated public key - B
 	 * @param commonValue_S the session common value - S
 	 * @return M(1)
 	 */
-	static BigInteger		calcM1(BigInteger publicKey_A, BigInteger publicKey_B, BigInteger commonValue_S)
+	static BigInteger		calcM1(SRPConstants constants, BigInteger publicKey_A, BigInteger publicKey_B, BigInteger commonValue_S)
 	{
-		return hash(combine(combine(publicKey_A, publicKey_B), commonValue_S));
+		return hashCombined(constants.hashFunction_H, publicKey_A, publicKey_B, commonValue_S);
 	}
 
 	/**
 	 * Calculate M(1) - H(A, M[1], K)
 	 *
+	 * @param constants the constants to use
 	 * @param publicKey_A generated public key - A
 	 * @param evidenceValue_M1 generated hash - M(1)
 	 * @param commonValue_S the session common value - S
 	 * @return M(1)
 	 */
-	static BigInteger		calcM2(BigInteger publicKey_A, BigInteger evidenceValue_M1, BigInteger commonValue_S)
+	static BigInteger		calcM2(SRPConstants constants, BigInteger publicKey_A, BigInteger evidenceValue_M1, BigInteger commonValue_S)
 	{
-		return hash(combine(combine(publicKey_A, evidenceValue_M1), commonValue_S));
+		return hashCombined(constants.hashFunction_H, publicKey_A, evidenceValue_M1, commonValue_S);
 	}
 
 	/**
 	 * Return the SRP-6 version of u - H(A, B)
 	 *
+	 * @param constants the constants to use
 	 * @param A Public Key A
 	 * @param B Public Key B
 	 * @return u
 	 */
-	static BigInteger 		calc_u(BigInteger A, BigInteger B)
+	static BigInteger 		calc_u(SRPConstants constants, BigInteger A, BigInteger B)
+	{
+		return hashCombined(constants.hashFunction_H, A, B);
+	}
+
+	/**
+	 * @param value a non-negative value
+	 * @return the number of bytes in the value's magnitude (i.e. without a sign byte)
+	 */
+	static int				getMagnitudeLength(BigInteger value)
+	{
+		if ( value.signum() < 0 )
+		{
+			throw new IllegalArgumentException("Negative values can't be encoded");
+		}
+		return (value.bitLength() + 7) / 8;
+	}
+
+	/**
+	 * Write the magnitude of a value, big-endian, padded with leading zeros to the given width
+	 *
+	 * @param buffer buffer to write to
+	 * @param value a non-negative value
+	 * @param width number of bytes to write - at least {@link #getMagnitudeLength(BigInteger)}
+	 */
+	static void				writeMagnitude(ByteBuffer buffer, BigInteger value, int width)
+	{
+		int			length = getMagnitudeLength(value);
+		byte[]		bytes = value.toByteArray();
+		int			offset = bytes.length - length;	// skip the sign byte, if there is one
+		if ( length > width )
+		{
+			throw new IllegalArgumentException("Value is larger than " + width + " bytes");
+		}
+		for ( int i = length; i < width; ++i )
+		{
+			buffer.put((byte)0);
+		}
+		buffer.put(bytes, offset, length);
+	}
+
+	/**
+	 * Read a magnitude written by {@link #writeMagnitude(ByteBuffer, BigInteger, int)}
+	 *
+	 * @param buffer buffer to read from
+	 * @param width number of bytes
+	 * @return the value
+	 */
+	static BigInteger		readMagnitude(ByteBuffer buffer, int width)
 	{
-		return hash(combine(A, B));
+		byte[]		bytes = new byte[width];
+		buffer.get(bytes);
+		return new BigInteger(1, bytes);
+	}
+
+	/**
+	 * Runners exchange BigIntegers - bytes (e.g. tickets, user names) are sent with a leading 1 byte that keeps their leading zeros
+	 *
+	 * @param bytes bytes to send
+	 * @return value
+	 */
+	static BigInteger		bytesToValue(byte[] bytes)
+	{
+		byte[]		marked = new byte[bytes.length + 1];
+		marked[0] = 1;
+		System.arraycopy(bytes, 0, marked, 1, bytes.length);
+		return new BigInteger(marked);
+	}
+
+	/**
+	 * The reverse of {@link #bytesToValue(byte[])}
+	 *
+	 * @param value received value
+	 * @return the bytes
+	 * @throws SRPAuthenticationFailedException if the value wasn't made by bytesToValue()
+	 */
+	static byte[]			valueToBytes(BigInteger value) throws SRPAuthenticationFailedException
+	{
+		byte[]		marked = value.toByteArray();
+		if ( marked[0] != 1 )
+		{
+			throw new SRPAuthenticationFailedException("Bad exchanged value");
+		}
+		return Arrays.copyOfRange(marked, 1, marked.length);
 	}
 
 	private SRPUtils()
 	{
 	}
 
+	private static int		getRandomLength(SRPConstants constants)
+	{
+		return (constants.largePrime_N.bitLength() + (constants.largePrime_N.bitLength() - 1)) / 8;
+	}
+
+	private static BigInteger	toRandom(SRPConstants constants, byte[] b)
+	{
+		BigInteger	i = new BigInteger(b);
+
+		// random numbers must be: 1 < r < n
+		BigInteger	max = constants.largePrime_N.subtract(TWO);
+		return i.mod(max).add(TWO);
+	}
+
+	private static byte[]	expandSecret(byte[] label, byte[] name, int length)
+	{
+		// HMAC(secret, label | name | counter) for as many blocks as are needed
+		byte[]		result = new byte[length];
+		byte[]		counter = new byte[1];
+		for ( int offset = 0; offset < length; ++counter[0] )
+		{
+			byte[]		block = SRPTicket.hmac(fUnknownUserSecret, label, name, counter);
+			int			blockLength = Math.min(block.length, length - offset);
+			System.arraycopy(block, 0, result, offset, blockLength);
+			offset += blockLength;
+		}
+		return result;
+	}
+
+	/**
+	 * Interleave the bytes of a and b as described in {@link #combine(BigInteger, BigInteger)}
+	 *
+	 * @param a first value's bytes
+	 * @param aOffset offset of the first value in a
+	 * @param aLength length of the first value
+	 * @param b second value's bytes
+	 * @param dest receives the combined bytes - must have room for aLength + b.length bytes
+	 * @return number of bytes written to dest
+	 */
+	private static int		interleave(byte[] a, int aOffset, int aLength, byte[] b, byte[] dest)
+	{
+		int		aIndex = aOffset;
+		int		aEnd = aOffset + aLength;
+		int		bIndex = 0;
+		int		destIndex = 0;
+		while ( (aIndex < aEnd) && (bIndex < b.length) )
+		{
+			byte		abyte = a[aIndex++];
+			dest[destIndex++] = abyte;
+			dest[destIndex++] = b[bIndex++];
+			if ( ((abyte & 1) == 0) && (bIndex < b.length) )
+			{
+				dest[destIndex++] = b[bIndex++];
+			}
+		}
+
+		System.arraycopy(a, aIndex, dest, destIndex, aEnd - aIndex);
+		destIndex += aEnd - aIndex;
+		System.arraycopy(b, bIndex, dest, destIndex, b.length - bIndex);
+		destIndex += b.length - bIndex;
+
+		return destIndex;
+	}
+
+	/**
+	 * Returns the offset of the bytes that {@link BigInteger#toByteArray()} would return for new BigInteger(bytes) - leading
+	 * 0x00/0xFF bytes are dropped when the next byte has the same sign
+	 *
+	 * @param bytes two's complement value
+	 * @param length length of the value
+	 * @return offset of the first significant byte
+	 */
+	private static int		getSignificantOffset(byte[] bytes, int length)
+	{
+		int		offset = 0;
+		while ( offset < (length - 1) )
+		{
+			byte		b = bytes[offset];
+			byte		next = bytes[offset + 1];
+			if ( !((b == 0) && (next >= 0)) && !((b == -1) && (next < 0)) )
+			{
+				break;
+			}
+			++offset;
+		}
+		return offset;
+	}
+
+	/**
+	 * Two buffers used in turn by {@link SRPUtils#hashCombined(SRPHashAlgorithm, BigInteger, BigInteger...)} - one holds the
+	 * combination so far while the next is written to the other
+	 */
+	private static class CombineScratch
+	{
+		byte[]		next(int size)
+		{
+			fIndex ^= 1;
+			if ( fBuffers[fIndex].length < size )
+			{
+				fBuffers[fIndex] = new byte[size];
+			}
+			return fBuffers[fIndex];
+		}
+
+		private final byte[][] 		fBuffers = {new byte[0], new byte[0]};
+		private int 				fIndex = 0;
+	}
+
 	private static final BigInteger 		TWO = BigInteger.valueOf(2);
 
 	private static final SecureRandom 		fRandom = new SecureRandom();
+
+	private static final byte[]				UNKNOWN_USER_SALT_LABEL = "SRP unknown user salt".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[]				UNKNOWN_USER_KEY_LABEL = "SRP unknown user key".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[]				fUnknownUserSecret = makeUnknownUserSecret();
+
+	private static final ThreadLocal<MessageDigest>	fMD5Digests = SRPHashAlgorithm.makeDigests("MD5");
+
+	private static byte[]		makeUnknownUserSecret()
+	{
+		byte[]		secret = new byte[32];
+		fRandom.nextBytes(secret);
+		return secret;
+	}
+
+	private static final ThreadLocal<CombineScratch>	fCombineScratch = new ThreadLocal<CombineScratch>()
+	{
+		protected CombineScratch initialValue()
+		{
+			return new CombineScratch();
+		}
+	};
 }
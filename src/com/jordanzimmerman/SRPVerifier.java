@@ -17,12 +17,21 @@ package com.jordanzimmerman;
 
 import java.math.BigInteger;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * POJO for holding the random salt and verifier<br>
+ * <p>
+ * For storing/sending many verifiers use {@link #toBytes()}/{@link #fromBytes(byte[])} (or {@link #writeTo(ByteBuffer)}/{@link #readFrom(ByteBuffer)})
+ * rather than Java serialization. The encoding is:
+ * <code><pre>
+ * [version - 1 byte][width - 2 bytes, big-endian][v - width bytes][s - width bytes]
+ * </pre></code>
+ * v and s are unsigned, big-endian and padded with leading zeros to the width - the byte length of the larger of the two.
  *
  * @author Jordan Zimmerman - jordan@jordanzimmerman.com
  * @see SRPFactory Full Documentation
+ * @version 1.2 Binary encoding - 10/16/26
  * @version 1.1
  */
 public class SRPVerifier implements Serializable
@@ -42,4 +51,93 @@ public class SRPVerifier implements Serializable
 	 * s
 	 */
 	public final BigInteger 	salt_s;
+
+	/**
+	 * Decode a verifier encoded by {@link #toBytes()}
+	 *
+	 * @param bytes the encoding
+	 * @return the verifier
+	 * @throws IllegalArgumentException if the bytes are not a valid encoding
+	 */
+	public static SRPVerifier	fromBytes(byte[] bytes)
+	{
+		ByteBuffer		buffer = ByteBuffer.wrap(bytes);
+		SRPVerifier		verifier = readFrom(buffer);
+		if ( buffer.hasRemaining() )
+		{
+			throw new IllegalArgumentException("Extra bytes after the verifier: " + buffer.remaining());
+		}
+		return verifier;
+	}
+
+	/**
+	 * Decode a verifier written by {@link #writeTo(ByteBuffer)}. The buffer's position is moved past it.
+	 *
+	 * @param buffer the encoding, starting at the position
+	 * @return the verifier
+	 * @throws IllegalArgumentException if the encoding is of an unknown version
+	 * @throws java.nio.BufferUnderflowException if the buffer doesn't hold all of the encoding
+	 */
+	public static SRPVerifier	readFrom(ByteBuffer buffer)
+	{
+		int			version = buffer.get() & 0xff;
+		if ( version != ENCODING_VERSION )
+		{
+			throw new IllegalArgumentException("Unknown SRPVerifier encoding version: " + version);
+		}
+
+		int			width = buffer.getShort() & 0xffff;
+		BigInteger	verifier = SRPUtils.readMagnitude(buffer, width);
+		BigInteger	salt = SRPUtils.readMagnitude(buffer, width);
+		return new SRPVerifier(verifier, salt);
+	}
+
+	/**
+	 * @return the number of bytes written by {@link #toBytes()}/{@link #writeTo(ByteBuffer)}
+	 */
+	public int					getEncodedLength()
+	{
+		return HEADER_LENGTH + (getWidth() * 2);
+	}
+
+	/**
+	 * @return the encoding of this verifier
+	 */
+	public byte[]				toBytes()
+	{
+		ByteBuffer		buffer = ByteBuffer.allocate(getEncodedLength());
+		writeTo(buffer);
+		return buffer.array();
+	}
+
+	/**
+	 * Write the encoding of this verifier at the buffer's position. The buffer needs {@link #getEncodedLength()} bytes remaining.
+	 *
+	 * @param buffer buffer to write to
+	 * @throws java.nio.BufferOverflowException if there isn't room
+	 */
+	public void					writeTo(ByteBuffer buffer)
+	{
+		int			width = getWidth();
+		buffer.put((byte)ENCODING_VERSION);
+		buffer.putShort((short)width);
+		SRPUtils.writeMagnitude(buffer, verifier_v, width);
+		SRPUtils.writeMagnitude(buffer, salt_s, width);
+	}
+
+	private int					getWidth()
+	{
+		int			width = Math.max(SRPUtils.getMagnitudeLength(verifier_v), SRPUtils.getMagnitudeLength(salt_s));
+		if ( width > 0xffff )
+		{
+			throw new IllegalArgumentException("Verifier is too large to encode");
+		}
+		return width;
+	}
+
+	private static final int		ENCODING_VERSION = 1;
+	private static final int		HEADER_LENGTH = 3;
+
+	// the value generated for the original version of this class - keeps serialized instances readable now that it has methods
+	private static final long		serialVersionUID = 4053567431841555761L;
 }
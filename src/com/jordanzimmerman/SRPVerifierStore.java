@@ -0,0 +1,51 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Keeps the verifiers of users, referenced by user name. A store is also a {@link SRPServer.VerifierLookup} so it can be passed
+ * straight to an {@link SRPServer}.<br>
+ * <p>
+ * Implementations must allow getVerifier() to be called from many threads at once.
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @see SRPMappedVerifierStore
+ * @version 1.0
+ */
+public interface SRPVerifierStore extends SRPServer.VerifierLookup, Closeable
+{
+	/**
+	 * Add a user or replace the user's verifier
+	 *
+	 * @param userName the user
+	 * @param verifier the verifier
+	 * @throws IOException errors
+	 */
+	public void				putVerifier(String userName, SRPVerifier verifier) throws IOException;
+
+	/**
+	 * Remove a user
+	 *
+	 * @param userName the user
+	 * @return true if there was such a user
+	 * @throws IOException errors
+	 */
+	public boolean			removeVerifier(String userName) throws IOException;
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2008-2010 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jordanzimmerman;     
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes/decodes authentication values and data block sizes to/from buffers. The decode methods never consume a partial
+ * value so they can be used with buffers that are filled a bit at a time.<br>
+ *
+ * @author Jordan Zimmerman - jordan@jordanzimmerman.com
+ * @see SRPFactory Full Documentation
+ * @see SRPFraming
+ * @version 1.0
+ */
+class SRPWireFormat
+{
+	/**
+	 * The largest encoded data block size
+	 */
+	static final int		MAX_FRAME_SIZE_LENGTH = 9;
+
+	/**
+	 * Encode an authentication value
+	 *
+	 * @param i value
+	 * @param framing framing to use
+	 * @return encoded bytes
+	 */
+	static byte[]			encodeValue(BigInteger i, SRPFraming framing)
+	{
+		byte[]		bytes;
+		if ( framing == SRPFraming.BINARY )
+		{
+			byte[]		value = i.toByteArray();
+			bytes = new byte[4 + value.length];
+			ByteBuffer.wrap(bytes).putInt(value.length).put(value);
+		}
+		else
+		{
+			String		str = i.toString(16);
+			bytes = new byte[str.length() + 1];
+			for ( int j = 0; j < str.length(); ++j )
+			{
+				bytes[j] = (byte)(str.charAt(j) & 0xff);
+			}
+			bytes[str.length()] = '\n';
+		}
+		return bytes;
+	}
+
+	/**
+	 * Decode an authentication value if a complete one is in the buffer
+	 *
+	 * @param src buffer to decode from. The position is only advanced if a complete value is decoded.
+	 * @param framing framing to use
+	 * @return the value or null if the buffer doesn't hold a complete value yet
+	 * @throws IOException if the value is malformed
+	 */
+	static BigInteger		decodeValue(ByteBuffer src, SRPFraming framing) throws IOException
+	{
+		if ( framing == SRPFraming.BINARY )
+		{
+			if ( src.remaining() < 4 )
+			{
+				return null;
+			}
+
+			int		size = src.getInt(src.position());
+			if ( (size <= 0) || (size > SRPInputStream.MAX_AUTHENTICATION_VALUE_SIZE) )
+			{
+				throw new SRPAuthenticationFailedException("Bad value size: " + size);
+			}
+			if ( src.remaining() < (4 + size) )
+			{
+				return null;
+			}
+
+			byte[]	bytes = new byte[size];
+			src.position(src.position() + 4);
+			src.get(bytes);
+			return new BigInteger(bytes);
+		}
+
+		int		newlineIndex = indexOfNewline(src);
+		if ( newlineIndex < 0 )
+		{
+			return null;
+		}
+
+		StringBuilder		str = new StringBuilder(newlineIndex - src.position());
+		while ( src.position() < newlineIndex )
+		{
+			str.append((char)(src.get() & 0xff));
+		}
+		src.get();	// the newline
+		try
+		{
+			return new BigInteger(str.toString(), 16);
+		}
+		catch ( NumberFormatException e )
+		{
+			throw new SRPAuthenticationFailedException("Bad value: " + str);
+		}
+	}
+
+	/**
+	 * Encode a data block size
+	 *
+	 * @param size the size
+	 * @param framing framing to use
+	 * @param dst buffer to encode into - must have {@link #MAX_FRAME_SIZE_LENGTH} bytes remaining
+	 */
+	static void				encodeFrameSize(int size, SRPFraming framing, ByteBuffer dst)
+	{
+		if ( framing == SRPFraming.BINARY )
+		{
+			dst.putInt(size);
+			return;
+		}
+
+		int		digits = 1;
+		while ( (size >>> (digits * 4)) != 0 )
+		{
+			++digits;
+		}
+		while ( digits-- > 0 )
+		{
+			dst.put(HEX_DIGITS[(size >>> (digits * 4)) & 0xf]);
+		}
+		dst.put((byte)'\n');
+	}
+
+	/**
+	 * Decode a data block size if a complete one is in the buffer
+	 *
+	 * @param src buffer to decode from. The position is only advanced if a complete size is decoded.
+	 * @param framing framing to use
+	 * @return the size or -1 if the buffer doesn't hold a complete size yet
+	 * @throws IOException if the size is malformed or larger than {@link SRPInputStream#MAX_FRAME_SIZE}
+	 */
+	static int				decodeFrameSize(ByteBuffer src, SRPFraming framing) throws IOException
+	{
+		int		size;
+		if ( framing == SRPFraming.BINARY )
+		{
+			if ( src.remaining() < 4 )
+			{
+				return -1;
+			}
+			size = src.getInt();
+		}
+		else
+		{
+			int		newlineIndex = indexOfNewline(src);
+			if ( newlineIndex < 0 )
+			{
+				if ( src.remaining() >= MAX_FRAME_SIZE_LENGTH )
+				{
+					throw new IOException("Bad data block size");
+				}
+				return -1;
+			}
+
+			int		digits = newlineIndex - src.position();
+			if ( (digits == 0) || (digits >= MAX_FRAME_SIZE_LENGTH) )
+			{
+				throw new IOException("Bad data block size");
+			}
+
+			size = 0;
+			while ( src.position() < newlineIndex )
+			{
+				int		digit = Character.digit(src.get(), 16);
+				if ( digit < 0 )
+				{
+					throw new IOException("Bad data block size");
+				}
+				size = (size << 4) | digit;
+			}
+			src.get();	// the newline
+		}
+
+		if ( (size <= 0) || (size > SRPInputStream.MAX_FRAME_SIZE) )
+		{
+			throw new IOException("Bad data block size: " + size);
+		}
+		return size;
+	}
+
+	private static int		indexOfNewline(ByteBuffer src)
+	{
+		for ( int i = src.position(); i < src.limit(); ++i )
+		{
+			if ( src.get(i) == '\n' )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private SRPWireFormat()
+	{
+	}
+
+	private static final byte[]		HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+}